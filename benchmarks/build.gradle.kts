@@ -0,0 +1,10 @@
+plugins {
+    id("benchmark-conventions")
+}
+
+group = "io.github.akmal2409"
+version = "1.0-SNAPSHOT"
+
+dependencies {
+    jmh(project(":server"))
+}
@@ -0,0 +1,107 @@
+package io.github.akmal2409.dnsforwarder.benchmarks.codec;
+
+import io.github.akmal2409.dnsforwarder.server.codec.encoders.DnsMessageEncoder;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsHeader;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ARecord;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.Cname;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.NS;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.Opt;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.Opt.Option;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceRecord;
+import java.net.Inet4Address;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Messages shaped like the responses a forwarder sees, encoded with name compression the way
+ * resolvers send them.
+ */
+public enum Corpus {
+
+  /**
+   * CNAME chain ending in two addresses plus the authority section, most names are compressed.
+   */
+  CNAME_CHAIN(message(
+      new DnsQuestion("www.example.com", DnsType.A, DnsClass.IN),
+      new ResourceRecord[]{
+          new Cname("www.example.com", DnsClass.IN, 300, "edge.example.net"),
+          new Cname("edge.example.net", DnsClass.IN, 60, "a1.edge.example.net"),
+          new ARecord("a1.edge.example.net", DnsClass.IN, 20, address(1)),
+          new ARecord("a1.edge.example.net", DnsClass.IN, 20, address(2))},
+      new ResourceRecord[]{
+          new NS("example.net", DnsClass.IN, 86400, "ns1.example.net"),
+          new NS("example.net", DnsClass.IN, 86400, "ns2.example.net")},
+      new ResourceRecord[0])),
+
+  /**
+   * Single answer with an EDNS OPT record carrying a cookie, as sent by most public resolvers.
+   */
+  EDNS_OPT(message(
+      new DnsQuestion("google.com", DnsType.A, DnsClass.IN),
+      new ResourceRecord[]{new ARecord("google.com", DnsClass.IN, 300, address(3))},
+      new ResourceRecord[0],
+      new ResourceRecord[]{new Opt("", (short) 1232, 0, List.of(
+          new Option((short) 10, (short) 8, new byte[]{1, 2, 3, 4, 5, 6, 7, 8})))})),
+
+  /**
+   * Large round-robin set of addresses for a single name.
+   */
+  MANY_A(message(
+      new DnsQuestion("cdn.example.com", DnsType.A, DnsClass.IN),
+      manyAddresses("cdn.example.com", 24),
+      new ResourceRecord[0],
+      new ResourceRecord[0]));
+
+  private final DnsMessage message;
+  private final byte[] bytes;
+
+  Corpus(DnsMessage message) {
+    this.message = message;
+    final var buffer = ByteBuffer.allocate(4096);
+    final int length = new DnsMessageEncoder().encode(message, buffer);
+    this.bytes = Arrays.copyOf(buffer.array(), length);
+  }
+
+  public DnsMessage message() {
+    return message;
+  }
+
+  /**
+   * @return encoded message, must not be modified
+   */
+  public byte[] bytes() {
+    return bytes;
+  }
+
+  private static DnsMessage message(DnsQuestion question, ResourceRecord[] answers,
+      ResourceRecord[] nameServers, ResourceRecord[] additional) {
+    final var header = new DnsHeader((short) 4321, false, (byte) 0, false, false, true, true,
+        false, (byte) 0, 1, answers.length, nameServers.length, additional.length);
+
+    return new DnsMessage(header, new DnsQuestion[]{question}, answers, nameServers, additional);
+  }
+
+  private static ResourceRecord[] manyAddresses(String name, int count) {
+    final var records = new ResourceRecord[count];
+
+    for (int i = 0; i < count; i++) {
+      records[i] = new ARecord(name, DnsClass.IN, 60, address(i + 10));
+    }
+
+    return records;
+  }
+
+  private static Inet4Address address(int lastOctet) {
+    try {
+      return (Inet4Address) Inet4Address.getByAddress(new byte[]{10, 0, 0, (byte) lastOctet});
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
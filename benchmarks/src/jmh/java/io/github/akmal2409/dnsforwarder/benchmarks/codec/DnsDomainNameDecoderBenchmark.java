@@ -0,0 +1,55 @@
+package io.github.akmal2409.dnsforwarder.benchmarks.codec;
+
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.ParsedDomainName;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.MessageLayout;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.ParsedObject;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decodes the owner name of the last answer of {@link Corpus#CNAME_CHAIN}, which is a label
+ * followed by a pointer into an earlier record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DnsDomainNameDecoderBenchmark {
+
+  private DnsDomainNameDecoder decoder;
+  private int questionNameOffset;
+  private int compressedNameOffset;
+
+  @Setup
+  public void setUp() {
+    final byte[] message = Corpus.CNAME_CHAIN.bytes();
+    final var layout = MessageLayout.scan(message);
+
+    decoder = new DnsDomainNameDecoder(message);
+    questionNameOffset = 12;
+    // the rdata of the second CNAME is the first occurrence of a1.edge.example.net
+    compressedNameOffset = layout.rDataOffset(1);
+  }
+
+  @Benchmark
+  public ParsedDomainName decodeUncompressedLabels() {
+    return decoder.decodeStartingAt(questionNameOffset);
+  }
+
+  @Benchmark
+  public ParsedDomainName decodeCompressedLabels() {
+    return decoder.decodeStartingAt(compressedNameOffset);
+  }
+
+  @Benchmark
+  public ParsedObject<DomainName> decodeCompressedDomainName() {
+    return decoder.decodeDomainNameAt(compressedNameOffset);
+  }
+}
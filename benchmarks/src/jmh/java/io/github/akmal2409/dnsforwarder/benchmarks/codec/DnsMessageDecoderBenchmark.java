@@ -0,0 +1,56 @@
+package io.github.akmal2409.dnsforwarder.benchmarks.codec;
+
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsMessageDecoder;
+import io.github.akmal2409.dnsforwarder.server.codec.models.CompactQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
+import io.github.akmal2409.dnsforwarder.server.codec.models.LabelOffsetCollection;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DnsMessageDecoderBenchmark {
+
+  @Param
+  public Corpus corpus;
+
+  private byte[] message;
+  private ByteBuffer directMessage;
+  private LabelOffsetCollection labelOffsetCollection;
+
+  @Setup
+  public void setUp() {
+    message = corpus.bytes();
+    directMessage = ByteBuffer.allocateDirect(message.length).put(message).flip();
+    labelOffsetCollection = new LabelOffsetCollection();
+  }
+
+  @Benchmark
+  public DnsMessage decode() {
+    return DnsMessageDecoder.fromBytes(message).decode();
+  }
+
+  @Benchmark
+  public DnsMessage decodeWithReusedLabelCollection() {
+    return DnsMessageDecoder.fromBytes(message, labelOffsetCollection).decode();
+  }
+
+  @Benchmark
+  public DnsMessage decodeDirectBuffer() {
+    return DnsMessageDecoder.fromBuffer(directMessage, labelOffsetCollection).decode();
+  }
+
+  @Benchmark
+  public CompactQuestion decodeSingleQuestion() {
+    return DnsMessageDecoder.fromBytes(message).decodeSingleQuestion();
+  }
+}
@@ -0,0 +1,47 @@
+package io.github.akmal2409.dnsforwarder.benchmarks.codec;
+
+import io.github.akmal2409.dnsforwarder.server.codec.encoders.DnsMessageEncoder;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DnsMessageEncoderBenchmark {
+
+  @Param
+  public Corpus corpus;
+
+  private DnsMessage message;
+  private DnsMessageEncoder encoder;
+  private ByteBuffer buffer;
+
+  @Setup
+  public void setUp() {
+    message = corpus.message();
+    encoder = new DnsMessageEncoder();
+    buffer = ByteBuffer.allocateDirect(4096);
+  }
+
+  @Benchmark
+  public int encode() {
+    buffer.clear();
+    return encoder.encode(message, buffer);
+  }
+
+  // only MANY_A doesn't fit and gets truncated
+  @Benchmark
+  public int encodeIntoSmallBuffer() {
+    buffer.clear().limit(256);
+    return encoder.encode(message, buffer);
+  }
+}
@@ -0,0 +1,69 @@
+package io.github.akmal2409.dnsforwarder.benchmarks.codec;
+
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.ParsedDomainName;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.MessageLayout;
+import io.github.akmal2409.dnsforwarder.server.codec.models.LabelOffsetCollection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Records every name of {@link Corpus#CNAME_CHAIN} in message order, the way the decoder does,
+ * so that the later names resolve their pointers through the collection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LabelOffsetCollectionBenchmark {
+
+  private ParsedDomainName[] names;
+  private LabelOffsetCollection reused;
+
+  @Setup
+  public void setUp() {
+    final byte[] message = Corpus.CNAME_CHAIN.bytes();
+    final var layout = MessageLayout.scan(message);
+    final var decoder = new DnsDomainNameDecoder(message);
+
+    // question name, then the owner names and the CNAME and NS targets
+    names = new ParsedDomainName[1 + layout.recordCount() + 4];
+    names[0] = decoder.decodeStartingAt(12);
+    int next = 1;
+    int offset = layout.questionsEnd();
+
+    for (int i = 0; i < layout.recordCount(); i++) {
+      names[next++] = decoder.decodeStartingAt(offset);
+      if (layout.recordType(message, i) != 1) { // everything but A carries a name
+        names[next++] = decoder.decodeStartingAt(layout.rDataOffset(i));
+      }
+      offset = layout.rDataOffset(i) + layout.rDataLength(message, i);
+    }
+
+    reused = new LabelOffsetCollection();
+  }
+
+  @Benchmark
+  public void putIntoNewCollection(Blackhole blackhole) {
+    final var collection = new LabelOffsetCollection();
+
+    for (ParsedDomainName name : names) {
+      blackhole.consume(collection.put(name));
+    }
+  }
+
+  @Benchmark
+  public void putIntoReusedCollection(Blackhole blackhole) {
+    reused.reset();
+
+    for (ParsedDomainName name : names) {
+      blackhole.consume(reused.put(name));
+    }
+  }
+}
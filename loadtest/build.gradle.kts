@@ -0,0 +1,15 @@
+plugins {
+    id("executable-java-conventions")
+}
+
+group = "io.github.akmal2409"
+version = "1.0-SNAPSHOT"
+
+dependencies {
+    implementation(project(":server"))
+    implementation("org.hdrhistogram:HdrHistogram:2.1.12")
+}
+
+application {
+    mainClass = "io.github.akmal2409.dnsforwarder.loadtest.LoadTest"
+}
@@ -0,0 +1,142 @@
+package io.github.akmal2409.dnsforwarder.loadtest;
+
+import io.github.akmal2409.dnsforwarder.server.Server;
+import io.github.akmal2409.dnsforwarder.server.ServerConfig;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays a Zipf distributed mix of A queries against a forwarder and prints the latency
+ * percentiles, the throughput and the loss. Without a {@code --target} the forwarder is started
+ * in-process in front of {@code --stubs} {@link StubUpstream}s, so that everything runs on the
+ * loopback interface. The first stub can be degraded with {@code --stubDelay} and
+ * {@code --stubLoss} to see whether the forwarder steers the queries to the healthy ones, and
+ * {@code --listener} picks how its UDP listeners move datagrams.
+ * <p>
+ * Usage: {@code --clients=64 --rate=20000 --duration=30s --warmup=5s --timeout=1s --names=10000
+ * --zipf=1.0 [--target=127.0.0.1:53] [--stubs=3 --stubDelay=50ms --stubLoss=0.1]
+ * [--listener=batched]}
+ */
+public class LoadTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+
+  private static final int STUB_TTL_SECONDS = 300;
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    final LoadTestConfig config = LoadTestConfig.parse(args);
+
+    if (config.target() != null) {
+      run(config, config.target());
+      return;
+    }
+
+    final var stubs = new ArrayList<StubUpstream>(config.stubs());
+
+    try {
+      final var upstreams = new ArrayList<InetSocketAddress>(config.stubs());
+
+      for (int i = 0; i < config.stubs(); i++) {
+        stubs.add(i == 0 ? StubUpstream.start(STUB_TTL_SECONDS, config.stubDelay(),
+            config.stubLoss()) : StubUpstream.start(STUB_TTL_SECONDS));
+        upstreams.add(stubs.get(i).address());
+      }
+
+      final Server server = Server.withConfig(ServerConfig.builder()
+                                                  .upstreams(upstreams)
+                                                  .udpListenerMode(config.listenerMode())
+                                                  .build()).start();
+      try {
+        run(config, new InetSocketAddress("127.0.0.1", server.port()));
+
+        for (int i = 0; i < stubs.size(); i++) {
+          System.out.printf("Stub upstream %d answered %d queries%n", i, stubs.get(i).answered());
+        }
+      } finally {
+        server.shutdown(5, TimeUnit.SECONDS);
+      }
+    } finally {
+      for (StubUpstream stub : stubs) {
+        stub.close();
+      }
+    }
+  }
+
+  private static void run(LoadTestConfig config, InetSocketAddress target)
+      throws InterruptedException {
+    final byte[][] queries = queries(config.names());
+    final var names = new ZipfDistribution(config.names(), config.zipfExponent());
+    final long intervalNanos = config.rate() == 0 ? 0
+                                   : TimeUnit.SECONDS.toNanos(config.clients()) / config.rate();
+    final long measureFrom = System.nanoTime() + config.warmup().toNanos();
+    final long stopAt = measureFrom + config.duration().toNanos();
+
+    logger.info("Sending queries for {} names to {} from {} clients, warming up for {}",
+        config.names(), target, config.clients(), config.warmup());
+
+    final var clients = new ArrayList<QueryClient>(config.clients());
+    final var threads = new ArrayList<Thread>(config.clients());
+
+    for (int i = 0; i < config.clients(); i++) {
+      final var client = new QueryClient(target, queries, names, intervalNanos,
+          config.timeout().toNanos(), measureFrom, stopAt, i);
+      clients.add(client);
+      threads.add(Thread.ofPlatform().name("load-client-" + i).start(client));
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    report(config, clients);
+  }
+
+  private static byte[][] queries(int count) {
+    final var queries = new byte[count][];
+
+    for (int i = 0; i < count; i++) {
+      final var question = new DnsQuestion("host-" + i + ".example.com", DnsType.A, DnsClass.IN);
+      queries[i] = DnsPacketGenerator.createMessage(
+          c -> c.query(true).recursionDesired(true).question(question));
+    }
+
+    return queries;
+  }
+
+  private static void report(LoadTestConfig config, List<QueryClient> clients) {
+    final var latencies = new Histogram(3);
+    long sent = 0;
+    long lost = 0;
+
+    for (QueryClient client : clients) {
+      latencies.add(client.latencies());
+      sent += client.sent();
+      lost += client.lost();
+    }
+
+    final double seconds = config.duration().toNanos() / 1e9;
+
+    System.out.printf("Target rate:  %s%n",
+        config.rate() == 0 ? "unlimited" : config.rate() + " queries/s");
+    System.out.printf("Sent:         %d queries in %.1f s%n", sent, seconds);
+    System.out.printf("Throughput:   %.0f responses/s%n", latencies.getTotalCount() / seconds);
+    System.out.printf("Lost:         %d (%.3f%%)%n", lost, sent == 0 ? 0 : 100.0 * lost / sent);
+
+    for (double percentile : PERCENTILES) {
+      System.out.printf("p%-11s %.1f us%n", percentile + ":",
+          latencies.getValueAtPercentile(percentile) / 1e3);
+    }
+    System.out.printf("max:         %.1f us%n", latencies.getMaxValue() / 1e3);
+  }
+}
@@ -0,0 +1,115 @@
+package io.github.akmal2409.dnsforwarder.loadtest;
+
+import io.github.akmal2409.dnsforwarder.server.udp.ListenerMode;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Options of a load test run, passed as {@code --name=value} arguments.
+ *
+ * @param target      forwarder to load, null starts one in-process against a stub upstream
+ * @param clients     number of concurrent clients, each has at most one query in flight
+ * @param rate        total queries per second across all clients, 0 sends as fast as possible
+ * @param duration    how long to measure for
+ * @param warmup      how long to send before measuring
+ * @param timeout     after how long a query counts as lost
+ * @param names       number of distinct names queried
+ * @param zipfExponent skew of the name popularity, 0 is uniform
+ * @param stubs       number of stub upstreams the in-process forwarder balances between
+ * @param stubDelay   how long the first stub holds back every answer
+ * @param stubLoss    share of the queries the first stub drops, between 0 and 1
+ * @param listenerMode how the UDP listeners of the in-process forwarder move datagrams
+ */
+record LoadTestConfig(
+    InetSocketAddress target,
+    int clients,
+    int rate,
+    Duration duration,
+    Duration warmup,
+    Duration timeout,
+    int names,
+    double zipfExponent,
+    int stubs,
+    Duration stubDelay,
+    double stubLoss,
+    ListenerMode listenerMode
+) {
+
+  static LoadTestConfig parse(String[] args) {
+    InetSocketAddress target = null;
+    int clients = 64;
+    int rate = 0;
+    Duration duration = Duration.ofSeconds(30);
+    Duration warmup = Duration.ofSeconds(5);
+    Duration timeout = Duration.ofSeconds(1);
+    int names = 10_000;
+    double zipfExponent = 1.0;
+    int stubs = 1;
+    Duration stubDelay = Duration.ZERO;
+    double stubLoss = 0;
+    ListenerMode listenerMode = ListenerMode.BLOCKING;
+
+    for (String arg : args) {
+      final int separator = arg.indexOf('=');
+
+      if (!arg.startsWith("--") || separator == -1) {
+        throw new IllegalArgumentException("Expected --name=value, got " + arg);
+      }
+
+      final String value = arg.substring(separator + 1);
+
+      switch (arg.substring(2, separator)) {
+        case "target" -> target = parseAddress(value);
+        case "clients" -> clients = Integer.parseInt(value);
+        case "rate" -> rate = Integer.parseInt(value);
+        case "duration" -> duration = parseDuration(value);
+        case "warmup" -> warmup = parseDuration(value);
+        case "timeout" -> timeout = parseDuration(value);
+        case "names" -> names = Integer.parseInt(value);
+        case "zipf" -> zipfExponent = Double.parseDouble(value);
+        case "stubs" -> stubs = Integer.parseInt(value);
+        case "stubDelay" -> stubDelay = parseDuration(value);
+        case "stubLoss" -> stubLoss = Double.parseDouble(value);
+        case "listener" -> listenerMode = ListenerMode.valueOf(value.toUpperCase(Locale.ROOT));
+        default -> throw new IllegalArgumentException("Unknown option " + arg);
+      }
+    }
+
+    if (clients < 1 || rate < 0 || names < 1 || zipfExponent < 0 || stubs < 1) {
+      throw new IllegalArgumentException(
+          "clients, names and stubs must be positive, rate and zipf must not be negative");
+    }
+    if (stubLoss < 0 || stubLoss > 1) {
+      throw new IllegalArgumentException("stubLoss must be between 0 and 1");
+    }
+
+    return new LoadTestConfig(target, clients, rate, duration, warmup, timeout, names,
+        zipfExponent, stubs, stubDelay, stubLoss, listenerMode);
+  }
+
+  // host:port
+  private static InetSocketAddress parseAddress(String value) {
+    final int separator = value.lastIndexOf(':');
+
+    if (separator == -1) {
+      throw new IllegalArgumentException("Expected host:port, got " + value);
+    }
+
+    return new InetSocketAddress(value.substring(0, separator),
+        Integer.parseInt(value.substring(separator + 1)));
+  }
+
+  // 500ms, 30s or 2m
+  private static Duration parseDuration(String value) {
+    if (value.endsWith("ms")) {
+      return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+    } else if (value.endsWith("s")) {
+      return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1)));
+    } else if (value.endsWith("m")) {
+      return Duration.ofMinutes(Long.parseLong(value.substring(0, value.length() - 1)));
+    }
+
+    throw new IllegalArgumentException("Expected a duration like 500ms, 30s or 2m, got " + value);
+  }
+}
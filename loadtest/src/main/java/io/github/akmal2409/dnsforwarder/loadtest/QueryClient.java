@@ -0,0 +1,145 @@
+package io.github.akmal2409.dnsforwarder.loadtest;
+
+import io.github.akmal2409.dnsforwarder.server.common.ByteUtils;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Closed-loop client, sends the next query only once the previous one has been answered or timed
+ * out. With a rate the sends are additionally spaced by a fixed interval and the latency is taken
+ * from the scheduled send time rather than the actual one, so that a stalled server is not
+ * measured as if it had been asked fewer questions.
+ */
+final class QueryClient implements Runnable {
+
+  private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final InetSocketAddress target;
+  private final byte[][] queries;
+  private final ZipfDistribution names;
+  private final long intervalNanos;
+  private final long timeoutNanos;
+  private final long measureFromNanos;
+  private final long stopAtNanos;
+  private final SplittableRandom random;
+
+  private final Histogram latencies = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+  private long sent;
+  private long lost;
+
+  /**
+   * @param intervalNanos    time between two sends of this client, 0 to send right away
+   * @param measureFromNanos {@link System#nanoTime()} after which the results count
+   * @param stopAtNanos      {@link System#nanoTime()} at which to stop sending
+   */
+  QueryClient(InetSocketAddress target, byte[][] queries, ZipfDistribution names,
+      long intervalNanos, long timeoutNanos, long measureFromNanos, long stopAtNanos,
+      long seed) {
+    this.target = target;
+    this.queries = queries;
+    this.names = names;
+    this.intervalNanos = intervalNanos;
+    this.timeoutNanos = timeoutNanos;
+    this.measureFromNanos = measureFromNanos;
+    this.stopAtNanos = stopAtNanos;
+    this.random = new SplittableRandom(seed);
+  }
+
+  @Override
+  public void run() {
+    try (var socket = new DatagramSocket()) {
+      socket.connect(target);
+      loop(socket);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void loop(DatagramSocket socket) throws IOException {
+    final var response = new DatagramPacket(new byte[4096], 4096);
+    long scheduledAt = System.nanoTime();
+
+    while (scheduledAt < stopAtNanos) {
+      if (intervalNanos > 0) {
+        waitUntil(scheduledAt);
+      } else {
+        scheduledAt = System.nanoTime();
+      }
+
+      final byte[] query = queries[names.sample(random)].clone();
+      final short id = (short) random.nextInt(1 << 16);
+      ByteUtils.writeShort(query, 0, 1, id);
+
+      socket.send(new DatagramPacket(query, query.length));
+      final boolean answered = awaitResponse(socket, response, id,
+          System.nanoTime() + timeoutNanos);
+      final long latency = System.nanoTime() - scheduledAt;
+
+      if (scheduledAt >= measureFromNanos) {
+        sent++;
+
+        if (answered) {
+          latencies.recordValue(Math.min(latency, HIGHEST_TRACKABLE_NANOS));
+        } else {
+          lost++;
+        }
+      }
+
+      scheduledAt += intervalNanos;
+    }
+  }
+
+  // skips late responses to the queries that have already timed out
+  private static boolean awaitResponse(DatagramSocket socket, DatagramPacket response, short id,
+      long deadlineNanos) throws IOException {
+    while (true) {
+      final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(
+          deadlineNanos - System.nanoTime());
+
+      if (remainingMillis <= 0) {
+        return false;
+      }
+
+      socket.setSoTimeout((int) remainingMillis);
+
+      try {
+        socket.receive(response);
+      } catch (SocketTimeoutException e) {
+        return false;
+      }
+
+      if (response.getLength() >= 2
+              && ByteUtils.read2BytesUnsignedAsShort(response.getData(), 0) == id) {
+        return true;
+      }
+    }
+  }
+
+  private static void waitUntil(long nanoTime) {
+    long remaining;
+
+    while ((remaining = nanoTime - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+
+  Histogram latencies() {
+    return latencies;
+  }
+
+  long sent() {
+    return sent;
+  }
+
+  long lost() {
+    return lost;
+  }
+}
@@ -0,0 +1,166 @@
+package io.github.akmal2409.dnsforwarder.loadtest;
+
+import static io.github.akmal2409.dnsforwarder.server.codec.decoders.CodecConstants.MAX_MESSAGE_LENGTH;
+import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read2BytesAsInt;
+
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.MessageLayout;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Upstream resolver on the loopback interface that answers every A query with a single record
+ * derived from the name and every other query with an empty answer. Keeps the forwarder's own
+ * overhead measurable without any network access. It can be made to answer late and to drop a
+ * share of the queries, to see how the forwarder copes with a degraded resolver.
+ */
+final class StubUpstream implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(StubUpstream.class);
+
+  private final DatagramChannel channel;
+  private final int ttlSeconds;
+  private final long delayNanos;
+  private final double loss;
+  private final Thread responder;
+  private final ScheduledExecutorService delayedSender;
+  private final AtomicLong answered = new AtomicLong();
+
+  private StubUpstream(DatagramChannel channel, int ttlSeconds, Duration delay, double loss) {
+    this.channel = channel;
+    this.ttlSeconds = ttlSeconds;
+    this.delayNanos = delay.toNanos();
+    this.loss = loss;
+    this.responder = Thread.ofPlatform().name("stub-upstream").daemon().unstarted(this::respond);
+    this.delayedSender = delay.isZero() ? null : Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("stub-upstream-delayed").daemon().factory());
+  }
+
+  static StubUpstream start(int ttlSeconds) throws IOException {
+    return start(ttlSeconds, Duration.ZERO, 0);
+  }
+
+  /**
+   * @param delay how long every answer is held back
+   * @param loss  share of the queries that are never answered, between 0 and 1
+   */
+  static StubUpstream start(int ttlSeconds, Duration delay, double loss) throws IOException {
+    final var channel = DatagramChannel.open();
+    channel.bind(new InetSocketAddress("127.0.0.1", 0));
+
+    final var stub = new StubUpstream(channel, ttlSeconds, delay, loss);
+    stub.responder.start();
+    return stub;
+  }
+
+  InetSocketAddress address() throws IOException {
+    return (InetSocketAddress) channel.getLocalAddress();
+  }
+
+  long answered() {
+    return answered.get();
+  }
+
+  private void respond() {
+    final ByteBuffer in = ByteBuffer.allocateDirect(MAX_MESSAGE_LENGTH);
+    final ByteBuffer out = ByteBuffer.allocateDirect(MAX_MESSAGE_LENGTH);
+
+    while (true) {
+      try {
+        in.clear();
+        final SocketAddress sender = channel.receive(in);
+        in.flip();
+
+        final var query = new byte[in.remaining()];
+        in.get(query);
+
+        if (loss > 0 && ThreadLocalRandom.current().nextDouble() < loss) {
+          continue;
+        }
+
+        if (writeResponse(query, out)) {
+          if (delayedSender == null) {
+            send(out, sender);
+          } else {
+            final ByteBuffer response = ByteBuffer.allocate(out.remaining()).put(out).flip();
+            delayedSender.schedule(() -> send(response, sender), delayNanos,
+                TimeUnit.NANOSECONDS);
+          }
+        }
+      } catch (ClosedChannelException e) {
+        return;
+      } catch (IOException e) {
+        logger.warn("Stub upstream failed to answer", e);
+      }
+    }
+  }
+
+  private void send(ByteBuffer response, SocketAddress recipient) {
+    try {
+      channel.send(response, recipient);
+      answered.incrementAndGet();
+    } catch (IOException e) {
+      logger.debug("Stub upstream failed to send an answer", e);
+    }
+  }
+
+  private boolean writeResponse(byte[] query, ByteBuffer out) {
+    final MessageLayout layout;
+
+    try {
+      layout = MessageLayout.scan(query);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+
+    if (read2BytesAsInt(query, 4) != 1) {
+      return false;
+    }
+
+    final int questionsEnd = layout.questionsEnd();
+    final boolean answerable = read2BytesAsInt(query, questionsEnd - 4) == DnsType.A.numericValue;
+
+    out.clear();
+    out.put(query, 0, questionsEnd);
+    out.put(2, (byte) (query[2] | 0x80)); // response, opcode and RD as in the query
+    out.put(3, (byte) 0x80); // recursion available, no error
+    out.putShort(6, (short) (answerable ? 1 : 0));
+    out.putShort(8, (short) 0);
+    out.putShort(10, (short) 0);
+
+    if (answerable) {
+      final int hash = Arrays.hashCode(Arrays.copyOfRange(query, 12, questionsEnd));
+
+      out.putShort((short) 0xc00c); // pointer to the question name
+      out.putShort(DnsType.A.numericValue);
+      out.putShort((short) 1); // IN
+      out.putInt(ttlSeconds);
+      out.putShort((short) 4);
+      out.put((byte) 10).put((byte) (hash >> 16)).put((byte) (hash >> 8)).put((byte) hash);
+    }
+
+    out.flip();
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (delayedSender != null) {
+      delayedSender.shutdownNow();
+    }
+    channel.close();
+  }
+}
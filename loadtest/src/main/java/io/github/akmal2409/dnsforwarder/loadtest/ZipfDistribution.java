@@ -0,0 +1,35 @@
+package io.github.akmal2409.dnsforwarder.loadtest;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Ranks drawn with probability proportional to {@code 1 / (rank + 1)^exponent}, which is how the
+ * popularity of queried names is usually distributed. The cumulative distribution is computed
+ * once, a sample is a binary search over it.
+ */
+final class ZipfDistribution {
+
+  private final double[] cumulative;
+
+  ZipfDistribution(int size, double exponent) {
+    this.cumulative = new double[size];
+
+    double sum = 0;
+    for (int rank = 0; rank < size; rank++) {
+      sum += 1 / Math.pow(rank + 1, exponent);
+      cumulative[rank] = sum;
+    }
+    for (int rank = 0; rank < size; rank++) {
+      cumulative[rank] /= sum;
+    }
+  }
+
+  /**
+   * @return rank between 0 (the most popular) and size - 1
+   */
+  int sample(RandomGenerator random) {
+    final int index = Arrays.binarySearch(cumulative, random.nextDouble());
+    return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+  }
+}
@@ -11,6 +11,7 @@ repositories {
 
 dependencies {
     implementation("net.ltgt.gradle:gradle-errorprone-plugin:3.1.0")
+    implementation("me.champeau.jmh:jmh-gradle-plugin:0.7.2")
     testImplementation(platform("org.junit:junit-bom:5.9.1"))
     testImplementation("org.junit.jupiter:junit-jupiter")
 }
@@ -0,0 +1,18 @@
+plugins {
+    id("java-conventions")
+    id("me.champeau.jmh")
+}
+
+jmh {
+    jmhVersion = "1.37"
+    // allocation rate per operation is what shows codec regressions
+    profilers = listOf("gc")
+    fork = 1
+    warmupIterations = 3
+    warmup = "2s"
+    iterations = 5
+    timeOnIteration = "2s"
+    resultFormat = "JSON"
+    // e.g. ./gradlew :benchmarks:jmh -Pjmh.includes=DnsMessageDecoderBenchmark
+    providers.gradleProperty("jmh.includes").orNull?.let { includes = listOf(it) }
+}
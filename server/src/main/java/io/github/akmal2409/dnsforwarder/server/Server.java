@@ -1,22 +1,30 @@
 package io.github.akmal2409.dnsforwarder.server;
 
-import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsMessageDecoder;
-import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
-import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
-import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
-import io.github.akmal2409.dnsforwarder.server.codec.models.records.ARecord;
-import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import io.github.akmal2409.dnsforwarder.server.buffer.BufferPool;
+import io.github.akmal2409.dnsforwarder.server.cache.CacheSnapshot;
+import io.github.akmal2409.dnsforwarder.server.cache.ResponseCache;
+import io.github.akmal2409.dnsforwarder.server.forwarding.ForwardingQueryHandler;
+import io.github.akmal2409.dnsforwarder.server.tcp.TcpListener;
+import io.github.akmal2409.dnsforwarder.server.udp.BatchingUdpListener;
+import io.github.akmal2409.dnsforwarder.server.udp.ListenerMode;
+import io.github.akmal2409.dnsforwarder.server.udp.UdpListener;
+import io.github.akmal2409.dnsforwarder.server.upstream.UpstreamClient;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.Inet4Address;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.PortUnreachableException;
-import java.net.UnknownHostException;
+import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
@@ -25,64 +33,133 @@ import org.slf4j.LoggerFactory;
 public class Server {
 
   private static final Logger logger = LoggerFactory.getLogger(Server.class);
+  private static final int DEFAULT_DNS_PORT = 53;
+  private static final int TCP_BACKLOG = 128;
 
-  private static final int MAX_PORT_NUMBER = (1 << 15) - 1;
-
-  private final String host;
-  private final int port;
+  private final ServerConfig config;
   private final AtomicBoolean running;
-  private final Thread runningThread;
   private final CountDownLatch shutdownLatch;
-  private final byte[] buffer;
-
-
-  private Server(String host, int port, int bufferSize) {
-    if (port < 0 || port > MAX_PORT_NUMBER) {
-      throw new IllegalArgumentException("Invalid port passed. Expected value between 0 and 65535");
-    }
-    this.host = Objects.requireNonNull(host, "host cannot be null");
-    this.port = port;
+  private final List<Thread> listenerThreads;
+  private final List<DatagramChannel> channels;
+  private final ThreadPoolExecutor workers;
+  private final ResponseCache cache;
+  private final BufferPool buffers;
+  private final CacheSnapshot snapshot; // null if disabled
+  private UpstreamClient upstreamClient;
+  private ScheduledExecutorService snapshotWriter;
+  private TcpListener tcpListener;
+  private volatile int boundPort;
+
+
+  private Server(ServerConfig config) {
+    this.config = Objects.requireNonNull(config, "config cannot be null");
     this.running = new AtomicBoolean(false);
-    this.runningThread = Thread.ofVirtual().unstarted(this::beginListening);
-    this.shutdownLatch = new CountDownLatch(1);
-    this.buffer = new byte[bufferSize];
+    // the UDP listeners and the TCP one
+    this.shutdownLatch = new CountDownLatch(config.listenerThreads() + 1);
+    this.listenerThreads = new ArrayList<>(config.listenerThreads());
+    this.channels = new ArrayList<>(config.listenerThreads());
+    this.workers = new ThreadPoolExecutor(config.workerThreads(), config.workerThreads(),
+        0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.workerQueueCapacity()),
+        Thread.ofPlatform().name("query-worker-", 0).daemon(true).factory(),
+        new ThreadPoolExecutor.AbortPolicy());
+    this.cache = new ResponseCache(config.cacheMaxBytes(), config.cacheShards(),
+        config.cacheStorage(), config.cacheOffHeapBytes(), config.cacheMaxTtl(),
+        config.cacheRefreshAt(), config.cacheRefreshMinHits(), config.cacheMaxStale(),
+        Clock.systemUTC());
+    this.buffers = new BufferPool(config.bufferPoolSize(), config.receiveBufferSize());
+    this.snapshot = config.cacheSnapshotFile() == null ? null
+                        : new CacheSnapshot(config.cacheSnapshotFile());
   }
 
   public static Server atPort(int port) {
-    return new Server("127.0.0.1", port, 1024);
+    return withConfig(ServerConfig.builder().port(port).build());
+  }
+
+  public static Server withConfig(ServerConfig config) {
+    return new Server(config);
   }
 
+  /**
+   * Accepts {@code --port}, {@code --upstreams}, a comma separated list of resolvers as
+   * {@code host[:port]}, {@code --cache-snapshot}, the file the cache is kept in across restarts,
+   * and {@code --udp-listener}, {@code blocking} or {@code batched}, all either as
+   * {@code --name=value} or {@code --name value}.
+   */
   public static void main(String[] args) throws InterruptedException {
-    final int serverPort = parseServerPort(args);
+    final ServerConfig config = parseConfig(args);
 
     try {
-      Server.atPort(serverPort).start().await();
+      Server.withConfig(config).start().await();
     } catch (Exception e) {
       logger.error("Err", e);
     }
   }
 
-  private static int parseServerPort(String[] args) {
-    if (args.length == 0 || !args[0].startsWith("--port")) {
-      return 0;
-    } else {
-      String port;
+  private static ServerConfig parseConfig(String[] args) {
+    final ServerConfig.Builder builder = ServerConfig.builder();
+
+    for (int i = 0; i < args.length; i++) {
+      final String name;
+      final String value;
 
-      if (args[0].contains("=")) {
-        port = args[0].split("=")[1];
-      } else if (args.length > 1) {
-        port = args[1];
+      if (args[i].contains("=")) {
+        name = args[i].substring(0, args[i].indexOf('='));
+        value = args[i].substring(args[i].indexOf('=') + 1);
+      } else if (i + 1 < args.length) {
+        name = args[i];
+        value = args[++i];
       } else {
         throw new IllegalArgumentException(
-            "Cannot parse server port. Expected --port=xxx or --port xxx");
+            "Cannot parse " + args[i] + ". Expected " + args[i] + "=xxx or " + args[i] + " xxx");
       }
 
-      try {
-        return Integer.parseInt(port);
-      } catch (NumberFormatException e) {
-        throw new IllegalArgumentException("Cannot parse non-numeric port. " + port);
+      switch (name) {
+        case "--port" -> builder.port(parsePort(value));
+        case "--upstreams" -> builder.upstreams(parseUpstreams(value));
+        case "--cache-snapshot" -> builder.cacheSnapshotFile(Path.of(value));
+        case "--udp-listener" -> builder.udpListenerMode(parseListenerMode(value));
+        default -> throw new IllegalArgumentException("Unknown option " + name);
       }
     }
+
+    return builder.build();
+  }
+
+  private static int parsePort(String port) {
+    try {
+      return Integer.parseInt(port);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Cannot parse non-numeric port. " + port);
+    }
+  }
+
+  private static ListenerMode parseListenerMode(String mode) {
+    try {
+      return ListenerMode.valueOf(mode.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown UDP listener mode " + mode
+                                             + ". Expected blocking or batched");
+    }
+  }
+
+  // 1.1.1.1,8.8.8.8:53,[2001:4860:4860::8888]:53
+  private static List<InetSocketAddress> parseUpstreams(String value) {
+    final var upstreams = new ArrayList<InetSocketAddress>();
+
+    for (String upstream : value.split(",")) {
+      final int portSeparator = upstream.lastIndexOf(':');
+
+      if (portSeparator == -1 || upstream.indexOf(':') != portSeparator
+                                     && !upstream.startsWith("[")) {
+        upstreams.add(new InetSocketAddress(upstream, DEFAULT_DNS_PORT));
+      } else {
+        final String host = upstream.substring(0, portSeparator);
+        upstreams.add(new InetSocketAddress(host.replace("[", "").replace("]", ""),
+            parsePort(upstream.substring(portSeparator + 1))));
+      }
+    }
+
+    return upstreams;
   }
 
   public Server start() {
@@ -90,80 +167,183 @@ public class Server {
       throw new IllegalStateException("The server is already running or has been shutdown");
     }
 
-    this.runningThread.start();
+    final ServerSocket serverSocket;
+
+    try {
+      loadSnapshot();
+      openUpstreamClient();
+      openChannels();
+      serverSocket = openServerSocket();
+    } catch (StartupFailedException e) {
+      // whatever was opened has been closed again, the server is off and can be started anew
+      channels.clear();
+      running.set(false);
+      throw e;
+    }
+
+    scheduleSnapshots();
+
+    final var queryHandler = new ForwardingQueryHandler(upstreamClient, cache, workers,
+        config.staleAnswerTimeout(), config.ednsUdpPayloadSize());
+
+    for (int i = 0; i < config.listenerThreads(); i++) {
+      // without SO_REUSEPORT all the listeners take turns on the single channel
+      final var channel = channels.get(i % channels.size());
+      final Runnable listener = config.udpListenerMode() == ListenerMode.BATCHED
+          ? new BatchingUdpListener(channel, buffers, workers, queryHandler, config.udpBatchSize())
+          : new UdpListener(channel, buffers, workers, queryHandler);
+
+      listenerThreads.add(Thread.ofPlatform()
+                              .name("udp-listener-" + i)
+                              .unstarted(() -> runListener(listener)));
+    }
+
+    this.tcpListener = new TcpListener(serverSocket, buffers, workers, queryHandler,
+        config.tcpIdleTimeout(), config.tcpMaxConnections());
+    listenerThreads.add(Thread.ofPlatform()
+                            .name("tcp-listener")
+                            .unstarted(() -> runListener(tcpListener)));
+
+    listenerThreads.forEach(Thread::start);
+
+    logger.info("Started DNS forwarder at port {} with {} {} UDP listeners and a TCP one, "
+                    + "forwarding to {}. Listening to packets...", boundPort,
+        config.listenerThreads(), config.udpListenerMode().name().toLowerCase(Locale.ROOT),
+        config.upstreams());
     return this;
   }
 
-  private void beginListening() {
-    try (final var socket = new DatagramSocket(this.port)) {
-
-      logger.info("Started DNS forwarder at port {}. Listening to packets...", this.port);
-
-      while (!Thread.currentThread().isInterrupted()) {
-        final var packet = new DatagramPacket(this.buffer, this.buffer.length);
-        socket.receive(packet);
-
-        logger.info("Received packet from {}:{}", packet.getAddress(), packet.getPort());
-        var message = DnsMessageDecoder.fromBytes(packet.getData()).decode();
-
-//        final var mockData = DnsPacketGenerator.createMessage(c -> {
-//          c.id(message.header().id());
-//          c.query(false);
-//          c.question(new DnsQuestion("google.com", DnsType.A, DnsClass.IN));
-//          try {
-//            c.answers(
-//                List.of(
-//                    new ARecord("google.com", DnsClass.IN, 110,
-//                        (Inet4Address) InetAddress.getByName("10.23.110.1")),
-//                    new ARecord("google.com", DnsClass.IN, 110,
-//                        (Inet4Address) InetAddress.getByName("10.23.110.2")),
-//                    new ARecord("google.com", DnsClass.IN, 110,
-//                        (Inet4Address) InetAddress.getByName("10.23.110.3"))
-//                )
-//            );
-//          } catch (UnknownHostException e) {
-//            throw new RuntimeException(e);
-//          }
-//        });
-
-//        final var mockPacket = new DatagramPacket(mockData, mockData.length,
-//            packet.getSocketAddress());
-
-        logger.info("Parsed packet {}",
-            message);
-
-//        socket.send(mockPacket);
-
-        // Remove after
-        try (final var gSocket = new DatagramSocket(new InetSocketAddress(8888))) {
-          final var buff = new byte[2048];
-          final var googleOutPkt = new DatagramPacket(packet.getData(), packet.getLength(),
-              InetAddress.getByName("8.8.8.8"), 53);
-
-          gSocket.send(googleOutPkt);
-          final var googleInPkt = new DatagramPacket(buff, buff.length);
-          gSocket.receive(googleInPkt);
-
-          logger.info("Parsed google packet {}",
-              DnsMessageDecoder.fromBytes(googleInPkt.getData()).decode());
-
-          googleInPkt.setAddress(packet.getAddress());
-          googleInPkt.setPort(packet.getPort());
-          socket.send(googleInPkt);
-        }
+  /**
+   * @return port the listeners are bound to, resolved after {@link #start()} if 0 was configured
+   */
+  public int port() {
+    return boundPort;
+  }
+
+  private void loadSnapshot() {
+    if (snapshot == null) {
+      return;
+    }
 
+    final long startNanos = System.nanoTime();
+
+    try {
+      final int restored = snapshot.load(cache);
+      logger.info("Restored {} cached responses from {} in {} ms", restored, snapshot.file(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    } catch (IOException e) {
+      logger.warn("Failed to restore the cache from {}, starting with an empty one",
+          snapshot.file(), e);
+    }
+  }
+
+  private void scheduleSnapshots() {
+    if (snapshot == null) {
+      return;
+    }
+
+    final long intervalMillis = config.cacheSnapshotInterval().toMillis();
+    this.snapshotWriter = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("cache-snapshot-writer").daemon(true).factory());
+    snapshotWriter.scheduleWithFixedDelay(this::writeSnapshot, intervalMillis, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void writeSnapshot() {
+    try {
+      final int written = snapshot.write(cache);
+      logger.debug("Saved {} cached responses to {}", written, snapshot.file());
+    } catch (IOException e) {
+      logger.warn("Failed to save the cache to {}", snapshot.file(), e);
+    }
+  }
+
+  private void openUpstreamClient() {
+    try {
+      this.upstreamClient = UpstreamClient.open(config.upstreams(), config.upstreamChannels(),
+          config.upstreamTcpChannels(), config.ednsUdpPayloadSize(), config.upstreamTimeout(),
+          config.upstreamProbeInterval());
+    } catch (IOException e) {
+      throw new StartupFailedException("Failed to open upstream channels", e);
+    }
+  }
+
+  private void openChannels() {
+    try {
+      final var first = openChannel(config.port());
+      channels.add(first);
+      // with an ephemeral port the rest of the sockets have to join the one picked by the OS
+      this.boundPort = ((InetSocketAddress) first.getLocalAddress()).getPort();
+
+      if (!first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+        logger.warn("SO_REUSEPORT is not supported, listeners will share a single socket");
+        return;
       }
 
+      for (int i = 1; i < config.listenerThreads(); i++) {
+        channels.add(openChannel(boundPort));
+      }
     } catch (IOException e) {
+      closeChannels();
+      upstreamClient.close();
+      throw new StartupFailedException("Failed to bind listener sockets to port " + config.port(),
+          e);
+    }
+  }
+
+  // on the port of the UDP listeners, which is known by now even if it was picked by the OS
+  private ServerSocket openServerSocket() {
+    ServerSocket serverSocket = null;
 
-      switch (e) {
-        case PortUnreachableException ignored -> logger.debug("Connected to unreachable port", e);
-        case IOException io -> {
-          logger.error("IO exception of a socket", io);
-          throw new ServerNetworkException("Server crashed due to socket exception", e);
+    try {
+      serverSocket = new ServerSocket();
+      serverSocket.setReuseAddress(true);
+      serverSocket.bind(new InetSocketAddress(config.host(), boundPort), TCP_BACKLOG);
+      return serverSocket;
+    } catch (IOException e) {
+      if (serverSocket != null) {
+        try {
+          serverSocket.close();
+        } catch (IOException closeFailure) {
+          e.addSuppressed(closeFailure);
         }
       }
+      closeChannels();
+      upstreamClient.close();
+      throw new StartupFailedException("Failed to bind TCP listener socket to port " + boundPort,
+          e);
+    }
+  }
+
+  private DatagramChannel openChannel(int port) throws IOException {
+    final var channel = DatagramChannel.open();
+
+    try {
+      if (channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+        channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+      }
+      channel.bind(new InetSocketAddress(config.host(), port));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+
+    return channel;
+  }
+
+  private void closeChannels() {
+    for (DatagramChannel channel : channels) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.debug("Failed to close listener channel", e);
+      }
+    }
+  }
 
+  private void runListener(Runnable listener) {
+    try {
+      listener.run();
     } catch (Throwable e) {
       logger.error("Unknown error", e);
       throw e;
@@ -187,7 +367,16 @@ public class Server {
       throw new IllegalStateException(
           "Cannot shutdown server because it is either off or being shutdown");
     }
-    this.runningThread.interrupt();
+    this.listenerThreads.forEach(Thread::interrupt);
+    closeChannels();
+    this.tcpListener.close();
+    this.workers.shutdownNow();
+    this.upstreamClient.close();
+
+    if (snapshot != null) {
+      this.snapshotWriter.shutdownNow();
+      writeSnapshot();
+    }
     return this.shutdownLatch.await(timeout, unit);
   }
 
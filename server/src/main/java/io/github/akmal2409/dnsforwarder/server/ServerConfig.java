@@ -0,0 +1,372 @@
+package io.github.akmal2409.dnsforwarder.server;
+
+import io.github.akmal2409.dnsforwarder.server.cache.ResponseCache;
+import io.github.akmal2409.dnsforwarder.server.codec.Edns;
+import io.github.akmal2409.dnsforwarder.server.udp.ListenerMode;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tunables of the forwarder. Use {@link #builder()} to override only the values you care about,
+ * the rest is derived from the number of available cores.
+ *
+ * @param host                  bind address of the listener sockets
+ * @param port                  UDP and TCP port to listen on, 0 picks an ephemeral one
+ * @param listenerThreads       number of threads (each with its own socket) receiving packets
+ * @param udpListenerMode       whether the listener threads receive datagrams one by one or in
+ *                              batches
+ * @param udpBatchSize          max number of datagrams received in one batch
+ * @param workerThreads         number of threads decoding and forwarding queries
+ * @param workerQueueCapacity   max number of received queries waiting for a worker, excess is
+ *                              dropped
+ * @param receiveBufferSize     size of a receive buffer in bytes, longer datagrams are truncated,
+ *                              one byte more than the EDNS payload size unless set
+ * @param ednsUdpPayloadSize    largest UDP message in bytes the forwarder advertises to clients
+ *                              and upstreams and accepts from them
+ * @param bufferPoolSize        number of pooled receive buffers, a buffer is held from receiving a
+ *                              query until it is answered
+ * @param upstreams             resolvers the queries are forwarded to, each query goes to the one
+ *                              expected to answer fastest
+ * @param upstreamChannels      number of long-lived sockets shared by the upstream queries
+ * @param upstreamTcpChannels   number of TCP connections per upstream, used for the queries
+ *                              whose answer over UDP was truncated
+ * @param upstreamTimeout       how long to wait for the upstream to answer
+ * @param upstreamProbeInterval how often upstreams that failed or got no queries are probed
+ * @param cacheMaxBytes         estimated heap footprint of the cached responses, the least
+ *                              recently used ones are evicted beyond it. Only their index counts
+ *                              when they are kept off-heap
+ * @param cacheShards           number of independently locked parts of the cache
+ * @param cacheStorage          whether the cached responses are kept on the heap or off-heap
+ * @param cacheOffHeapBytes     direct memory the responses are kept in when they are off-heap
+ * @param cacheMaxTtl           upper bound of how long a response is cached regardless of its TTL
+ * @param cacheRefreshAt        fraction of its TTL after which a hot response is fetched again
+ * @param cacheRefreshMinHits   number of hits that make a response hot
+ * @param cacheMaxStale         for how long an expired response is kept to be served stale
+ * @param staleAnswerTimeout    how long a client waits for the upstream before it is answered
+ *                              with an expired response
+ * @param cacheSnapshotFile     where the cache is saved to and restored from on restart, null
+ *                              disables the snapshots
+ * @param cacheSnapshotInterval how often the snapshot is written, besides at shutdown
+ * @param tcpIdleTimeout        how long a TCP connection may go without a query before it is
+ *                              closed
+ * @param tcpMaxConnections     number of TCP connections that may be open at the same time
+ */
+public record ServerConfig(
+    String host,
+    int port,
+    int listenerThreads,
+    ListenerMode udpListenerMode,
+    int udpBatchSize,
+    int workerThreads,
+    int workerQueueCapacity,
+    int receiveBufferSize,
+    int ednsUdpPayloadSize,
+    int bufferPoolSize,
+    List<InetSocketAddress> upstreams,
+    int upstreamChannels,
+    int upstreamTcpChannels,
+    Duration upstreamTimeout,
+    Duration upstreamProbeInterval,
+    long cacheMaxBytes,
+    int cacheShards,
+    ResponseCache.Storage cacheStorage,
+    long cacheOffHeapBytes,
+    Duration cacheMaxTtl,
+    double cacheRefreshAt,
+    int cacheRefreshMinHits,
+    Duration cacheMaxStale,
+    Duration staleAnswerTimeout,
+    Path cacheSnapshotFile,
+    Duration cacheSnapshotInterval,
+    Duration tcpIdleTimeout,
+    int tcpMaxConnections
+) {
+
+  private static final int MAX_PORT_NUMBER = (1 << 16) - 1;
+  private static final int MAX_MESSAGE_SIZE = (1 << 16) - 1;
+
+  public ServerConfig {
+    Objects.requireNonNull(host, "host cannot be null");
+    Objects.requireNonNull(udpListenerMode, "udpListenerMode cannot be null");
+    Objects.requireNonNull(upstreams, "upstreams cannot be null");
+    Objects.requireNonNull(upstreamTimeout, "upstreamTimeout cannot be null");
+    Objects.requireNonNull(upstreamProbeInterval, "upstreamProbeInterval cannot be null");
+    upstreams = List.copyOf(upstreams);
+    Objects.requireNonNull(cacheStorage, "cacheStorage cannot be null");
+    Objects.requireNonNull(cacheMaxTtl, "cacheMaxTtl cannot be null");
+    Objects.requireNonNull(cacheMaxStale, "cacheMaxStale cannot be null");
+    Objects.requireNonNull(staleAnswerTimeout, "staleAnswerTimeout cannot be null");
+    Objects.requireNonNull(cacheSnapshotInterval, "cacheSnapshotInterval cannot be null");
+    Objects.requireNonNull(tcpIdleTimeout, "tcpIdleTimeout cannot be null");
+
+    if (port < 0 || port > MAX_PORT_NUMBER) {
+      throw new IllegalArgumentException("Invalid port passed. Expected value between 0 and 65535");
+    }
+    if (listenerThreads < 1 || workerThreads < 1) {
+      throw new IllegalArgumentException("At least one listener and one worker thread is required");
+    }
+    if (udpBatchSize < 1) {
+      throw new IllegalArgumentException("UDP batch size must be positive");
+    }
+    if (workerQueueCapacity < 1) {
+      throw new IllegalArgumentException("Worker queue capacity must be positive");
+    }
+    if (receiveBufferSize < 12) {
+      throw new IllegalArgumentException("Receive buffer cannot fit a DNS header");
+    }
+    if (ednsUdpPayloadSize < Edns.MIN_UDP_PAYLOAD_SIZE || ednsUdpPayloadSize > MAX_MESSAGE_SIZE) {
+      throw new IllegalArgumentException("EDNS payload size must be between 512 and 65535");
+    }
+    if (bufferPoolSize < 1) {
+      throw new IllegalArgumentException("Buffer pool must hold at least one buffer");
+    }
+    if (upstreams.isEmpty()) {
+      throw new IllegalArgumentException("At least one upstream is required");
+    }
+    if (upstreamProbeInterval.isNegative() || upstreamProbeInterval.isZero()) {
+      throw new IllegalArgumentException("Upstream probe interval must be positive");
+    }
+    if (upstreamChannels < 1) {
+      throw new IllegalArgumentException("At least one upstream channel is required");
+    }
+    if (upstreamTcpChannels < 1) {
+      throw new IllegalArgumentException("At least one upstream TCP connection is required");
+    }
+    if (cacheMaxBytes < 1) {
+      throw new IllegalArgumentException("Cache size must be positive");
+    }
+    if (cacheOffHeapBytes < 1) {
+      throw new IllegalArgumentException("Off-heap cache size must be positive");
+    }
+    if (cacheShards < 1) {
+      throw new IllegalArgumentException("Cache must have at least one shard");
+    }
+    if (!(cacheRefreshAt > 0 && cacheRefreshAt <= 1)) {
+      throw new IllegalArgumentException("Cache refresh point must be a fraction in (0, 1]");
+    }
+    if (cacheRefreshMinHits < 1) {
+      throw new IllegalArgumentException("Cache refresh must require at least one hit");
+    }
+    if (cacheMaxStale.isNegative()) {
+      throw new IllegalArgumentException("Cache stale period cannot be negative");
+    }
+    if (staleAnswerTimeout.isNegative()) {
+      throw new IllegalArgumentException("Stale answer timeout cannot be negative");
+    }
+    if (cacheSnapshotInterval.isNegative() || cacheSnapshotInterval.isZero()) {
+      throw new IllegalArgumentException("Cache snapshot interval must be positive");
+    }
+    if (tcpIdleTimeout.isNegative() || tcpIdleTimeout.isZero()
+            || tcpIdleTimeout.toMillis() > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("TCP idle timeout must be positive and fit in an int");
+    }
+    if (tcpMaxConnections < 1) {
+      throw new IllegalArgumentException("At least one TCP connection must be allowed");
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+
+    private String host = "127.0.0.1";
+    private int port;
+    private int listenerThreads = Runtime.getRuntime().availableProcessors();
+    private ListenerMode udpListenerMode = ListenerMode.BLOCKING;
+    // what recvmmsg is commonly called with
+    private int udpBatchSize = 32;
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private int workerQueueCapacity = 4096;
+    // derived from the payload size unless set
+    private int receiveBufferSize;
+    private int ednsUdpPayloadSize = Edns.DEFAULT_UDP_PAYLOAD_SIZE;
+    // queued queries plus the ones waiting for the upstream
+    private int bufferPoolSize = 8192;
+    private List<InetSocketAddress> upstreams = List.of(new InetSocketAddress("8.8.8.8", 53));
+    private int upstreamChannels = 4;
+    private int upstreamTcpChannels = 2;
+    private Duration upstreamTimeout = Duration.ofSeconds(2);
+    private Duration upstreamProbeInterval = Duration.ofSeconds(1);
+    private long cacheMaxBytes = 64L << 20;
+    private int cacheShards = Runtime.getRuntime().availableProcessors() * 4;
+    private ResponseCache.Storage cacheStorage = ResponseCache.Storage.HEAP;
+    // allocated slab by slab as the responses come in
+    private long cacheOffHeapBytes = 256L << 20;
+    private Duration cacheMaxTtl = Duration.ofDays(1);
+    // the last 10% of the TTL, early enough for the upstream to answer before the expiry
+    private double cacheRefreshAt = 0.9;
+    private int cacheRefreshMinHits = 3;
+    // https://datatracker.ietf.org/doc/html/rfc8767#section-5 suggests 1 to 3 days and 1.8s
+    private Duration cacheMaxStale = Duration.ofDays(1);
+    private Duration staleAnswerTimeout = Duration.ofMillis(1800);
+    private Path cacheSnapshotFile;
+    private Duration cacheSnapshotInterval = Duration.ofMinutes(5);
+    // https://datatracker.ietf.org/doc/html/rfc7766#section-6.2.3 suggests a few seconds
+    private Duration tcpIdleTimeout = Duration.ofSeconds(10);
+    private int tcpMaxConnections = 1024;
+
+    private Builder() {
+    }
+
+    public Builder host(String host) {
+      this.host = host;
+      return this;
+    }
+
+    public Builder port(int port) {
+      this.port = port;
+      return this;
+    }
+
+    public Builder listenerThreads(int listenerThreads) {
+      this.listenerThreads = listenerThreads;
+      return this;
+    }
+
+    public Builder udpListenerMode(ListenerMode udpListenerMode) {
+      this.udpListenerMode = udpListenerMode;
+      return this;
+    }
+
+    public Builder udpBatchSize(int udpBatchSize) {
+      this.udpBatchSize = udpBatchSize;
+      return this;
+    }
+
+    public Builder workerThreads(int workerThreads) {
+      this.workerThreads = workerThreads;
+      return this;
+    }
+
+    public Builder workerQueueCapacity(int workerQueueCapacity) {
+      this.workerQueueCapacity = workerQueueCapacity;
+      return this;
+    }
+
+    public Builder receiveBufferSize(int receiveBufferSize) {
+      this.receiveBufferSize = receiveBufferSize;
+      return this;
+    }
+
+    public Builder ednsUdpPayloadSize(int ednsUdpPayloadSize) {
+      this.ednsUdpPayloadSize = ednsUdpPayloadSize;
+      return this;
+    }
+
+    public Builder bufferPoolSize(int bufferPoolSize) {
+      this.bufferPoolSize = bufferPoolSize;
+      return this;
+    }
+
+    public Builder upstream(InetSocketAddress upstream) {
+      return upstreams(List.of(upstream));
+    }
+
+    public Builder upstreams(List<InetSocketAddress> upstreams) {
+      this.upstreams = upstreams;
+      return this;
+    }
+
+    public Builder upstreamChannels(int upstreamChannels) {
+      this.upstreamChannels = upstreamChannels;
+      return this;
+    }
+
+    public Builder upstreamTcpChannels(int upstreamTcpChannels) {
+      this.upstreamTcpChannels = upstreamTcpChannels;
+      return this;
+    }
+
+    public Builder upstreamTimeout(Duration upstreamTimeout) {
+      this.upstreamTimeout = upstreamTimeout;
+      return this;
+    }
+
+    public Builder upstreamProbeInterval(Duration upstreamProbeInterval) {
+      this.upstreamProbeInterval = upstreamProbeInterval;
+      return this;
+    }
+
+    public Builder cacheMaxBytes(long cacheMaxBytes) {
+      this.cacheMaxBytes = cacheMaxBytes;
+      return this;
+    }
+
+    public Builder cacheShards(int cacheShards) {
+      this.cacheShards = cacheShards;
+      return this;
+    }
+
+    public Builder cacheStorage(ResponseCache.Storage cacheStorage) {
+      this.cacheStorage = cacheStorage;
+      return this;
+    }
+
+    public Builder cacheOffHeapBytes(long cacheOffHeapBytes) {
+      this.cacheOffHeapBytes = cacheOffHeapBytes;
+      return this;
+    }
+
+    public Builder cacheMaxTtl(Duration cacheMaxTtl) {
+      this.cacheMaxTtl = cacheMaxTtl;
+      return this;
+    }
+
+    public Builder cacheRefreshAt(double cacheRefreshAt) {
+      this.cacheRefreshAt = cacheRefreshAt;
+      return this;
+    }
+
+    public Builder cacheRefreshMinHits(int cacheRefreshMinHits) {
+      this.cacheRefreshMinHits = cacheRefreshMinHits;
+      return this;
+    }
+
+    public Builder cacheMaxStale(Duration cacheMaxStale) {
+      this.cacheMaxStale = cacheMaxStale;
+      return this;
+    }
+
+    public Builder staleAnswerTimeout(Duration staleAnswerTimeout) {
+      this.staleAnswerTimeout = staleAnswerTimeout;
+      return this;
+    }
+
+    public Builder cacheSnapshotFile(Path cacheSnapshotFile) {
+      this.cacheSnapshotFile = cacheSnapshotFile;
+      return this;
+    }
+
+    public Builder cacheSnapshotInterval(Duration cacheSnapshotInterval) {
+      this.cacheSnapshotInterval = cacheSnapshotInterval;
+      return this;
+    }
+
+    public Builder tcpIdleTimeout(Duration tcpIdleTimeout) {
+      this.tcpIdleTimeout = tcpIdleTimeout;
+      return this;
+    }
+
+    public Builder tcpMaxConnections(int tcpMaxConnections) {
+      this.tcpMaxConnections = tcpMaxConnections;
+      return this;
+    }
+
+    public ServerConfig build() {
+      // a datagram that fills the whole buffer is taken as cut off by the socket
+      final int bufferSize = receiveBufferSize == 0 ? ednsUdpPayloadSize + 1 : receiveBufferSize;
+
+      return new ServerConfig(host, port, listenerThreads, udpListenerMode, udpBatchSize,
+          workerThreads, workerQueueCapacity, bufferSize, ednsUdpPayloadSize, bufferPoolSize,
+          upstreams, upstreamChannels, upstreamTcpChannels, upstreamTimeout, upstreamProbeInterval,
+          cacheMaxBytes, cacheShards, cacheStorage, cacheOffHeapBytes, cacheMaxTtl,
+          cacheRefreshAt, cacheRefreshMinHits, cacheMaxStale, staleAnswerTimeout,
+          cacheSnapshotFile, cacheSnapshotInterval, tcpIdleTimeout, tcpMaxConnections);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package io.github.akmal2409.dnsforwarder.server.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed number of equally sized direct buffers, sliced from a few large slabs allocated up front,
+ * so that a query can be received, processed and answered without creating garbage. Buffers are
+ * acquired and released from any thread. When all of them are lent out a plain heap buffer is
+ * handed out instead of blocking, see {@link #exhaustedCount()}.
+ */
+public final class BufferPool {
+
+  private static final int SLAB_SIZE = 1 << 20;
+
+  private final int bufferSize;
+  private final ArrayBlockingQueue<PooledBuffer> free;
+  private final LongAdder exhausted = new LongAdder();
+
+  /**
+   * @param bufferCount number of pooled buffers
+   * @param bufferSize  capacity of every buffer in bytes
+   */
+  public BufferPool(int bufferCount, int bufferSize) {
+    if (bufferCount < 1 || bufferSize < 1) {
+      throw new IllegalArgumentException("Buffer count and size must be positive");
+    }
+
+    this.bufferSize = bufferSize;
+    this.free = new ArrayBlockingQueue<>(bufferCount);
+
+    final int buffersPerSlab = Math.max(1, SLAB_SIZE / bufferSize);
+    ByteBuffer slab = null;
+
+    for (int i = 0; i < bufferCount; i++) {
+      final int slot = i % buffersPerSlab;
+
+      if (slot == 0) {
+        slab = ByteBuffer.allocateDirect(Math.min(buffersPerSlab, bufferCount - i) * bufferSize);
+      }
+
+      free.add(new PooledBuffer(this, slab.slice(slot * bufferSize, bufferSize)));
+    }
+  }
+
+  /**
+   * @return cleared buffer with {@link #bufferSize()} bytes of capacity
+   */
+  public PooledBuffer acquire() {
+    final PooledBuffer buffer = free.poll();
+
+    if (buffer == null) {
+      exhausted.increment();
+      return new PooledBuffer(null, ByteBuffer.allocate(bufferSize));
+    }
+
+    buffer.acquired();
+    return buffer;
+  }
+
+  /**
+   * @return cleared buffer with at least the given capacity, a pooled one if it fits into
+   *     {@link #bufferSize()} bytes and a heap buffer that isn't counted as exhaustion otherwise
+   */
+  public PooledBuffer acquire(int capacity) {
+    return capacity <= bufferSize
+               ? acquire()
+               : new PooledBuffer(null, ByteBuffer.allocate(capacity));
+  }
+
+  void recycle(PooledBuffer buffer) {
+    free.add(buffer);
+  }
+
+  public int bufferSize() {
+    return bufferSize;
+  }
+
+  public int available() {
+    return free.size();
+  }
+
+  /**
+   * @return how many times a buffer had to be allocated because the pool was empty
+   */
+  public long exhaustedCount() {
+    return exhausted.sum();
+  }
+}
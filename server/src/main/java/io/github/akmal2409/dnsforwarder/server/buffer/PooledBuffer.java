@@ -0,0 +1,59 @@
+package io.github.akmal2409.dnsforwarder.server.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer lent out by a {@link BufferPool}. Whoever holds it last must call {@link #release()}
+ * exactly once and must not touch the buffer afterwards.
+ */
+public final class PooledBuffer {
+
+  private final BufferPool pool;
+  private final ByteBuffer buffer;
+  private volatile boolean released;
+  private Runnable onRelease;
+
+  PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+    this.pool = pool;
+    this.buffer = buffer;
+  }
+
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  /**
+   * Runs the action once the buffer is released, e.g. to learn when the holder is done with it.
+   * Only the current holder may set it, it is forgotten when the buffer is handed out again.
+   */
+  public void whenReleased(Runnable action) {
+    this.onRelease = action;
+  }
+
+  /**
+   * Returns the buffer to its pool, buffers that didn't come from the pool are left to the GC.
+   *
+   * @throws IllegalStateException if the buffer has already been released
+   */
+  public void release() {
+    if (released) {
+      throw new IllegalStateException("Buffer has already been released");
+    }
+    released = true;
+    final Runnable action = onRelease;
+    onRelease = null;
+
+    if (pool != null) {
+      pool.recycle(this);
+    }
+    if (action != null) {
+      action.run();
+    }
+  }
+
+  void acquired() {
+    released = false;
+    onRelease = null;
+    buffer.clear();
+  }
+}
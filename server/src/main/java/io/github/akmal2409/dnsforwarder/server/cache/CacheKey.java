@@ -0,0 +1,62 @@
+package io.github.akmal2409.dnsforwarder.server.cache;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.CompactQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
+
+/**
+ * Identifies a cached answer. Domain names are compared case-insensitively, which
+ * {@link DomainName} takes care of by keeping the name in its lower-cased wire format.
+ * <p>
+ * The DO and CD bits of the query are part of the key, the upstream answers the same question
+ * differently depending on them: with or without the DNSSEC records
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc3225#section-3">RFC 3225</a>) and with or
+ * without validating it
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc4035#section-3.2.2">RFC 4035</a>).
+ *
+ * @param dnssecOk         whether the DO bit of the query's OPT record is set
+ * @param checkingDisabled whether the CD bit of the query's header is set
+ */
+public record CacheKey(
+    DomainName name,
+    DnsType type,
+    DnsClass dnsClass,
+    boolean dnssecOk,
+    boolean checkingDisabled
+) {
+
+  /**
+   * Key of a query with neither the DO nor the CD bit set.
+   */
+  public CacheKey(DomainName name, DnsType type, DnsClass dnsClass) {
+    this(name, type, dnsClass, false, false);
+  }
+
+  /**
+   * @return key of the question or null if its type or class is unknown and can't be cached
+   */
+  public static CacheKey of(CompactQuestion question, boolean dnssecOk,
+      boolean checkingDisabled) {
+    if (question.type() == null || question.queryClass() == null) {
+      return null;
+    }
+
+    return new CacheKey(question.name(), question.type(), question.queryClass(), dnssecOk,
+        checkingDisabled);
+  }
+
+  /**
+   * @return key of the question asked with neither the DO nor the CD bit set, or null if its type
+   *     or class is unknown and can't be cached
+   * @throws IllegalArgumentException if the name is not a valid domain name
+   */
+  public static CacheKey of(DnsQuestion question) {
+    if (question.name() == null || question.type() == null || question.queryClass() == null) {
+      return null;
+    }
+
+    return new CacheKey(DomainName.of(question.name()), question.type(), question.queryClass());
+  }
+}
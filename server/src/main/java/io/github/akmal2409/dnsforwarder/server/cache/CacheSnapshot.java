@@ -0,0 +1,237 @@
+package io.github.akmal2409.dnsforwarder.server.cache;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * File with the fresh responses of a {@link ResponseCache}, so that a restarted server answers
+ * from a warm cache instead of sending every query upstream. The responses are kept in their wire
+ * format together with the time they were received and their absolute expiry, a response that
+ * expires while the server is down is skipped when loading. Responses of each shard are written
+ * from the least to the most recently used one, which keeps their LRU order once loaded.
+ *
+ * <p>The snapshot is first written to a temporary file next to it and then moved over the
+ * previous one, a crash in the middle of writing leaves the previous snapshot intact. Loading
+ * maps the file into memory and copies the responses straight out of it.
+ *
+ * <p>Layout, big-endian: magic, version, entry count and then per entry the length of the name,
+ * the name, type, class, a byte with the DO and CD bits of the query, received at and expires at
+ * epoch millis, the TTL cap of the records, the number of TTL offsets, the offsets, the length of
+ * the response and the response.
+ */
+public final class CacheSnapshot {
+
+  private static final int MAGIC = 0x444e5343; // DNSC
+  private static final short VERSION = 2;
+  private static final int HEADER_LENGTH = Integer.BYTES + Short.BYTES + Integer.BYTES;
+  private static final int COUNT_OFFSET = Integer.BYTES + Short.BYTES;
+  private static final int MAX_RESPONSE_LENGTH = 0xffff;
+  private static final int DNS_HEADER_LENGTH = 12;
+  private static final int DNSSEC_OK = 0x01;
+  private static final int CHECKING_DISABLED = 0x02;
+  // fits the longest entry, a response has far fewer TTLs than bytes
+  private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+  private final Path file;
+  private final Path temporaryFile;
+
+  public CacheSnapshot(Path file) {
+    this.file = Objects.requireNonNull(file, "file cannot be null").toAbsolutePath();
+    this.temporaryFile = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+  }
+
+  public Path file() {
+    return file;
+  }
+
+  /**
+   * Replaces the snapshot with the fresh responses of the cache. The cache keeps serving while it
+   * is written, see {@link ResponseCache#forEachFresh}. Concurrent calls are serialized.
+   *
+   * @return number of responses written
+   * @throws IOException if the file cannot be written, the previous snapshot is left as it was
+   */
+  public synchronized int write(ResponseCache cache) throws IOException {
+    final int count;
+
+    try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      final var buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+      final var writer = new EntryWriter(channel, buffer);
+
+      buffer.putInt(MAGIC).putShort(VERSION).putInt(0);
+
+      try {
+        cache.forEachFresh(writer::write);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+
+      buffer.flip();
+      writeFully(channel, buffer);
+
+      count = writer.count;
+      buffer.clear().putInt(count).flip();
+      channel.write(buffer, COUNT_OFFSET);
+      channel.force(false);
+    } catch (IOException e) {
+      Files.deleteIfExists(temporaryFile);
+      throw e;
+    }
+
+    Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return count;
+  }
+
+  /**
+   * Puts the responses of the snapshot that haven't expired yet into the cache.
+   *
+   * @return number of responses restored or 0 if there is no snapshot
+   * @throws IOException if the file cannot be read or is not a valid snapshot
+   */
+  public synchronized int load(ResponseCache cache) throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final MappedByteBuffer snapshot = channel.map(MapMode.READ_ONLY, 0, channel.size());
+
+      if (snapshot.remaining() < HEADER_LENGTH || snapshot.getInt() != MAGIC) {
+        throw new IOException(file + " is not a cache snapshot");
+      }
+
+      final short version = snapshot.getShort();
+
+      if (version != VERSION) {
+        throw new IOException("Unsupported cache snapshot version " + version);
+      }
+
+      final int count = snapshot.getInt();
+      int restored = 0;
+
+      for (int i = 0; i < count; i++) {
+        if (readEntry(snapshot, cache)) {
+          restored++;
+        }
+      }
+
+      return restored;
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException(file + " is truncated or corrupted", e);
+    }
+  }
+
+  private static boolean readEntry(ByteBuffer snapshot, ResponseCache cache) {
+    final var wire = new byte[snapshot.get() & 0xff];
+    snapshot.get(wire);
+    // the key of a query has to match it byte by byte, a name the cache could never have written
+    // would never be looked up
+    final DomainName name = DomainName.ofCheckedWire(wire);
+
+    final DnsType type = DnsType.from(snapshot.getShort());
+    final DnsClass dnsClass = DnsClass.from(snapshot.getShort());
+    final int flags = snapshot.get();
+    final long storedAtMillis = snapshot.getLong();
+    final long expiresAtMillis = snapshot.getLong();
+    final long maxRecordTtlSeconds = Integer.toUnsignedLong(snapshot.getInt());
+    final var ttlOffsets = new int[snapshot.getShort() & 0xffff];
+
+    for (int i = 0; i < ttlOffsets.length; i++) {
+      ttlOffsets[i] = snapshot.getShort() & 0xffff;
+    }
+
+    final var response = new byte[snapshot.getShort() & 0xffff];
+    snapshot.get(response);
+
+    if (type == null || dnsClass == null) {
+      throw new IllegalArgumentException("Unknown type or class");
+    }
+
+    // the TTLs are patched at these offsets on every hit, they must not point past the response
+    for (int ttlOffset : ttlOffsets) {
+      if (ttlOffset < DNS_HEADER_LENGTH || ttlOffset + Integer.BYTES > response.length) {
+        throw new IllegalArgumentException("TTL offset " + ttlOffset + " outside of the response");
+      }
+    }
+
+    final var key = new CacheKey(name, type, dnsClass,
+        (flags & DNSSEC_OK) != 0, (flags & CHECKING_DISABLED) != 0);
+
+    return cache.restore(key, response, ttlOffsets, storedAtMillis, expiresAtMillis,
+        maxRecordTtlSeconds);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static final class EntryWriter {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private int count;
+
+    private EntryWriter(FileChannel channel, ByteBuffer buffer) {
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+
+    private void write(CacheKey key, CachedResponse cached) {
+      if (cached.length() > MAX_RESPONSE_LENGTH) {
+        return; // can't be received over UDP or TCP anyway
+      }
+
+      final DomainName name = key.name();
+      final int[] ttlOffsets = cached.ttlOffsets();
+      final int length = 1 + name.wireLength() + 2 * Short.BYTES + 1 + 2 * Long.BYTES
+                             + Integer.BYTES + Short.BYTES * (ttlOffsets.length + 2)
+                             + cached.length();
+
+      if (buffer.remaining() < length) {
+        try {
+          buffer.flip();
+          writeFully(channel, buffer);
+          buffer.clear();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+
+      buffer.put((byte) name.wireLength());
+      name.writeTo(buffer);
+      buffer.putShort(key.type().numericValue)
+          .putShort(key.dnsClass().numericValue)
+          .put((byte) ((key.dnssecOk() ? DNSSEC_OK : 0)
+                           | (key.checkingDisabled() ? CHECKING_DISABLED : 0)))
+          .putLong(cached.storedAtMillis())
+          .putLong(cached.expiresAtMillis())
+          .putInt((int) Math.min(cached.maxRecordTtlSeconds(), 0xffffffffL))
+          .putShort((short) ttlOffsets.length);
+
+      for (int ttlOffset : ttlOffsets) {
+        buffer.putShort((short) ttlOffset);
+      }
+
+      buffer.putShort((short) cached.length());
+      cached.putTo(buffer);
+      count++;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package io.github.akmal2409.dnsforwarder.server.cache;
+
+import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read4BytesUnsignedAsLong;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Upstream response stored in the cache in its wire format, together with the offsets of the TTL
+ * fields so that they can be aged without decoding the message. The bytes are either a heap array
+ * of their own or a range of an off-heap slab shared with other responses, see
+ * {@link SlabArena}. The hit count is guarded by the lock of the cache.
+ */
+public final class CachedResponse {
+
+  private final ByteBuffer data;
+  private final int offset;
+  private final int length;
+  private final int[] ttlOffsets;
+  private final long storedAtMillis;
+  private final long ttlSeconds;
+  private final long maxRecordTtlSeconds;
+  private int hits;
+  private boolean refreshClaimed;
+
+  /**
+   * @param response            raw response bytes, must not be modified afterwards
+   * @param ttlOffsets          offsets of the TTL fields that have to be decremented when served
+   * @param storedAtMillis      epoch millis when the response was received
+   * @param ttlSeconds          for how long the response can be served
+   * @param maxRecordTtlSeconds upper bound of the TTL announced for any of the records
+   */
+  public CachedResponse(byte[] response, int[] ttlOffsets, long storedAtMillis, long ttlSeconds,
+      long maxRecordTtlSeconds) {
+    this(ByteBuffer.wrap(response), 0, response.length, ttlOffsets, storedAtMillis, ttlSeconds,
+        maxRecordTtlSeconds);
+  }
+
+  private CachedResponse(ByteBuffer data, int offset, int length, int[] ttlOffsets,
+      long storedAtMillis, long ttlSeconds, long maxRecordTtlSeconds) {
+    this.data = data;
+    this.offset = offset;
+    this.length = length;
+    this.ttlOffsets = ttlOffsets;
+    this.storedAtMillis = storedAtMillis;
+    this.ttlSeconds = ttlSeconds;
+    this.maxRecordTtlSeconds = maxRecordTtlSeconds;
+  }
+
+  /**
+   * @return copy of the response as it was received
+   */
+  public byte[] response() {
+    final var response = new byte[length];
+    data.get(offset, response);
+    return response;
+  }
+
+  public long expiresAtMillis() {
+    return storedAtMillis + ttlSeconds * 1000;
+  }
+
+  public boolean isExpiredAt(long nowMillis) {
+    return nowMillis >= expiresAtMillis();
+  }
+
+  public int length() {
+    return length;
+  }
+
+  /**
+   * @return whether the bytes are kept in an off-heap slab
+   */
+  boolean isOffHeap() {
+    return data.isDirect();
+  }
+
+  /**
+   * @return buffer the bytes are kept in, the slab if they are off-heap
+   */
+  ByteBuffer bytes() {
+    return data;
+  }
+
+  int ttlOffsetCount() {
+    return ttlOffsets.length;
+  }
+
+  int[] ttlOffsets() {
+    return ttlOffsets;
+  }
+
+  long storedAtMillis() {
+    return storedAtMillis;
+  }
+
+  long maxRecordTtlSeconds() {
+    return maxRecordTtlSeconds;
+  }
+
+  /**
+   * Puts the response as it was received at the position of the buffer, which is advanced.
+   */
+  void putTo(ByteBuffer out) {
+    out.put(out.position(), data, offset, length);
+    out.position(out.position() + length);
+  }
+
+  /**
+   * @return this response if its bytes are on the heap, otherwise a copy that stays valid once
+   *     the slab is reused
+   */
+  CachedResponse onHeap() {
+    if (!isOffHeap()) {
+      return this;
+    }
+
+    return new CachedResponse(response(), ttlOffsets, storedAtMillis, ttlSeconds,
+        maxRecordTtlSeconds);
+  }
+
+  /**
+   * Copies the bytes into the slab and returns the copy, the hit count starts over.
+   */
+  CachedResponse copyTo(ByteBuffer slab, int slabOffset) {
+    slab.put(slabOffset, data, offset, length);
+    return new CachedResponse(slab, slabOffset, length, ttlOffsets, storedAtMillis, ttlSeconds,
+        maxRecordTtlSeconds);
+  }
+
+  /**
+   * Counts a hit and tells whether the response should be refreshed ahead of its expiry, that is
+   * whether it has been hit at least {@code minHits} times and has used up {@code refreshAt} of
+   * its TTL. Returns true at most once, the refreshed response replaces this one.
+   */
+  boolean hitAndClaimRefresh(long nowMillis, double refreshAt, int minHits) {
+    hits++;
+
+    if (refreshClaimed || hits < minHits
+            || nowMillis - storedAtMillis < refreshAt * ttlSeconds * 1000) {
+      return false;
+    }
+
+    refreshClaimed = true;
+    return true;
+  }
+
+  /**
+   * Copies the response into the buffer (cleared beforehand) with the client's id and the TTLs
+   * reduced by the time the response spent in the cache. The buffer is flipped afterwards, ready
+   * to be sent. Allocates nothing.
+   *
+   * @param out       buffer with at least {@link #length()} bytes of capacity
+   * @param id        id of the query being answered
+   * @param nowMillis current epoch millis
+   */
+  public void writeTo(ByteBuffer out, short id, long nowMillis) {
+    final long elapsedSeconds = Math.max(0, (nowMillis - storedAtMillis) / 1000);
+
+    copyInto(out, id);
+
+    for (int ttlOffset : ttlOffsets) {
+      final long ttl = Math.min(read4BytesUnsignedAsLong(data, offset + ttlOffset),
+          maxRecordTtlSeconds);
+      out.putInt(ttlOffset, (int) Math.max(0, ttl - elapsedSeconds));
+    }
+
+    out.flip();
+  }
+
+  /**
+   * Same as {@link #writeTo(ByteBuffer, short, long)} for a response that has expired already,
+   * every TTL is set to the given one.
+   */
+  public void writeStaleTo(ByteBuffer out, short id, long ttlSeconds) {
+    copyInto(out, id);
+
+    for (int ttlOffset : ttlOffsets) {
+      out.putInt(ttlOffset, (int) ttlSeconds);
+    }
+
+    out.flip();
+  }
+
+  private void copyInto(ByteBuffer out, short id) {
+    out.clear();
+    out.put(0, data, offset, length);
+    out.position(length);
+    out.putShort(0, id);
+  }
+}
@@ -0,0 +1,523 @@
+package io.github.akmal2409.dnsforwarder.server.cache;
+
+import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.isBitSet;
+import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read4BytesUnsignedAsLong;
+
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.MessageLayout;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded cache of upstream responses keyed by the question they answer. Entries expire together
+ * with the shortest TTL of their records. Negative responses (the name or the type doesn't exist)
+ * are cached too, for as long as the SOA record of the zone allows. Hot entries are refreshed
+ * ahead of their expiry (prefetch), so that clients keep hitting the cache instead of waiting for
+ * the upstream every time a popular name expires. The cache only tells the caller when to refresh
+ * an entry, see {@link #lookup}.
+ *
+ * <p>The cache is split into shards by the hash of the key, each with its own lock and an equal
+ * share of the size limit, so that workers looking up different names rarely contend. The limit
+ * is in bytes: an entry is accounted for with its wire length plus a fixed estimate of the objects
+ * around it, which keeps the heap use predictable no matter how large the responses are. The
+ * least recently used entries of a shard are evicted once it is over its share.
+ *
+ * <p>With {@link Storage#OFF_HEAP} the responses themselves are kept in direct memory, see
+ * {@link SlabArena}, and only the index of keys and offsets stays on the heap and counts against
+ * the limit. The direct memory has a size of its own, split between the shards like the limit,
+ * and each shard drops the oldest slab of responses when its arena is full.
+ *
+ * <p>Expired entries are kept for a while longer so that they can be served stale when the
+ * upstream fails or is too slow to answer
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc8767">RFC 8767</a>).
+ */
+public class ResponseCache {
+
+  private static final byte RESPONSE_CODE_NO_ERROR = 0;
+  private static final byte RESPONSE_CODE_NAME_ERROR = 3;
+  // https://datatracker.ietf.org/doc/html/rfc2308#section-5 suggests at most 1 to 3 hours
+  static final long MAX_NEGATIVE_TTL_SECONDS = 3 * 60 * 60;
+  private static final int SOA_MINIMUM_LENGTH = 4;
+  // https://datatracker.ietf.org/doc/html/rfc8767#section-4
+  static final long STALE_TTL_SECONDS = 30;
+
+  // map entry, key, domain name, cached response and the headers of their arrays, with compressed
+  // oops. Only has to be in the right ballpark for the limit to be meaningful
+  static final int ENTRY_OVERHEAD_BYTES = 200;
+
+  // smaller slabs are reused more often, larger ones drop more responses at once
+  private static final int MIN_SLAB_SIZE = 4 * 1024;
+  private static final int MAX_SLAB_SIZE = 1024 * 1024;
+  private static final int SLABS_PER_SHARD = 8;
+
+  public enum Storage {
+    HEAP,
+    OFF_HEAP
+  }
+
+  public enum Lookup {
+    MISS,
+    HIT,
+    // hit of a hot response that is about to expire, the caller should fetch and put a fresh one
+    HIT_REFRESH,
+    // expired response that can still be served stale with writeStaleTo, nothing was written
+    STALE
+  }
+
+  private final long maxTtlSeconds;
+  private final double refreshAt;
+  private final int refreshMinHits;
+  private final long maxStaleMillis;
+  private final Clock clock;
+  private final Shard[] shards;
+
+  /**
+   * Creates a single shard cache that never asks for a refresh and drops responses as soon as
+   * they expire.
+   */
+  public ResponseCache(long maxBytes, Duration maxTtl, Clock clock) {
+    this(maxBytes, 1, Storage.HEAP, 0, maxTtl, 1.0, Integer.MAX_VALUE, Duration.ZERO, clock);
+  }
+
+  /**
+   * @param maxBytes       estimated size of the entries to keep before evicting the least recently
+   *                       used ones
+   * @param shardCount     number of independently locked shards, rounded up to a power of two
+   * @param storage        where the response bytes are kept
+   * @param offHeapBytes   size of the direct memory the responses are kept in, only used with
+   *                       {@link Storage#OFF_HEAP}
+   * @param maxTtl         upper bound of how long a response may be cached regardless of its TTL
+   * @param refreshAt      fraction of the TTL after which a hot response is refreshed, in (0, 1]
+   * @param refreshMinHits number of hits that make a response hot enough to be refreshed
+   * @param maxStale       for how long an expired response is kept to be served stale
+   * @param clock          source of the current time, TTLs are tracked in wall clock millis
+   */
+  public ResponseCache(long maxBytes, int shardCount, Storage storage, long offHeapBytes,
+      Duration maxTtl, double refreshAt, int refreshMinHits, Duration maxStale, Clock clock) {
+    if (shardCount < 1 || shardCount > 1 << 16) {
+      throw new IllegalArgumentException("Shard count must be between 1 and 65536");
+    }
+    // a power of two, so that the shard of a key is picked with a mask
+    final int shardsRounded = shardCount == 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+
+    if (maxBytes / shardsRounded < ENTRY_OVERHEAD_BYTES) {
+      throw new IllegalArgumentException("Cache must be able to hold at least one entry per shard");
+    }
+    if (storage == Storage.OFF_HEAP && offHeapBytes / shardsRounded < MIN_SLAB_SIZE) {
+      throw new IllegalArgumentException(
+          "Off-heap cache must be able to hold at least one slab per shard");
+    }
+    if (!(refreshAt > 0 && refreshAt <= 1)) {
+      throw new IllegalArgumentException("Refresh point must be a fraction of the TTL in (0, 1]");
+    }
+    if (refreshMinHits < 1) {
+      throw new IllegalArgumentException("Refresh must require at least one hit");
+    }
+    if (maxStale.isNegative()) {
+      throw new IllegalArgumentException("Stale period cannot be negative");
+    }
+    this.maxTtlSeconds = maxTtl.toSeconds();
+    this.refreshAt = refreshAt;
+    this.refreshMinHits = refreshMinHits;
+    this.maxStaleMillis = maxStale.toMillis();
+    this.clock = Objects.requireNonNull(clock, "clock cannot be null");
+    this.shards = new Shard[shardsRounded];
+    final long shardBytes = maxBytes / shardsRounded;
+    final long shardOffHeapBytes = offHeapBytes / shardsRounded;
+    final int slabSize = Math.clamp(shardOffHeapBytes / SLABS_PER_SHARD, MIN_SLAB_SIZE,
+        MAX_SLAB_SIZE);
+
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard(shardBytes,
+          storage == Storage.OFF_HEAP ? new SlabArena(shardOffHeapBytes, slabSize) : null);
+    }
+  }
+
+  /**
+   * Computes for how long the response can be cached, that is the minimum TTL among its cacheable
+   * records. Only complete responses that are either successful with at least one answer or
+   * negative are cacheable, see {@link #negativeTtlOf(byte[], MessageLayout)}.
+   *
+   * @return TTL in seconds or 0 if the response must not be cached
+   */
+  public static long cacheableTtlOf(byte[] response, MessageLayout layout) {
+    final boolean query = !isBitSet(response[2], 7);
+    final boolean truncation = isBitSet(response[2], 1);
+
+    if (query || truncation) {
+      return 0;
+    } else if (isNegative(response, layout)) {
+      return negativeTtlOf(response, layout);
+    } else if ((response[3] & 0xf) != RESPONSE_CODE_NO_ERROR) {
+      return 0;
+    }
+
+    long ttl = Long.MAX_VALUE;
+
+    for (int i = 0; i < layout.recordCount(); i++) {
+      if (isCacheable(response, layout, i)) {
+        ttl = Math.min(ttl, layout.ttl(response, i));
+      }
+    }
+
+    return ttl == Long.MAX_VALUE ? 0 : ttl;
+  }
+
+  // NXDOMAIN or NODATA, https://datatracker.ietf.org/doc/html/rfc2308#section-2
+  private static boolean isNegative(byte[] response, MessageLayout layout) {
+    final int responseCode = response[3] & 0xf;
+
+    return responseCode == RESPONSE_CODE_NAME_ERROR
+               || responseCode == RESPONSE_CODE_NO_ERROR && layout.answerCount() == 0;
+  }
+
+  /**
+   * A negative response is cached for the TTL of the SOA record in its authority section, but no
+   * longer than the SOA's minimum field
+   * (<a href="https://datatracker.ietf.org/doc/html/rfc2308#section-5">RFC 2308</a>). Without an
+   * SOA it must not be cached.
+   *
+   * @return TTL in seconds or 0 if the response must not be cached
+   */
+  static long negativeTtlOf(byte[] response, MessageLayout layout) {
+    final int authorityEnd = layout.answerCount() + layout.nameServerCount();
+
+    for (int i = layout.answerCount(); i < authorityEnd; i++) {
+      final int rDataLength = layout.rDataLength(response, i);
+
+      if (layout.recordType(response, i) == DnsType.SOA.numericValue
+              && rDataLength >= SOA_MINIMUM_LENGTH) {
+        // the minimum is the last field, after two names that would have to be skipped
+        final long minimum = read4BytesUnsignedAsLong(response,
+            layout.rDataOffset(i) + rDataLength - SOA_MINIMUM_LENGTH);
+
+        return Math.min(Math.min(layout.ttl(response, i), minimum), MAX_NEGATIVE_TTL_SECONDS);
+      }
+    }
+
+    return 0;
+  }
+
+  // mirrors ResourceRecord.cacheable(), the TTL field of OPT holds flags and not a TTL
+  private static boolean isCacheable(byte[] response, MessageLayout layout, int record) {
+    return layout.recordType(response, record) != DnsType.OPT.numericValue;
+  }
+
+  /**
+   * @return the response or null if there is no fresh response for the key. Off-heap responses
+   *     are copied to the heap, prefer {@link #lookup} for serving them
+   */
+  public CachedResponse get(CacheKey key) {
+    final long now = clock.millis();
+    final Shard shard = shardOf(key);
+
+    shard.lock.lock();
+    try {
+      final CachedResponse cached = shard.entry(key, now, maxStaleMillis);
+      return cached == null || cached.isExpiredAt(now) ? null : cached.onHeap();
+    } finally {
+      shard.lock.unlock();
+    }
+  }
+
+  /**
+   * Copies the fresh response for the key into the buffer, ready to be sent to the client. See
+   * {@link CachedResponse#writeTo(ByteBuffer, short, long)}. Counts as a hit of the response.
+   *
+   * @param id  id of the query being answered
+   * @param out buffer large enough to hold any DNS message
+   * @return {@link Lookup#MISS} or {@link Lookup#STALE} if there is no fresh response, the buffer
+   *     is left untouched then. {@link Lookup#HIT_REFRESH} is returned once per response, when it
+   *     became hot and old enough to be refreshed
+   */
+  public Lookup lookup(CacheKey key, short id, ByteBuffer out) {
+    final long now = clock.millis();
+    final Shard shard = shardOf(key);
+    final CachedResponse cached;
+    final boolean refresh;
+
+    shard.lock.lock();
+    try {
+      cached = shard.entry(key, now, maxStaleMillis);
+
+      if (cached == null) {
+        return Lookup.MISS;
+      } else if (cached.isExpiredAt(now)) {
+        return Lookup.STALE;
+      }
+
+      refresh = cached.hitAndClaimRefresh(now, refreshAt, refreshMinHits);
+      // under the lock, an off-heap slab may be reused as soon as it is released
+      cached.writeTo(out, id, now);
+    } finally {
+      shard.lock.unlock();
+    }
+
+    return refresh ? Lookup.HIT_REFRESH : Lookup.HIT;
+  }
+
+  /**
+   * Copies the response for the key into the buffer even if it has expired, with a TTL of 30
+   * seconds then. Meant for answering a client that the upstream failed to answer in time.
+   *
+   * @return false if there is neither a fresh nor a stale response, the buffer is left untouched
+   */
+  public boolean writeStaleTo(CacheKey key, short id, ByteBuffer out) {
+    final long now = clock.millis();
+    final Shard shard = shardOf(key);
+
+    shard.lock.lock();
+    try {
+      final CachedResponse cached = shard.entry(key, now, maxStaleMillis);
+
+      if (cached == null) {
+        return false;
+      } else if (cached.isExpiredAt(now)) {
+        cached.writeStaleTo(out, id, STALE_TTL_SECONDS);
+      } else {
+        // refreshed in the meantime
+        cached.writeTo(out, id, now);
+      }
+
+      return true;
+    } finally {
+      shard.lock.unlock();
+    }
+  }
+
+  private Shard shardOf(CacheKey key) {
+    final int hash = key.hashCode();
+    return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+  }
+
+  /**
+   * @return estimated heap footprint of the entry in bytes, the bytes of an off-heap response
+   *     don't count
+   */
+  static long footprintOf(CacheKey key, CachedResponse cached) {
+    return ENTRY_OVERHEAD_BYTES + key.name().wireLength()
+               + (cached.isOffHeap() ? 0 : cached.length())
+               + (long) Integer.BYTES * cached.ttlOffsetCount();
+  }
+
+  /**
+   * Stores the response, replacing the previous one if present. Responses that are not cacheable
+   * according to {@link #cacheableTtlOf(byte[], MessageLayout)} are ignored.
+   *
+   * @param response raw response bytes, the cache takes ownership of the array
+   * @param layout   record offsets of the response
+   */
+  public void put(CacheKey key, byte[] response, MessageLayout layout) {
+    final long ttl = Math.min(cacheableTtlOf(response, layout), maxTtlSeconds);
+
+    if (ttl <= 0) {
+      return;
+    }
+
+    final var ttlOffsets = new int[layout.recordCount()];
+    int ttlOffsetCount = 0;
+
+    for (int i = 0; i < layout.recordCount(); i++) {
+      if (isCacheable(response, layout, i)) {
+        ttlOffsets[ttlOffsetCount++] = layout.ttlOffset(i);
+      }
+    }
+
+    // the SOA's own TTL may be longer than the negative TTL, the client must not cache it longer
+    final long maxRecordTtl = isNegative(response, layout) ? ttl : maxTtlSeconds;
+    final var cached = new CachedResponse(response, Arrays.copyOf(ttlOffsets, ttlOffsetCount),
+        clock.millis(), ttl, maxRecordTtl);
+
+    final Shard shard = shardOf(key);
+
+    shard.lock.lock();
+    try {
+      shard.put(key, cached);
+    } finally {
+      shard.lock.unlock();
+    }
+  }
+
+  /**
+   * Stores a response that was cached before, e.g. by the previous run of the server, with the
+   * time it was originally received so that its TTLs keep aging. The TTLs are capped by the
+   * current limits and an expired response is ignored.
+   *
+   * @param response raw response bytes, the cache takes ownership of the array
+   * @return false if the response has expired
+   */
+  boolean restore(CacheKey key, byte[] response, int[] ttlOffsets, long storedAtMillis,
+      long expiresAtMillis, long maxRecordTtlSeconds) {
+    final long ttl = Math.min((expiresAtMillis - storedAtMillis) / 1000, maxTtlSeconds);
+    final var cached = new CachedResponse(response, ttlOffsets, storedAtMillis, ttl,
+        Math.min(maxRecordTtlSeconds, maxTtlSeconds));
+
+    if (ttl <= 0 || cached.isExpiredAt(clock.millis())) {
+      return false;
+    }
+
+    final Shard shard = shardOf(key);
+
+    shard.lock.lock();
+    try {
+      shard.put(key, cached);
+    } finally {
+      shard.lock.unlock();
+    }
+
+    return true;
+  }
+
+  /**
+   * Passes every response that hasn't expired to the action, from the least to the most recently
+   * used one of each shard. A shard is copied under its lock and visited after releasing it, so
+   * that a slow action doesn't hold up the lookups. Off-heap responses are copied to the heap.
+   */
+  void forEachFresh(BiConsumer<CacheKey, CachedResponse> action) {
+    final var keys = new ArrayList<CacheKey>();
+    final var responses = new ArrayList<CachedResponse>();
+
+    for (Shard shard : shards) {
+      final long now = clock.millis();
+
+      shard.lock.lock();
+      try {
+        for (Map.Entry<CacheKey, CachedResponse> entry : shard.entries.entrySet()) {
+          if (!entry.getValue().isExpiredAt(now)) {
+            keys.add(entry.getKey());
+            responses.add(entry.getValue().onHeap());
+          }
+        }
+      } finally {
+        shard.lock.unlock();
+      }
+
+      for (int i = 0; i < keys.size(); i++) {
+        action.accept(keys.get(i), responses.get(i));
+      }
+
+      keys.clear();
+      responses.clear();
+    }
+  }
+
+  public int size() {
+    int size = 0;
+
+    for (Shard shard : shards) {
+      shard.lock.lock();
+      try {
+        size += shard.entries.size();
+      } finally {
+        shard.lock.unlock();
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * @return estimated heap footprint of all the entries, see {@link #footprintOf}
+   */
+  public long bytes() {
+    long bytes = 0;
+
+    for (Shard shard : shards) {
+      shard.lock.lock();
+      try {
+        bytes += shard.bytes;
+      } finally {
+        shard.lock.unlock();
+      }
+    }
+
+    return bytes;
+  }
+
+  // everything but the lock must only be touched while holding the lock
+  private static final class Shard {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<CacheKey, CachedResponse> entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private final SlabArena arena; // null if the responses are kept on the heap
+    private long bytes;
+
+    private Shard(long maxBytes, SlabArena arena) {
+      this.maxBytes = maxBytes;
+      this.arena = arena;
+    }
+
+    // returns the fresh or stale entry
+    private CachedResponse entry(CacheKey key, long now, long maxStaleMillis) {
+      final CachedResponse cached = entries.get(key);
+
+      if (cached != null && now >= cached.expiresAtMillis() + maxStaleMillis) {
+        entries.remove(key);
+        dropped(key, cached);
+        return null;
+      }
+
+      return cached;
+    }
+
+    private void put(CacheKey key, CachedResponse cached) {
+      if (arena != null) {
+        cached = arena.store(key, cached, this::evicted);
+
+        if (cached == null) {
+          return;
+        }
+      }
+
+      if (footprintOf(key, cached) > maxBytes) {
+        if (arena != null) {
+          arena.release(cached);
+        }
+        return;
+      }
+
+      final CachedResponse replaced = entries.put(key, cached);
+      bytes += footprintOf(key, cached);
+
+      if (replaced != null) {
+        dropped(key, replaced);
+      }
+
+      final Iterator<Map.Entry<CacheKey, CachedResponse>> eldest = entries.entrySet().iterator();
+
+      while (bytes > maxBytes) {
+        final Map.Entry<CacheKey, CachedResponse> evicted = eldest.next();
+        eldest.remove();
+        dropped(evicted.getKey(), evicted.getValue());
+      }
+    }
+
+    // the entry has been removed from the index
+    private void dropped(CacheKey key, CachedResponse response) {
+      bytes -= footprintOf(key, response);
+
+      if (arena != null) {
+        arena.release(response);
+      }
+    }
+
+    // the slab of the response is about to be reused, unless it has been replaced already. The
+    // arena forgets the slab's responses itself
+    private void evicted(CacheKey key, CachedResponse response) {
+      if (entries.remove(key, response)) {
+        bytes -= footprintOf(key, response);
+      }
+    }
+  }
+}
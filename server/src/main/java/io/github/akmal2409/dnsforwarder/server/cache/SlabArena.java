@@ -0,0 +1,86 @@
+package io.github.akmal2409.dnsforwarder.server.cache;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Off-heap storage for the responses of one cache shard. The memory is split into equally sized
+ * direct slabs that are filled one after another. Once every slab is full the oldest one is reused
+ * as a whole and the responses stored in it are dropped from the cache, so there is neither
+ * per-response freeing nor fragmentation to deal with and the GC only ever sees the slabs and the
+ * small index entries pointing into them. Not thread-safe, guarded by the lock of the shard.
+ */
+final class SlabArena {
+
+  private final int slabSize;
+  private final ByteBuffer[] slabs;
+  // what is still cached out of each slab, to drop it from the index once the slab is reused.
+  // Responses don't override equals, so both maps compare by identity
+  private final Map<ByteBuffer, Map<CachedResponse, CacheKey>> stored = new IdentityHashMap<>();
+  private int current = -1;
+  private int position;
+
+  @FunctionalInterface
+  interface EvictionListener {
+
+    void evicted(CacheKey key, CachedResponse response);
+  }
+
+  /**
+   * @param capacity total size of the slabs in bytes, they are allocated as they are needed
+   * @param slabSize size of a single slab, also the longest response that can be stored
+   */
+  SlabArena(long capacity, int slabSize) {
+    this.slabSize = slabSize;
+    this.slabs = new ByteBuffer[(int) Math.max(1, capacity / slabSize)];
+  }
+
+  /**
+   * Copies the response into the arena, reusing the oldest slab if there is no room left.
+   *
+   * @param listener told about every response in the reused slab, before it is overwritten
+   * @return the copy pointing into the arena or null if the response is longer than a slab
+   */
+  CachedResponse store(CacheKey key, CachedResponse response, EvictionListener listener) {
+    if (response.length() > slabSize) {
+      return null;
+    } else if (current == -1 || slabSize - position < response.length()) {
+      nextSlab(listener);
+    }
+
+    final CachedResponse copy = response.copyTo(slabs[current], position);
+    position += response.length();
+    stored.get(slabs[current]).put(copy, key);
+
+    return copy;
+  }
+
+  /**
+   * Forgets a response the cache has dropped or replaced, so that it and its key don't stay
+   * reachable until the slab is reused. Its bytes stay where they are until then.
+   */
+  void release(CachedResponse response) {
+    final Map<CachedResponse, CacheKey> responses = stored.get(response.bytes());
+
+    if (responses != null) {
+      responses.remove(response);
+    }
+  }
+
+  private void nextSlab(EvictionListener listener) {
+    current = (current + 1) % slabs.length;
+    position = 0;
+
+    if (slabs[current] == null) {
+      slabs[current] = ByteBuffer.allocateDirect(slabSize);
+      stored.put(slabs[current], new HashMap<>());
+      return;
+    }
+
+    final Map<CachedResponse, CacheKey> evicted = stored.get(slabs[current]);
+    evicted.forEach((response, key) -> listener.evicted(key, response));
+    evicted.clear();
+  }
+}
@@ -1,5 +1,7 @@
 package io.github.akmal2409.dnsforwarder.server.codec;
 
+import java.nio.ByteBuffer;
+
 public final class DnsUtils {
 
   public static final int POINTER_MASK = 3 << 6;
@@ -11,4 +13,52 @@ public final class DnsUtils {
   public static boolean isLabelPointer(byte b) {
     return ((b & 0xff) & POINTER_MASK) == POINTER_MASK;
   }
+
+  /**
+   * Checks whether the response answers the same questions as the query. Domain names are
+   * compared case-insensitively as required by
+   * <a href="https://datatracker.ietf.org/doc/html/rfc4343">RFC 4343</a>.
+   *
+   * @param questionsEnd offset of the first byte after the question section of the response
+   */
+  public static boolean sameQuestions(ByteBuffer query, byte[] response, int questionsEnd) {
+    if (query.limit() < questionsEnd || query.get(4) != response[4]
+            || query.get(5) != response[5]) {
+      return false;
+    }
+
+    int offset = 12;
+
+    while (offset < questionsEnd) {
+      final int length = response[offset] & 0xff;
+
+      if (query.get(offset) != response[offset]) {
+        return false;
+      } else if (length == 0) {
+        // type and class have to match exactly
+        for (int i = offset + 1; i <= offset + 4; i++) {
+          if (query.get(i) != response[i]) {
+            return false;
+          }
+        }
+        offset += 5;
+        continue;
+      } else if ((length & POINTER_MASK) != 0) {
+        return false; // questions are never compressed
+      }
+
+      for (int i = offset + 1; i <= offset + length; i++) {
+        if (toLowerCase(query.get(i)) != toLowerCase(response[i])) {
+          return false;
+        }
+      }
+      offset += length + 1;
+    }
+
+    return offset == questionsEnd;
+  }
+
+  public static byte toLowerCase(byte b) {
+    return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+  }
 }
@@ -0,0 +1,203 @@
+package io.github.akmal2409.dnsforwarder.server.codec;
+
+import static io.github.akmal2409.dnsforwarder.server.codec.decoders.CodecConstants.MIN_RESOURCE_RECORD_LENGTH;
+import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read2BytesAsInt;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import java.nio.ByteBuffer;
+
+/**
+ * In-place handling of the OPT pseudo-record
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc6891">RFC 6891</a>) of messages held in a
+ * buffer, between index 0 and the limit. OPT describes the hop it was sent over and not the data,
+ * so the forwarder advertises its own payload size to both sides instead of passing the record
+ * through. Nothing is decoded and nothing is allocated.
+ */
+public final class Edns {
+
+  // https://datatracker.ietf.org/doc/html/rfc1035#section-4.2.1, also the floor for EDNS
+  public static final int MIN_UDP_PAYLOAD_SIZE = 512;
+  // https://www.dnsflagday.net/2020/ avoids IP fragmentation on practically every path
+  public static final int DEFAULT_UDP_PAYLOAD_SIZE = 1232;
+  // root name, type, payload size, extended rcode, version, flags and an empty rdata
+  public static final int OPT_LENGTH = 11;
+
+  private static final int HEADER_LENGTH = 12;
+  private static final int TRUNCATION_FLAG = 0x02;
+  private static final int DNSSEC_OK_FLAG = 0x80;
+
+  private Edns() {
+    throw new IllegalStateException("Cannot instantiate a utility class");
+  }
+
+  /**
+   * @return offset of the first OPT record of the additional section, or -1 if there is none or
+   *     the message is malformed
+   */
+  public static int optOffset(ByteBuffer message) {
+    final int length = message.limit();
+
+    if (length < HEADER_LENGTH) {
+      return -1;
+    }
+
+    final int answerCount = read2BytesAsInt(message, 6) + read2BytesAsInt(message, 8);
+    final int recordCount = answerCount + read2BytesAsInt(message, 10);
+    int offset = questionsEnd(message);
+
+    for (int i = 0; i < recordCount && offset != -1; i++) {
+      final int recordStart = offset;
+      offset = skipName(message, offset);
+
+      if (offset == -1 || length - offset < MIN_RESOURCE_RECORD_LENGTH) {
+        return -1;
+      } else if (i >= answerCount && read2BytesAsInt(message, offset) == DnsType.OPT.numericValue) {
+        return recordStart;
+      }
+
+      offset += MIN_RESOURCE_RECORD_LENGTH + read2BytesAsInt(message, offset + 8);
+      offset = offset > length ? -1 : offset;
+    }
+
+    return -1;
+  }
+
+  /**
+   * @param opt offset of the OPT record, see {@link #optOffset(ByteBuffer)}
+   * @return largest UDP response the sender of the message accepts, never less than 512 bytes
+   */
+  public static int udpPayloadSize(ByteBuffer message, int opt) {
+    return opt == -1
+        ? MIN_UDP_PAYLOAD_SIZE
+        : Math.max(MIN_UDP_PAYLOAD_SIZE, read2BytesAsInt(message, opt + 3));
+  }
+
+  /**
+   * @return whether the DO bit is set, i.e. the sender wants the DNSSEC records
+   */
+  public static boolean dnssecOk(ByteBuffer message, int opt) {
+    return opt != -1 && (message.get(opt + 7) & DNSSEC_OK_FLAG) != 0;
+  }
+
+  /**
+   * Appends an OPT record without options at the limit, which is moved past it, and counts it in
+   * the header. The buffer must have {@link #OPT_LENGTH} bytes of room.
+   */
+  public static void appendOpt(ByteBuffer message, int udpPayloadSize, boolean dnssecOk) {
+    final int offset = message.limit();
+
+    message.limit(offset + OPT_LENGTH)
+        .put(offset, (byte) 0)
+        .putShort(offset + 1, DnsType.OPT.numericValue)
+        .putShort(offset + 3, (short) udpPayloadSize)
+        .putInt(offset + 5, dnssecOk ? DNSSEC_OK_FLAG << 8 : 0)
+        .putShort(offset + 9, (short) 0);
+    message.putShort(10, (short) (read2BytesAsInt(message, 10) + 1));
+  }
+
+  /**
+   * Replaces the OPT record of a query with one without options, which advertises the given
+   * payload size and keeps the DO bit, or appends one if the query has none. The options of the
+   * client, e.g. its subnet or cookie, describe its hop to the forwarder and are not passed on.
+   * Records following the OPT record are cut off along with it, in a query that is TSIG or SIG(0)
+   * whose signature doesn't survive the forwarder anyway. A query without an OPT record must have
+   * {@link #OPT_LENGTH} bytes of room past its limit.
+   */
+  public static void replaceOpt(ByteBuffer query, int udpPayloadSize) {
+    final int opt = optOffset(query);
+    final boolean dnssecOk = dnssecOk(query, opt);
+
+    if (opt != -1) {
+      final int answerCount = read2BytesAsInt(query, 6) + read2BytesAsInt(query, 8);
+      query.putShort(10, (short) (recordsBefore(query, opt) - answerCount));
+      query.limit(opt);
+    }
+
+    appendOpt(query, udpPayloadSize, dnssecOk);
+  }
+
+  /**
+   * Cuts the OPT record off the message if it is the last one, which is where every resolver puts
+   * it. An OPT record followed by other records is left in place, removing it would break the
+   * compression pointers into them.
+   *
+   * @return whether the record was removed
+   */
+  public static boolean removeTrailingOpt(ByteBuffer message) {
+    final int opt = optOffset(message);
+
+    if (opt == -1 || opt + OPT_LENGTH + read2BytesAsInt(message, opt + 9) != message.limit()) {
+      return false;
+    }
+
+    message.limit(opt);
+    message.putShort(10, (short) (read2BytesAsInt(message, 10) - 1));
+    return true;
+  }
+
+  /**
+   * Cuts every record off the response and sets the TC bit, so that the client asks again over
+   * TCP (<a href="https://datatracker.ietf.org/doc/html/rfc2181#section-9">RFC 2181</a>). The
+   * question is kept, unless the response is malformed.
+   */
+  public static void truncate(ByteBuffer response) {
+    int offset = questionsEnd(response);
+
+    if (offset == -1) {
+      offset = HEADER_LENGTH;
+      response.putShort(4, (short) 0);
+    }
+
+    response.limit(offset);
+    response.put(2, (byte) (response.get(2) | TRUNCATION_FLAG))
+        .putShort(6, (short) 0)
+        .putShort(8, (short) 0)
+        .putShort(10, (short) 0);
+  }
+
+  // returns the offset of the first record or -1 if the question section is malformed
+  private static int questionsEnd(ByteBuffer message) {
+    final int questionCount = read2BytesAsInt(message, 4);
+    int offset = HEADER_LENGTH;
+
+    for (int i = 0; i < questionCount && offset != -1; i++) {
+      offset = skipName(message, offset);
+      offset = offset == -1 || offset + 4 > message.limit() ? -1 : offset + 4;
+    }
+
+    return offset;
+  }
+
+  // number of records of all sections in front of the offset, which must be a record's start
+  private static int recordsBefore(ByteBuffer message, int end) {
+    int offset = questionsEnd(message);
+    int count = 0;
+
+    while (offset < end) {
+      offset = skipName(message, offset);
+      offset += MIN_RESOURCE_RECORD_LENGTH + read2BytesAsInt(message, offset + 8);
+      count++;
+    }
+
+    return count;
+  }
+
+  // returns the offset right after the (possibly compressed) name or -1 if it is malformed
+  private static int skipName(ByteBuffer message, int offset) {
+    while (offset < message.limit()) {
+      final byte lengthOctet = message.get(offset);
+
+      if (lengthOctet == 0) {
+        return offset + 1;
+      } else if (DnsUtils.isLabelPointer(lengthOctet)) {
+        return offset + 2 <= message.limit() ? offset + 2 : -1;
+      } else if ((lengthOctet & DnsUtils.POINTER_MASK) != 0) {
+        return -1;
+      }
+
+      offset += (lengthOctet & 0xff) + 1;
+    }
+
+    return -1;
+  }
+}
@@ -4,6 +4,7 @@ public final class CodecConstants {
 
   public static final int MIN_RESOURCE_RECORD_LENGTH = 10;
   public static final int MIN_OPT_OPTION_LENGTH = 4;
+  public static final int MAX_MESSAGE_LENGTH = (1 << 16) - 1;
 
   private CodecConstants() {
     throw new IllegalArgumentException("Cannot instantiate a utility class");
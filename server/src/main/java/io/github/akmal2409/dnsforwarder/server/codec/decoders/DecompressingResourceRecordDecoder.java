@@ -11,16 +11,25 @@ import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
 import io.github.akmal2409.dnsforwarder.server.codec.models.LabelOffsetCollection;
 import io.github.akmal2409.dnsforwarder.server.codec.models.records.RDataDecoder;
 import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceRecord;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public class DecompressingResourceRecordDecoder implements ResourceRecordDecoder {
 
-  private final byte[] data;
+  private final ByteBuffer data;
   private final LabelOffsetCollection labelOffsetCollection;
   private final DnsDomainNameDecoder domainNameDecoder;
 
   public DecompressingResourceRecordDecoder(byte[] data,
       LabelOffsetCollection labelOffsetCollection) {
+    this(ByteBuffer.wrap(data), labelOffsetCollection);
+  }
+
+  /**
+   * @param data message between index 0 and the limit, offsets are relative to index 0
+   */
+  public DecompressingResourceRecordDecoder(ByteBuffer data,
+      LabelOffsetCollection labelOffsetCollection) {
     this.data = data;
     this.labelOffsetCollection = labelOffsetCollection;
     this.domainNameDecoder = new DnsDomainNameDecoder(data);
@@ -28,10 +37,10 @@ public class DecompressingResourceRecordDecoder implements ResourceRecordDecoder
 
   @Override
   public ParsedObject<ResourceRecord> decodeStartingAt(int offset) {
-    final ParsedObject<List<String>> domainName = parsedDomainNameAt(offset);
+    final ParsedObject<String> domainName = parsedDomainNameAt(offset);
 
     offset = domainName.nextByteOffset; // next byte after domain name
-    if (this.data.length - offset < MIN_RESOURCE_RECORD_LENGTH) {
+    if (this.data.limit() - offset < MIN_RESOURCE_RECORD_LENGTH) {
       throw new IllegalArgumentException(
           "Unable to parse resource record. Smaller than " + MIN_RESOURCE_RECORD_LENGTH + " bytes");
     }
@@ -50,20 +59,18 @@ public class DecompressingResourceRecordDecoder implements ResourceRecordDecoder
     offset += 2;
 
     final var resourceRecord = RDataDecoder.newInstanceFor(type, labelOffsetCollection)
-                                   .decode(String.join(".", domainName.item), dnsClass,
+                                   .decode(domainName.item, dnsClass,
                                        type, ttl, rDataLength, offset, data);
 
     offset += rDataLength;
     return new ParsedObject<>(resourceRecord, offset);
   }
 
-  private ParsedObject<List<String>> parsedDomainNameAt(int offset) {
+  private ParsedObject<String> parsedDomainNameAt(int offset) {
     final ParsedDomainName domainName = domainNameDecoder.decodeStartingAt(offset);
     final List<DecodedValueLabel> valueLabels = labelOffsetCollection.put(domainName);
 
-    return new ParsedObject<>(valueLabels.stream()
-                                  .map(DecodedValueLabel::value)
-                                  .toList(),
+    return new ParsedObject<>(DnsDomainNameDecoder.joinLabels(valueLabels),
         domainName.endOffset());
   }
 }
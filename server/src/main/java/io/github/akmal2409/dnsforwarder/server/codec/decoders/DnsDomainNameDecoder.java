@@ -1,7 +1,9 @@
 package io.github.akmal2409.dnsforwarder.server.codec.decoders;
 
 import io.github.akmal2409.dnsforwarder.server.codec.DnsUtils;
-import java.nio.charset.StandardCharsets;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
+import io.github.akmal2409.dnsforwarder.server.common.ByteUtils;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -13,21 +15,29 @@ import java.util.List;
 public class DnsDomainNameDecoder {
 
 
-  private final byte[] data;
+  private final ByteBuffer data;
 
   public DnsDomainNameDecoder(byte[] data) {
+    this(ByteBuffer.wrap(data));
+  }
+
+  /**
+   * @param data message between index 0 and the limit, offsets and pointers are relative to index 0
+   */
+  public DnsDomainNameDecoder(ByteBuffer data) {
     this.data = data;
   }
 
   // returns either position of a null-byte or last byte of a pointer
-  private static int findTextEndFrom(byte[] bytes, int offset) {
+  private static int findTextEndFrom(ByteBuffer bytes, int offset) {
     int start = offset;
 
-    while (start < bytes.length && bytes[start] != 0 && !DnsUtils.isLabelPointer(bytes[start])) {
+    while (start < bytes.limit() && bytes.get(start) != 0
+               && !DnsUtils.isLabelPointer(bytes.get(start))) {
       start++;
     }
 
-    if (start < bytes.length && DnsUtils.isLabelPointer(bytes[start])) {
+    if (start < bytes.limit() && DnsUtils.isLabelPointer(bytes.get(start))) {
       start++; // because pointer is 2 bytes long
     }
 
@@ -36,7 +46,7 @@ public class DnsDomainNameDecoder {
 
   public ParsedDomainName decodeStartingAt(int offset) {
     final int domainNameEnd = findTextEndFrom(data, offset);
-    if (domainNameEnd == data.length) {
+    if (domainNameEnd == data.limit()) {
       throw new IllegalArgumentException(
           "Domain name cannot be parsed, failed to find terminated label sequence or a pointer");
     }
@@ -52,12 +62,11 @@ public class DnsDomainNameDecoder {
 
     while (offset < domainNameEnd) {
 
-      if (DnsUtils.isLabelPointer(data[offset])) {
+      if (DnsUtils.isLabelPointer(data.get(offset))) {
         if (domainNameEnd - offset + 1 < 2) {
           throw new IllegalArgumentException("Pointer cannot be parsed. Not a 2 byte sequence");
         }
-        final byte msb = (byte) ((data[offset] & 0xff) & ((1 << 6) - 1));
-        final int pointer = (msb << Byte.SIZE) | (data[offset + 1] & 0xff);
+        final int pointer = ByteUtils.read2BytesAsInt(data, offset) & ~(DnsUtils.POINTER_MASK << 8);
         labels.add(new DecodedPointerLabel(offset, pointer));
 
         offset += 2;
@@ -77,22 +86,130 @@ public class DnsDomainNameDecoder {
   }
 
   private ParsedObject<String> nextLabel(int offset) {
-    if (offset == this.data.length - 2) {
+    if (offset == this.data.limit() - 2) {
       throw new IllegalArgumentException("Malformed label, cannot parse");
-    } else if (this.data[offset] == 0) {
+    } else if (this.data.get(offset) == 0) {
       throw new IllegalArgumentException("End of the label sequence");
     }
 
-    final int length = this.data[offset++] & 0xff;
-    if (length > this.data.length - offset - 1) {
+    final int length = this.data.get(offset++) & 0xff;
+    if (length > this.data.limit() - offset - 1) {
       throw new IllegalArgumentException("Malformed label length. Not enough bytes");
     }
 
-    final byte[] letterBytes = new byte[length];
-    System.arraycopy(data, offset, letterBytes, 0, length);
+    final String label = ByteUtils.readAscii(data, offset, length);
 
     offset += length;
-    return new ParsedObject<>(new String(letterBytes, StandardCharsets.US_ASCII), offset);
+    return new ParsedObject<>(label, offset);
+  }
+
+  /**
+   * Decodes the name at the offset into its canonical form, following the compression pointers
+   * directly in the message. Unlike {@link #decodeStartingAt(int)} neither the labels nor the
+   * pointers are materialised, the only allocation is the resulting name.
+   *
+   * @return the name and the offset of the byte after it (after the first pointer if compressed)
+   */
+  public ParsedObject<DomainName> decodeDomainNameAt(int offset) {
+    int nextByteOffset = -1;
+    int wireLength = 1;
+    int position = offset;
+    int labelsStart = offset;
+
+    // first pass validates and measures the name, so that it can be copied without resizing
+    while (true) {
+      if (position >= data.limit()) {
+        throw new IllegalArgumentException(
+            "Domain name cannot be parsed, failed to find terminated label sequence or a pointer");
+      }
+
+      final int length = data.get(position) & 0xff;
+
+      if (length == 0) {
+        break;
+      } else if (DnsUtils.isLabelPointer(data.get(position))) {
+        if (position + 1 >= data.limit()) {
+          throw new IllegalArgumentException("Pointer cannot be parsed. Not a 2 byte sequence");
+        }
+
+        final int pointer = ((length & ~DnsUtils.POINTER_MASK) << Byte.SIZE)
+                                | (data.get(position + 1) & 0xff);
+
+        // a pointer must lead before the labels followed so far, which also rules out loops
+        if (pointer >= labelsStart) {
+          throw new IllegalArgumentException(
+              String.format("Pointer %d at offset %d does not point backwards", pointer, position));
+        }
+        if (nextByteOffset == -1) {
+          nextByteOffset = position + 2;
+        }
+        position = pointer;
+        labelsStart = pointer;
+      } else if ((length & DnsUtils.POINTER_MASK) != 0) {
+        throw new IllegalArgumentException("Unsupported label type " + length);
+      } else {
+        wireLength += length + 1;
+
+        if (wireLength > DomainName.MAX_LENGTH) {
+          throw new IllegalArgumentException(
+              "Domain name exceeds " + DomainName.MAX_LENGTH + " bytes");
+        }
+        position += length + 1;
+      }
+    }
+
+    if (nextByteOffset == -1) {
+      nextByteOffset = position + 1;
+    }
+
+    final var wire = new byte[wireLength];
+    int written = 0;
+    position = offset;
+
+    while (written < wireLength - 1) {
+      if (DnsUtils.isLabelPointer(data.get(position))) {
+        position = ((data.get(position) & ~DnsUtils.POINTER_MASK & 0xff) << Byte.SIZE)
+                       | (data.get(position + 1) & 0xff);
+        continue;
+      }
+
+      final int length = data.get(position) & 0xff;
+      wire[written++] = (byte) length;
+
+      for (int i = position + 1; i <= position + length; i++) {
+        wire[written++] = DnsUtils.toLowerCase(data.get(i));
+      }
+      position += length + 1;
+    }
+
+    return new ParsedObject<>(DomainName.ofCanonicalWire(wire), nextByteOffset);
+  }
+
+  /**
+   * @return dotted representation of the labels, empty string for the root
+   */
+  public static String joinLabels(List<DecodedValueLabel> labels) {
+    if (labels.size() == 1) {
+      final String value = labels.get(0).value();
+      return value == null ? "" : value;
+    }
+
+    int length = labels.size() - 1;
+    for (DecodedValueLabel label : labels) {
+      length += label.value() == null ? 0 : label.value().length();
+    }
+
+    final var builder = new StringBuilder(length);
+    for (DecodedValueLabel label : labels) {
+      if (label.value() != null) {
+        if (!builder.isEmpty()) {
+          builder.append('.');
+        }
+        builder.append(label.value());
+      }
+    }
+
+    return builder.toString();
   }
 
   public static sealed interface DecodedLabel {
@@ -4,31 +4,35 @@ import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.isBitSet;
 import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read2BytesAsInt;
 import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read2BytesUnsignedAsShort;
 
+import io.github.akmal2409.dnsforwarder.server.codec.DnsUtils;
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.DecodedLabel;
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.DecodedPointerLabel;
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.DecodedValueLabel;
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.ParsedDomainName;
+import io.github.akmal2409.dnsforwarder.server.codec.models.CompactQuestion;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsHeader;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
 import io.github.akmal2409.dnsforwarder.server.codec.models.LabelOffsetCollection;
 import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceRecord;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public class DnsMessageDecoder {
 
-  private final byte[] data;
+  private final ByteBuffer data;
   private final DnsDomainNameDecoder domainNameDecoder;
   private final ResourceRecordDecoder resourceRecordDecoder;
   private final LabelOffsetCollection labelOffsetCollection;
   private int offset;
 
-  private DnsMessageDecoder(byte[] data) {
+  // the message spans from index 0 to the limit
+  private DnsMessageDecoder(ByteBuffer data, LabelOffsetCollection labelOffsetCollection) {
     this.data = data;
-    this.labelOffsetCollection = new LabelOffsetCollection();
+    this.labelOffsetCollection = labelOffsetCollection;
     this.offset = 0;
     this.domainNameDecoder = new DnsDomainNameDecoder(data);
     this.resourceRecordDecoder = new DecompressingResourceRecordDecoder(data,
@@ -36,44 +40,148 @@ public class DnsMessageDecoder {
   }
 
   public static DnsMessageDecoder fromBytes(byte[] data) {
-    return new DnsMessageDecoder(data);
+    return new DnsMessageDecoder(ByteBuffer.wrap(data), new LabelOffsetCollection());
+  }
+
+  /**
+   * Decodes only the given range of the array, e.g. the received part of a datagram packet's
+   * buffer. Offsets and pointers within the message are relative to {@code offset}.
+   *
+   * @throws IndexOutOfBoundsException if the range doesn't lie within the array
+   */
+  public static DnsMessageDecoder fromBytes(byte[] data, int offset, int length) {
+    return new DnsMessageDecoder(ByteBuffer.wrap(data, offset, length).slice(),
+        new LabelOffsetCollection());
+  }
+
+  /**
+   * Decodes with a collection reused across messages, it is reset first. The collection must not
+   * be used by anyone else until the decoding is done.
+   */
+  public static DnsMessageDecoder fromBytes(byte[] data,
+      LabelOffsetCollection labelOffsetCollection) {
+    labelOffsetCollection.reset();
+    return new DnsMessageDecoder(ByteBuffer.wrap(data), labelOffsetCollection);
+  }
+
+  /**
+   * Decodes the message between the buffer's position and limit in place, so a datagram received
+   * into a direct buffer doesn't have to be copied to the heap first. The buffer's position and
+   * limit are left untouched, but its content must not change until decoding is done.
+   */
+  public static DnsMessageDecoder fromBuffer(ByteBuffer message) {
+    return new DnsMessageDecoder(message.slice(), new LabelOffsetCollection());
+  }
+
+  /**
+   * Same as {@link #fromBuffer(ByteBuffer)} with a reused collection, see
+   * {@link #fromBytes(byte[], LabelOffsetCollection)}.
+   */
+  public static DnsMessageDecoder fromBuffer(ByteBuffer message,
+      LabelOffsetCollection labelOffsetCollection) {
+    labelOffsetCollection.reset();
+    return new DnsMessageDecoder(message.slice(), labelOffsetCollection);
   }
 
   public DnsMessage decode() {
-    final var header = parseHeader();
-    final var questions = new DnsQuestion[header.questionCount()];
+    return decodeLazily().toDnsMessage();
+  }
+
+  /**
+   * Decodes the header right away and the rest of the message only when accessed, see
+   * {@link LazyDnsMessage}.
+   */
+  public LazyDnsMessage decodeLazily() {
+    return new LazyDnsMessage(this, parseHeader());
+  }
+
+  /**
+   * Fast path for when only the question matters, e.g. for a cache lookup. Skips the label
+   * bookkeeping needed for decompression, since a question is never compressed, and doesn't look
+   * at any of the records. The name is copied in its wire format, no strings are created.
+   *
+   * @return the question of a message carrying exactly one, otherwise null
+   */
+  public CompactQuestion decodeSingleQuestion() {
+    return decodeSingleQuestion(data);
+  }
+
+  /**
+   * Same as {@link #decodeSingleQuestion()} for a message held in a buffer, e.g. a pooled one
+   * straight from the socket. The message spans from index 0 to the limit, the position is ignored
+   * and left untouched.
+   */
+  public static CompactQuestion decodeSingleQuestion(ByteBuffer message) {
+    final int length = message.limit();
+
+    if (length < 12) {
+      throw new IllegalArgumentException("Header must be 12 bytes. Supplied " + length);
+    } else if (read2BytesAsInt(message, 4) != 1) {
+      return null;
+    }
 
-    if (header.questionCount() > 0) {
-      for (int i = 0; i < header.questionCount(); i++) {
-        questions[i] = parseQuestion();
+    final int nameEnd = questionNameEnd(message, 12);
+
+    if (nameEnd + 4 > length) {
+      throw new IllegalArgumentException(
+          "Malformed question. Expected at least 4 more bytes for QNAME and QTYPE");
+    }
+
+    return new CompactQuestion(questionName(message, 12, nameEnd),
+        DnsType.from(read2BytesUnsignedAsShort(message, nameEnd)),
+        DnsClass.from(read2BytesUnsignedAsShort(message, nameEnd + 2)));
+  }
+
+  // returns offset of the byte after the terminating null byte of an uncompressed name
+  private static int questionNameEnd(ByteBuffer message, int offset) {
+    final int start = offset;
+
+    while (offset < message.limit() && message.get(offset) != 0) {
+      if (DnsUtils.isLabelPointer(message.get(offset))) {
+        throw new IllegalArgumentException("Pointer passed in a question");
+      } else if ((message.get(offset) & 0xff) > DomainName.MAX_LABEL_LENGTH) {
+        throw new IllegalArgumentException(
+            "Label exceeds " + DomainName.MAX_LABEL_LENGTH + " bytes");
       }
+      offset += (message.get(offset) & 0xff) + 1;
     }
 
-    final var answers = parseKResourceRecords(header.answerCount());
-    final var nameServers = parseKResourceRecords(header.nameServerCount());
-    final var additional = parseKResourceRecords(header.additionalCount());
+    if (offset >= message.limit()) {
+      throw new IllegalArgumentException(
+          "Domain name cannot be parsed, failed to find terminated label sequence or a pointer");
+    } else if (offset + 1 - start > DomainName.MAX_LENGTH) {
+      throw new IllegalArgumentException("Domain name exceeds " + DomainName.MAX_LENGTH + " bytes");
+    }
 
-    return new DnsMessage(
-        header,
-        questions,
-        answers, nameServers, additional
-    );
+    return offset + 1;
+  }
+
+  private static DomainName questionName(ByteBuffer message, int offset, int nameEnd) {
+    final var wire = new byte[nameEnd - offset];
+
+    for (int i = 0; i < wire.length; i++) {
+      wire[i] = DnsUtils.toLowerCase(message.get(offset + i));
+    }
+
+    return DomainName.ofCanonicalWire(wire);
   }
 
-  private DnsHeader parseHeader() {
-    if (data.length < 12) {
-      throw new IllegalArgumentException("Header must be 12 bytes. Supplied " + data.length);
+  DnsHeader parseHeader() {
+    if (data.limit() < 12) {
+      throw new IllegalArgumentException("Header must be 12 bytes. Supplied " + data.limit());
     }
 
     final short id = read2BytesUnsignedAsShort(data, 0);
-    final boolean query = !isBitSet(data[2], 7);
-    final byte opcode = (byte) ((data[2] >> 3) & 0xf);
-    final boolean authoritativeAns = isBitSet(data[2], 2);
-    final boolean truncation = isBitSet(data[2], 1);
-    final boolean recursionDesired = isBitSet(data[2], 0);
-
-    final boolean recursionAvailable = isBitSet(data[3], 7);
-    final byte responseCode = (byte) (data[3] & 0xf);
+    final byte flags = data.get(2);
+    final boolean query = !isBitSet(flags, 7);
+    final byte opcode = (byte) ((flags >> 3) & 0xf);
+    final boolean authoritativeAns = isBitSet(flags, 2);
+    final boolean truncation = isBitSet(flags, 1);
+    final boolean recursionDesired = isBitSet(flags, 0);
+
+    final byte responseFlags = data.get(3);
+    final boolean recursionAvailable = isBitSet(responseFlags, 7);
+    final byte responseCode = (byte) (responseFlags & 0xf);
     final int questionCount = read2BytesAsInt(data, 4);
     final int answerCount = read2BytesAsInt(data, 6);
     final int nsCount = read2BytesAsInt(data, 8);
@@ -87,32 +195,24 @@ public class DnsMessageDecoder {
     );
   }
 
-  private DnsQuestion parseQuestion() {
+  DnsQuestion parseQuestion() {
     final ParsedDomainName decodedDomainName = domainNameDecoder.decodeStartingAt(offset);
-    final List<DecodedValueLabel> valueLabels = new ArrayList<>();
-    final List<String> labelStrings = new ArrayList<>();
 
     for (DecodedLabel label : decodedDomainName.labels()) {
-      switch (label) {
-        case DecodedPointerLabel ignored ->
-            throw new IllegalArgumentException("Pointer passed in a question");
-        case DecodedValueLabel valueLabel -> {
-          valueLabels.add(valueLabel);
-          labelStrings.add(valueLabel.value());
-        }
+      if (label instanceof DecodedPointerLabel) {
+        throw new IllegalArgumentException("Pointer passed in a question");
       }
     }
 
-    labelOffsetCollection.put(decodedDomainName.startOffset(),
-        valueLabels);
+    final List<DecodedValueLabel> valueLabels = labelOffsetCollection.put(decodedDomainName);
 
     offset = decodedDomainName.endOffset();
 
-    if (offset + 4 > data.length) {
+    if (offset + 4 > data.limit()) {
       throw new IllegalArgumentException(
           "Malformed question. Expected at least 4 more bytes for QNAME and QTYPE. Received excess of "
               + (
-              offset + 4 - data.length));
+              offset + 4 - data.limit()));
     }
 
     final short typeCode = read2BytesUnsignedAsShort(data, offset);
@@ -120,10 +220,11 @@ public class DnsMessageDecoder {
     offset += 4;
 
     return new DnsQuestion(
-        String.join(".", labelStrings), DnsType.from(typeCode), DnsClass.from(classCode));
+        DnsDomainNameDecoder.joinLabels(valueLabels), DnsType.from(typeCode),
+        DnsClass.from(classCode));
   }
 
-  private ResourceRecord[] parseKResourceRecords(int numRecords) {
+  ResourceRecord[] parseKResourceRecords(int numRecords) {
     final var records = new ResourceRecord[numRecords];
 
     for (int i = 0; i < numRecords; i++) {
@@ -0,0 +1,89 @@
+package io.github.akmal2409.dnsforwarder.server.codec.decoders;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsHeader;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceRecord;
+
+/**
+ * View over an encoded message that decodes a section only once it is accessed. Sections are
+ * still decoded in message order, since a compressed name may only point backwards, therefore
+ * accessing the additional records decodes the answers and name servers too. Not thread-safe and
+ * not usable anymore once decoding of a section failed.
+ */
+public final class LazyDnsMessage {
+
+  private final DnsMessageDecoder decoder;
+  private final DnsHeader header;
+  private DnsQuestion[] questions;
+  private ResourceRecord[] answers;
+  private ResourceRecord[] nameServers;
+  private ResourceRecord[] additional;
+
+  LazyDnsMessage(DnsMessageDecoder decoder, DnsHeader header) {
+    this.decoder = decoder;
+    this.header = header;
+  }
+
+  public DnsHeader header() {
+    return header;
+  }
+
+  public DnsQuestion[] questions() {
+    if (questions == null) {
+      final var parsed = new DnsQuestion[header.questionCount()];
+
+      for (int i = 0; i < parsed.length; i++) {
+        parsed[i] = decoder.parseQuestion();
+      }
+      questions = parsed;
+    }
+
+    return questions;
+  }
+
+  public ResourceRecord[] answers() {
+    if (answers == null) {
+      questions();
+      answers = decoder.parseKResourceRecords(header.answerCount());
+    }
+
+    return answers;
+  }
+
+  public ResourceRecord[] nameServers() {
+    if (nameServers == null) {
+      answers();
+      nameServers = decoder.parseKResourceRecords(header.nameServerCount());
+    }
+
+    return nameServers;
+  }
+
+  public ResourceRecord[] additional() {
+    if (additional == null) {
+      nameServers();
+      additional = decoder.parseKResourceRecords(header.additionalCount());
+    }
+
+    return additional;
+  }
+
+  /**
+   * Decodes whatever hasn't been decoded yet.
+   */
+  public DnsMessage toDnsMessage() {
+    return new DnsMessage(header, questions(), answers(), nameServers(), additional());
+  }
+
+  @Override
+  public String toString() {
+    return "LazyDnsMessage{" +
+               "header=" + header +
+               ", questionsDecoded=" + (questions != null) +
+               ", answersDecoded=" + (answers != null) +
+               ", nameServersDecoded=" + (nameServers != null) +
+               ", additionalDecoded=" + (additional != null) +
+               '}';
+  }
+}
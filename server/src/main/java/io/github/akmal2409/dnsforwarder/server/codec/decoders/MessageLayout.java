@@ -0,0 +1,155 @@
+package io.github.akmal2409.dnsforwarder.server.codec.decoders;
+
+import static io.github.akmal2409.dnsforwarder.server.codec.decoders.CodecConstants.MIN_RESOURCE_RECORD_LENGTH;
+import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read2BytesAsInt;
+import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read4BytesUnsignedAsLong;
+
+import io.github.akmal2409.dnsforwarder.server.codec.DnsUtils;
+
+/**
+ * Offsets of the resource records of a message, found by skipping over the names and rdata
+ * without decoding any of them. Works for every record type, including the ones without a
+ * {@link io.github.akmal2409.dnsforwarder.server.codec.models.records.RDataDecoder}, which makes it
+ * suitable for patching fields of a message in place.
+ */
+public final class MessageLayout {
+
+  private static final int HEADER_LENGTH = 12;
+  // root name followed by the fixed part
+  private static final int MIN_RECORD_LENGTH = 1 + MIN_RESOURCE_RECORD_LENGTH;
+
+  private final int questionsEnd;
+  private final int answerCount;
+  private final int nameServerCount;
+  private final int[] recordOffsets; // first byte of the record's fixed part (after the name)
+  private final int messageEnd;
+
+  private MessageLayout(int questionsEnd, int answerCount, int nameServerCount,
+      int[] recordOffsets, int messageEnd) {
+    this.questionsEnd = questionsEnd;
+    this.answerCount = answerCount;
+    this.nameServerCount = nameServerCount;
+    this.recordOffsets = recordOffsets;
+    this.messageEnd = messageEnd;
+  }
+
+  /**
+   * @throws IllegalArgumentException if the message is malformed or shorter than declared
+   */
+  public static MessageLayout scan(byte[] data) {
+    if (data.length < HEADER_LENGTH) {
+      throw new IllegalArgumentException("Header must be 12 bytes. Supplied " + data.length);
+    }
+
+    final int questionCount = read2BytesAsInt(data, 4);
+    final int answerCount = read2BytesAsInt(data, 6);
+    final int nameServerCount = read2BytesAsInt(data, 8);
+    final int additionalCount = read2BytesAsInt(data, 10);
+
+    int offset = HEADER_LENGTH;
+
+    for (int i = 0; i < questionCount; i++) {
+      offset = skipName(data, offset) + 4;
+    }
+
+    if (offset > data.length) {
+      throw new IllegalArgumentException("Malformed question, message ended prematurely");
+    }
+
+    final int questionsEnd = offset;
+    final int recordCount = answerCount + nameServerCount + additionalCount;
+
+    // checked before allocating the offsets, the counts come straight from the sender
+    if (recordCount > (data.length - questionsEnd) / MIN_RECORD_LENGTH) {
+      throw new IllegalArgumentException(
+          "Message declares " + recordCount + " records, more than its length can hold");
+    }
+
+    final var recordOffsets = new int[recordCount];
+
+    for (int i = 0; i < recordOffsets.length; i++) {
+      offset = skipName(data, offset);
+
+      if (data.length - offset < MIN_RESOURCE_RECORD_LENGTH) {
+        throw new IllegalArgumentException(
+            "Unable to parse resource record. Smaller than " + MIN_RESOURCE_RECORD_LENGTH
+                + " bytes");
+      }
+
+      recordOffsets[i] = offset;
+      offset += MIN_RESOURCE_RECORD_LENGTH + read2BytesAsInt(data, offset + 8);
+
+      if (offset > data.length) {
+        throw new IllegalArgumentException("Malformed rdata, message ended prematurely");
+      }
+    }
+
+    return new MessageLayout(questionsEnd, answerCount, nameServerCount, recordOffsets, offset);
+  }
+
+  // returns the offset right after the (possibly compressed) name
+  private static int skipName(byte[] data, int offset) {
+    while (offset < data.length) {
+      final int length = data[offset] & 0xff;
+
+      if (length == 0) {
+        return offset + 1;
+      } else if (DnsUtils.isLabelPointer(data[offset])) {
+        return offset + 2;
+      } else if ((length & DnsUtils.POINTER_MASK) != 0) {
+        throw new IllegalArgumentException("Unsupported label type " + length);
+      }
+
+      offset += length + 1;
+    }
+
+    throw new IllegalArgumentException(
+        "Domain name cannot be parsed, failed to find terminated label sequence or a pointer");
+  }
+
+  /**
+   * @return offset of the first byte after the question section
+   */
+  public int questionsEnd() {
+    return questionsEnd;
+  }
+
+  /**
+   * @return offset of the first byte after the last record
+   */
+  public int messageEnd() {
+    return messageEnd;
+  }
+
+  public int recordCount() {
+    return recordOffsets.length;
+  }
+
+  public int answerCount() {
+    return answerCount;
+  }
+
+  public int nameServerCount() {
+    return nameServerCount;
+  }
+
+  public short recordType(byte[] data, int record) {
+    return (short) read2BytesAsInt(data, recordOffsets[record]);
+  }
+
+  public int ttlOffset(int record) {
+    return recordOffsets[record] + 4;
+  }
+
+  public long ttl(byte[] data, int record) {
+    return read4BytesUnsignedAsLong(data, ttlOffset(record));
+  }
+
+  public int rDataOffset(int record) {
+    return recordOffsets[record] + MIN_RESOURCE_RECORD_LENGTH;
+  }
+
+  public int rDataLength(byte[] data, int record) {
+    return read2BytesAsInt(data, recordOffsets[record] + 8);
+  }
+}
@@ -0,0 +1,100 @@
+package io.github.akmal2409.dnsforwarder.server.codec.decoders;
+
+import static io.github.akmal2409.dnsforwarder.server.codec.decoders.CodecConstants.MIN_RESOURCE_RECORD_LENGTH;
+import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read2BytesAsInt;
+
+import io.github.akmal2409.dnsforwarder.server.codec.DnsUtils;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
+import java.nio.ByteBuffer;
+
+/**
+ * Structural check of a received query that runs before anything is decoded. It walks the
+ * sections the same way {@link MessageLayout} does, but reads only the length octets and counts
+ * and allocates nothing, so a flood of junk datagrams is dropped for the price of a scan over
+ * their bytes. A query that passes can still fail to decode, e.g. because of an unknown type.
+ */
+public final class PacketValidator {
+
+  private static final int HEADER_LENGTH = 12;
+  private static final int QUERY_RESPONSE_MASK = 1 << 7;
+
+  private PacketValidator() {
+    throw new IllegalStateException("Cannot instantiate a utility class");
+  }
+
+  public enum Verdict {
+    VALID,
+    TOO_SHORT,
+    TOO_LONG,
+    NOT_A_QUERY,
+    MALFORMED
+  }
+
+  /**
+   * @param message   query between index 0 and the limit
+   * @param maxLength longest acceptable message in bytes
+   */
+  public static Verdict validateQuery(ByteBuffer message, int maxLength) {
+    final int length = message.limit();
+
+    if (length < HEADER_LENGTH) {
+      return Verdict.TOO_SHORT;
+    } else if (length > maxLength) {
+      return Verdict.TOO_LONG;
+    } else if ((message.get(2) & QUERY_RESPONSE_MASK) != 0) {
+      return Verdict.NOT_A_QUERY;
+    }
+
+    final int questionCount = read2BytesAsInt(message, 4);
+    final int recordCount = read2BytesAsInt(message, 6) + read2BytesAsInt(message, 8)
+                                + read2BytesAsInt(message, 10);
+    int offset = HEADER_LENGTH;
+
+    for (int i = 0; i < questionCount && offset != -1; i++) {
+      offset = skipName(message, offset);
+      offset = offset == -1 || offset + 4 > length ? -1 : offset + 4;
+    }
+
+    for (int i = 0; i < recordCount && offset != -1; i++) {
+      offset = skipName(message, offset);
+
+      if (offset == -1 || length - offset < MIN_RESOURCE_RECORD_LENGTH) {
+        return Verdict.MALFORMED;
+      }
+
+      offset += MIN_RESOURCE_RECORD_LENGTH + read2BytesAsInt(message, offset + 8);
+      offset = offset > length ? -1 : offset;
+    }
+
+    // bytes past the last record are ignored by the decoder, the same as any resolver does
+    return offset == -1 ? Verdict.MALFORMED : Verdict.VALID;
+  }
+
+  // returns the offset right after the name or -1 if it is malformed. A pointer must lead
+  // backwards into the message, where it is followed by the decoder
+  private static int skipName(ByteBuffer message, int offset) {
+    final int start = offset;
+
+    while (offset < message.limit() && offset - start < DomainName.MAX_LENGTH) {
+      final byte lengthOctet = message.get(offset);
+      final int labelLength = lengthOctet & 0xff;
+
+      if (labelLength == 0) {
+        return offset + 1;
+      } else if (DnsUtils.isLabelPointer(lengthOctet)) {
+        if (offset + 1 >= message.limit()) {
+          return -1;
+        }
+
+        final int pointer = read2BytesAsInt(message, offset) & ~(DnsUtils.POINTER_MASK << 8);
+        return pointer >= HEADER_LENGTH && pointer < start ? offset + 2 : -1;
+      } else if ((labelLength & DnsUtils.POINTER_MASK) != 0) {
+        return -1;
+      }
+
+      offset += labelLength + 1;
+    }
+
+    return -1;
+  }
+}
@@ -0,0 +1,257 @@
+package io.github.akmal2409.dnsforwarder.server.codec.encoders;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsHeader;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ARecord;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.Cname;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.HInfo;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.NS;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.Opt;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.Opt.Option;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceRecord;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.SOA;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes messages straight into a caller supplied buffer, compressing the domain names as
+ * described in <a href="https://datatracker.ietf.org/doc/html/rfc1035#section-4.1.4">RFC 1035</a>.
+ * Every suffix of a written name is remembered in a small table together with its offset, so that
+ * a later name ending with the same labels is written as its distinct prefix followed by a pointer.
+ * <p>
+ * Records that don't fit before the buffer's limit are dropped together with everything after
+ * them, the counts in the header reflect what has been written and the TC bit is set when an
+ * answer or an authority record had to be dropped
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc2181#section-9">RFC 2181</a>).
+ * <p>
+ * Not thread-safe, an instance can be reused for consecutive messages.
+ */
+public final class DnsMessageEncoder {
+
+  private static final int MAX_POINTER = (1 << 14) - 1;
+  private static final int MAX_SUFFIXES = 128;
+  private static final int TRUNCATION_MASK = 1 << 1;
+
+  private static final CharacterStringEncoder charStringEncoder = new CharacterStringEncoder();
+
+  // suffix table, entry i is the part of names[i] from byte suffixStarts[i] written at offsets[i]
+  private final DomainName[] names = new DomainName[MAX_SUFFIXES];
+  private final int[] suffixStarts = new int[MAX_SUFFIXES];
+  private final int[] suffixHashes = new int[MAX_SUFFIXES];
+  private final int[] offsets = new int[MAX_SUFFIXES];
+  private int suffixCount;
+
+  private ByteBuffer out;
+  private int messageStart;
+
+  /**
+   * Writes the message at the buffer's position, which is advanced past it. The section counts are
+   * taken from the arrays, the ones in the header are ignored.
+   *
+   * @return number of bytes written
+   * @throws IllegalArgumentException if not even the header and the questions fit
+   */
+  public int encode(DnsMessage message, ByteBuffer out) {
+    this.out = out;
+    this.messageStart = out.position();
+    this.suffixCount = 0;
+
+    try {
+      writeHeader(message.header(), message.questions().length);
+
+      for (DnsQuestion question : message.questions()) {
+        writeName(question.name());
+        out.putShort(question.type().numericValue);
+        out.putShort(question.queryClass().numericValue);
+      }
+    } catch (BufferOverflowException e) {
+      out.position(messageStart);
+      throw new IllegalArgumentException("Buffer cannot fit the header and the questions", e);
+    }
+
+    final int answers = writeRecords(message.answers());
+    final int nameServers = answers == message.answers().length
+                                ? writeRecords(message.nameServers()) : 0;
+    final int additional = nameServers == message.nameServers().length
+                               ? writeRecords(message.additional()) : 0;
+
+    out.putShort(messageStart + 6, (short) answers);
+    out.putShort(messageStart + 8, (short) nameServers);
+    out.putShort(messageStart + 10, (short) additional);
+
+    if (answers < message.answers().length || nameServers < message.nameServers().length) {
+      out.put(messageStart + 2, (byte) (out.get(messageStart + 2) | TRUNCATION_MASK));
+    }
+
+    this.out = null;
+    return out.position() - messageStart;
+  }
+
+  private void writeHeader(DnsHeader header, int questionCount) {
+    byte flags = (byte) ((header.opcode() & 0xf) << 3);
+
+    if (!header.query()) {
+      flags |= (byte) (1 << 7);
+    }
+    if (header.authoritativeAnswer()) {
+      flags |= (byte) (1 << 2);
+    }
+    if (header.truncation()) {
+      flags |= TRUNCATION_MASK;
+    }
+    if (header.recursionDesired()) {
+      flags |= 1;
+    }
+
+    byte responseCode = (byte) (header.responseCode() & 0xf);
+
+    if (header.recursionAvailable()) {
+      responseCode |= (byte) (1 << 7);
+    }
+    if (header.reserved()) {
+      responseCode |= (byte) (1 << 6);
+    }
+
+    out.putShort(header.id());
+    out.put(flags);
+    out.put(responseCode);
+    out.putShort((short) questionCount);
+    out.putShort((short) 0); // counts of the records are patched once they are written
+    out.putShort((short) 0);
+    out.putShort((short) 0);
+  }
+
+  // returns how many records fit
+  private int writeRecords(ResourceRecord[] records) {
+    for (int i = 0; i < records.length; i++) {
+      final int recordStart = out.position();
+      final int suffixesBefore = suffixCount;
+
+      try {
+        writeRecord(records[i]);
+      } catch (BufferOverflowException e) {
+        out.position(recordStart);
+        suffixCount = suffixesBefore; // they would point to the discarded bytes
+        return i;
+      }
+    }
+
+    return records.length;
+  }
+
+  private void writeRecord(ResourceRecord record) {
+    writeName(record.domainName);
+    out.putShort(record.type().numericValue);
+    out.putShort(record.numericDnsClass());
+    out.putInt((int) record.ttl);
+
+    final int rDataLengthOffset = out.position();
+    out.putShort((short) 0);
+
+    switch (record) {
+      case ARecord aRecord -> out.put(aRecord.address().getAddress());
+      case Cname cname -> writeRDataName(cname, cname.domain());
+      case NS ns -> writeRDataName(ns, ns.nameServerDomain());
+      case SOA soa -> {
+        writeRDataName(soa, soa.primaryNameServer());
+        writeRDataName(soa, soa.responsibleMailbox());
+        out.putInt((int) soa.serial());
+        out.putInt((int) soa.refresh());
+        out.putInt((int) soa.retry());
+        out.putInt((int) soa.expire());
+        out.putInt((int) soa.minimum());
+      }
+      case HInfo hInfo -> {
+        out.put(charStringEncoder.encode(hInfo.cpu()));
+        out.put(charStringEncoder.encode(hInfo.os()));
+      }
+      case Opt opt -> {
+        for (Option option : opt.options()) {
+          out.putShort(option.code());
+          out.putShort((short) option.data().length);
+          out.put(option.data());
+        }
+      }
+    }
+
+    out.putShort(rDataLengthOffset, (short) (out.position() - rDataLengthOffset - 2));
+  }
+
+  private void writeRDataName(ResourceRecord record, String name) {
+    writeName(name, record.compressable());
+  }
+
+  private void writeName(String dotted) {
+    writeName(dotted, true);
+  }
+
+  // the letters are written as passed in, the lower-cased form is only used to find the suffixes.
+  // An uncompressed name is still remembered, later names may point into it
+  private void writeName(String dotted, boolean compress) {
+    final DomainName name = DomainName.of(dotted);
+    int start = 0;
+
+    while (start < name.wireLength() - 1) {
+      final int pointer = compress ? findSuffix(name, start) : -1;
+
+      if (pointer != -1) {
+        out.putShort((short) (0xc000 | pointer));
+        return;
+      }
+
+      final int offset = out.position() - messageStart;
+
+      if (offset <= MAX_POINTER && suffixCount < MAX_SUFFIXES) {
+        names[suffixCount] = name;
+        suffixStarts[suffixCount] = start;
+        suffixHashes[suffixCount] = suffixHash(name, start);
+        offsets[suffixCount] = offset;
+        suffixCount++;
+      }
+
+      final int labelLength = name.byteAt(start);
+      out.put((byte) labelLength);
+      for (int i = start + 1; i <= start + labelLength; i++) {
+        out.put((byte) dotted.charAt(i - 1));
+      }
+      start += labelLength + 1;
+    }
+
+    out.put((byte) 0);
+  }
+
+  // returns the offset at which the suffix of the name has been written or -1
+  private int findSuffix(DomainName name, int start) {
+    final int length = name.wireLength() - start;
+    final int hash = suffixHash(name, start);
+
+    for (int i = 0; i < suffixCount; i++) {
+      if (suffixHashes[i] == hash && names[i].wireLength() - suffixStarts[i] == length
+              && sameSuffix(names[i], suffixStarts[i], name, start, length)) {
+        return offsets[i];
+      }
+    }
+
+    return -1;
+  }
+
+  private static boolean sameSuffix(DomainName a, int aStart, DomainName b, int bStart,
+      int length) {
+    for (int i = 0; i < length; i++) {
+      if (a.byteAt(aStart + i) != b.byteAt(bStart + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int suffixHash(DomainName name, int start) {
+    int hash = 1;
+    for (int i = start; i < name.wireLength(); i++) {
+      hash = 31 * hash + name.byteAt(i);
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,13 @@
+package io.github.akmal2409.dnsforwarder.server.codec.models;
+
+/**
+ * Question with the name kept in its canonical wire format, cheap to hash and compare, see
+ * {@link DomainName}.
+ */
+public record CompactQuestion(
+    DomainName name,
+    DnsType type,
+    DnsClass queryClass
+) {
+
+}
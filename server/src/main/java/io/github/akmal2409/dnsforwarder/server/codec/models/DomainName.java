@@ -0,0 +1,182 @@
+package io.github.akmal2409.dnsforwarder.server.codec.models;
+
+import io.github.akmal2409.dnsforwarder.server.codec.DnsUtils;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Domain name kept in its uncompressed wire format (length prefixed labels terminated by the null
+ * byte) with every letter lower-cased, so that names that differ only in case are equal as
+ * required by <a href="https://datatracker.ietf.org/doc/html/rfc4343">RFC 4343</a>. The hash is
+ * computed once and the dotted representation only when asked for, which makes the class cheap to
+ * use as a map key.
+ */
+public final class DomainName {
+
+  public static final int MAX_LENGTH = 255;
+  public static final int MAX_LABEL_LENGTH = 63;
+
+  public static final DomainName ROOT = new DomainName(new byte[]{0});
+
+  private final byte[] wire;
+  private final int hash;
+  private String dotted; // racy but idempotent, like String#hash
+
+  private DomainName(byte[] wire) {
+    this.wire = wire;
+    this.hash = Arrays.hashCode(wire);
+  }
+
+  /**
+   * @param name dotted name, with or without the trailing dot, empty string for the root
+   * @throws IllegalArgumentException if a label or the whole name is too long, a label is empty
+   *                                  or the name is not ASCII
+   */
+  public static DomainName of(String name) {
+    final int length = name.endsWith(".") ? name.length() - 1 : name.length();
+
+    if (length <= 0) {
+      return ROOT;
+    } else if (length + 2 > MAX_LENGTH) {
+      throw new IllegalArgumentException("Domain name exceeds " + MAX_LENGTH + " bytes: " + name);
+    }
+
+    final var wire = new byte[length + 2];
+    int lengthOffset = 0;
+
+    for (int i = 0; i <= length; i++) {
+      if (i == length || name.charAt(i) == '.') {
+        final int labelLength = i - lengthOffset;
+
+        if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH) {
+          throw new IllegalArgumentException("Invalid label length " + labelLength + " in " + name);
+        }
+
+        wire[lengthOffset] = (byte) labelLength;
+        lengthOffset = i + 1;
+      } else if (name.charAt(i) > 0x7f) {
+        throw new IllegalArgumentException("Non-ASCII character in " + name);
+      } else {
+        wire[i + 1] = DnsUtils.toLowerCase((byte) name.charAt(i));
+      }
+    }
+
+    return new DomainName(wire);
+  }
+
+  /**
+   * Takes over the array, the caller must make sure it holds a valid uncompressed name that is
+   * already lower-cased and not modified afterwards.
+   */
+  public static DomainName ofCanonicalWire(byte[] wire) {
+    return wire.length == 1 ? ROOT : new DomainName(wire);
+  }
+
+  /**
+   * Same as {@link #ofCanonicalWire(byte[])} for a name that can't be trusted, e.g. one read from a
+   * file, which is checked first.
+   *
+   * @throws IllegalArgumentException if a label or the whole name is too long, the name doesn't
+   *                                  end right after its null byte or isn't lower-cased
+   */
+  public static DomainName ofCheckedWire(byte[] wire) {
+    if (wire.length == 0 || wire.length > MAX_LENGTH) {
+      throw new IllegalArgumentException("Invalid domain name length " + wire.length);
+    }
+
+    int offset = 0;
+
+    while (wire[offset] != 0) {
+      final int labelLength = wire[offset] & 0xff;
+
+      if (labelLength > MAX_LABEL_LENGTH || offset + labelLength + 1 >= wire.length) {
+        throw new IllegalArgumentException("Invalid label length " + labelLength);
+      }
+
+      for (int i = offset + 1; i <= offset + labelLength; i++) {
+        if (DnsUtils.toLowerCase(wire[i]) != wire[i]) {
+          throw new IllegalArgumentException("Domain name is not lower-cased");
+        }
+      }
+
+      offset += labelLength + 1;
+    }
+
+    if (offset != wire.length - 1) {
+      throw new IllegalArgumentException("Domain name does not end at its null byte");
+    }
+
+    return ofCanonicalWire(wire);
+  }
+
+  public boolean isRoot() {
+    return wire.length == 1;
+  }
+
+  /**
+   * @return number of bytes the name takes uncompressed, including the terminating null byte
+   */
+  public int wireLength() {
+    return wire.length;
+  }
+
+  public byte byteAt(int index) {
+    return wire[index];
+  }
+
+  public void writeTo(ByteBuffer out) {
+    out.put(wire);
+  }
+
+  public void writeTo(byte[] out, int offset) {
+    System.arraycopy(wire, 0, out, offset, wire.length);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof DomainName other)) {
+      return false;
+    }
+    return hash == other.hash && Arrays.equals(wire, other.wire);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  /**
+   * @return dotted name without the trailing dot, empty string for the root
+   */
+  @Override
+  public String toString() {
+    String result = dotted;
+
+    if (result == null) {
+      result = isRoot() ? "" : toDotted();
+      dotted = result;
+    }
+
+    return result;
+  }
+
+  private String toDotted() {
+    final var chars = new byte[wire.length - 2];
+
+    for (int i = 1; i < wire.length - 1; i++) {
+      final int length = wire[i - 1] & 0xff;
+      System.arraycopy(wire, i, chars, i - 1, length);
+      i += length;
+
+      if (i < chars.length) {
+        chars[i - 1] = '.';
+      }
+    }
+
+    return new String(chars, StandardCharsets.US_ASCII);
+  }
+}
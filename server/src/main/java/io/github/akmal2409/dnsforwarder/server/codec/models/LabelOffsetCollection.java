@@ -5,11 +5,9 @@ import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecod
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.DecodedValueLabel;
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.ParsedDomainName;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
 
 /**
  * The class is useful when decompressing the labels. When reading the DNS message and parsing the
@@ -17,17 +15,49 @@ import java.util.Optional;
  * offset in a collection so that we can reference it later on Case 2) It's a pointer to a label we
  * previously encountered, then we can simply lookup given the offset the label(s) associated with
  * that offset.
+ * <p>
+ * Every label is stored in flat arrays indexed by its offset together with the offset of the label
+ * following it, so a pointer is resolved by walking that chain. Offsets are bounded by the message
+ * size, hence no hashing or boxing is needed. The arrays grow with the messages and are kept by
+ * {@link #reset()}. The labels of a name are returned in a list owned by the collection, which is
+ * refilled by the next call, so an instance reused across messages allocates nothing.
  */
 public class LabelOffsetCollection {
 
-  // primary label pointers point to the start of the label sequence
-  private final Map<Integer, List<DecodedValueLabel>> primaryLabelPointers;
-  // intermediary labels' offsets will be recorded here, so that we can decompress
-  // by just looking up the mapping to the original label
-  private final Map<Integer, SecondaryPointer> secondaryLabelPointers;
+  // only the first 2^14 bytes can be pointed at, but the labels following them are still needed
+  private static final int MAX_OFFSET = (1 << 16) - 1;
+  private static final int INITIAL_CAPACITY = 512;
+  private static final int END_OF_NAME = -1;
+  // a 255 byte name has at most 127 labels plus the root, anything longer is a cycle
+  private static final int MAX_LABELS = 128;
+
+  private DecodedValueLabel[] labels;
+  private int[] nextLabelOffsets;
+  // an entry is only valid when stamped with the current generation, which makes reset O(1)
+  private int[] generations;
+  private int generation;
+  // labels of the last name that was put or looked up, handed out through the read-only view
+  private final ArrayList<DecodedValueLabel> sequence = new ArrayList<>(MAX_LABELS);
+  private final List<DecodedValueLabel> sequenceView = Collections.unmodifiableList(sequence);
+
   public LabelOffsetCollection() {
-    this.primaryLabelPointers = new HashMap<>();
-    this.secondaryLabelPointers = new HashMap<>();
+    // allocated on the first label, decoding only the header or the question needs none
+    this.labels = new DecodedValueLabel[0];
+    this.nextLabelOffsets = new int[0];
+    this.generations = new int[0];
+    this.generation = 1;
+  }
+
+  /**
+   * Forgets all the labels so that the collection can be used for the next message.
+   */
+  public void reset() {
+    generation++;
+
+    if (generation == 0) { // wrapped around, stale stamps could become valid again
+      Arrays.fill(generations, 0);
+      generation = 1;
+    }
   }
 
   /**
@@ -35,76 +65,102 @@ public class LabelOffsetCollection {
    * decompressing the message.
    *
    * @param pointer offset pointing to the message elements before
+   * @return the labels, or an empty list if there are none at the pointer. The list is only valid
+   *     until the next call to this method or {@link #put(ParsedDomainName)}
    */
-  public Optional<List<DecodedValueLabel>> getByPointer(int pointer) {
-    final var secondaryPointer = secondaryLabelPointers.get(pointer);
+  public List<DecodedValueLabel> getByPointer(int pointer) {
+    sequence.clear();
 
-    if (secondaryPointer == null) {
-      return Optional.empty();
+    if (contains(pointer)) {
+      appendSequence(pointer);
     }
-    final var allLabels = primaryLabelPointers.get(secondaryPointer.primaryPointer);
-    final var labels = allLabels
-                           .subList(secondaryPointer.labelIndex, allLabels.size());
 
-    return Optional.of(Collections.unmodifiableList(labels));
+    return sequenceView;
   }
 
   /**
    * Saves the offset to label mapping to the collection.
    *
-   * @param labels                   labels with their offsets, their order should match the order
-   *                                 in the message
    * @param labelSequenceStartOffset the offset at which the label sequence starts (including the
    *                                 length byte)
+   * @param labels                   labels with their offsets, their order should match the order
+   *                                 in the message
    */
   public void put(int labelSequenceStartOffset,
       List<DecodedValueLabel> labels) {
     for (int i = 0; i < labels.size(); i++) {
-      final var valueLabel = labels.get(i);
-      secondaryLabelPointers.put(valueLabel.offset(),
-          new SecondaryPointer(labelSequenceStartOffset, i));
+      final int next = i + 1 < labels.size() ? labels.get(i + 1).offset() : END_OF_NAME;
+      record(labels.get(i).offset(), labels.get(i), next);
     }
-
-    primaryLabelPointers.put(labelSequenceStartOffset, labels);
   }
 
+  /**
+   * Saves the labels of the name and resolves the pointer it may end with.
+   *
+   * @return the decompressed labels of the name, only valid until the next call to this method or
+   *     {@link #getByPointer(int)}
+   * @throws IllegalArgumentException if the pointer references unknown labels
+   */
   public List<DecodedValueLabel> put(ParsedDomainName domainName) {
-    final var valueLabels = new ArrayList<DecodedValueLabel>();
-
-    boolean containsPointer = false;
+    sequence.clear();
 
     for (DecodedLabel decodedLabel : domainName.labels()) {
-      if (containsPointer) {
-        break;
+      if (decodedLabel instanceof DecodedValueLabel valueLabel) {
+        sequence.add(valueLabel);
+        continue;
       }
 
-      switch (decodedLabel) {
-        case DecodedValueLabel valueLabel -> valueLabels.add(valueLabel);
-        case DecodedPointerLabel pointerLabel -> {
-          containsPointer = true;
-          final List<DecodedValueLabel> referencedValues = this.getByPointer(
-              pointerLabel.pointer()).orElseThrow(() -> new IllegalArgumentException(
-              String.format("Pointer %d is referencing unknown labels at offset %d",
-                  pointerLabel.pointer(), pointerLabel.offset())));
-          final SecondaryPointer secondaryPointer = this.secondaryLabelPointers.get(
-              pointerLabel.pointer());
+      final var pointerLabel = (DecodedPointerLabel) decodedLabel;
 
-          this.primaryLabelPointers.computeIfAbsent(pointerLabel.pointer(),
-              ignored -> referencedValues);
+      if (!contains(pointerLabel.pointer())) {
+        throw new IllegalArgumentException(
+            String.format("Pointer %d is referencing unknown labels at offset %d",
+                pointerLabel.pointer(), pointerLabel.offset()));
+      }
 
-          this.secondaryLabelPointers.put(pointerLabel.offset(), secondaryPointer);
+      appendSequence(pointerLabel.pointer());
 
-          valueLabels.addAll(referencedValues);
-        }
-      }
+      // a pointer could in turn be referenced, make it resolve to the same labels
+      record(pointerLabel.offset(), labels[pointerLabel.pointer()],
+          nextLabelOffsets[pointerLabel.pointer()]);
+      break; // a pointer always ends the sequence
     }
 
-    this.put(domainName.startOffset(), valueLabels);
+    this.put(domainName.startOffset(), sequence);
 
-    return valueLabels;
+    return sequenceView;
   }
 
-  public record SecondaryPointer(int primaryPointer, int labelIndex) {
+  private void appendSequence(int pointer) {
+    final int limit = sequence.size() + MAX_LABELS;
+    int offset = pointer;
+
+    while (offset != END_OF_NAME) {
+      if (sequence.size() == limit || !contains(offset)) {
+        throw new IllegalArgumentException(
+            String.format("Pointer %d is referencing a broken label sequence", pointer));
+      }
+
+      sequence.add(labels[offset]);
+      offset = nextLabelOffsets[offset];
+    }
+  }
+
+  private boolean contains(int offset) {
+    return offset >= 0 && offset < generations.length && generations[offset] == generation;
+  }
+
+  private void record(int offset, DecodedValueLabel label, int nextOffset) {
+    if (offset >= generations.length) {
+      final int capacity = Math.min(MAX_OFFSET + 1,
+          Math.max(offset + 1, Math.max(INITIAL_CAPACITY, generations.length * 2)));
+      labels = Arrays.copyOf(labels, capacity);
+      nextLabelOffsets = Arrays.copyOf(nextLabelOffsets, capacity);
+      generations = Arrays.copyOf(generations, capacity);
+    }
 
+    labels[offset] = label;
+    nextLabelOffsets[offset] = nextOffset;
+    generations[offset] = generation;
   }
 }
@@ -12,6 +12,11 @@ public final class NS extends ResourceRecord {
     this.nameServerDomain = nameServerDomain;
   }
 
+  @Override
+  public boolean compressable() {
+    return true;
+  }
+
   @Override
   public DnsType type() {
     return DnsType.NS;
@@ -2,6 +2,7 @@ package io.github.akmal2409.dnsforwarder.server.codec.models.records;
 
 import static io.github.akmal2409.dnsforwarder.server.codec.decoders.CodecConstants.MIN_OPT_OPTION_LENGTH;
 import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read2BytesUnsignedAsShort;
+import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read4BytesUnsignedAsLong;
 
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.CharacterStringDecoder;
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder;
@@ -15,16 +16,17 @@ import io.github.akmal2409.dnsforwarder.server.codec.models.records.Opt.Option;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 public interface RDataDecoder {
 
-  private static void checkHasEnoughBytes(byte[] data, int offset, int dataLength) {
-    if (data.length - offset < dataLength) {
+  private static void checkHasEnoughBytes(ByteBuffer data, int offset, int dataLength) {
+    if (data.limit() - offset < dataLength) {
       throw new IllegalArgumentException(
           "Cannot parse rdata expected at least " + dataLength + " bytes from offset " + offset
-              + " received " + (data.length - offset));
+              + " received " + (data.limit() - offset));
     }
   }
 
@@ -32,14 +34,13 @@ public interface RDataDecoder {
 
     return switch (dnsType) {
       case CNAME -> new DomainNameRdataDecoder(labelOffsetCollection,
-          (domainName, dnsClass, ttl, labels) -> new Cname(domainName, dnsClass, ttl,
-              String.join(".", labels)));
+          (domainName, dnsClass, ttl, target) -> new Cname(domainName, dnsClass, ttl, target));
       case A -> new ARecordRdataDecoder();
       case OPT -> new OptRDataDecoder();
       case HIINFO -> new HiInfoRdataDecoder();
       case NS -> new DomainNameRdataDecoder(labelOffsetCollection,
-          (domainName, dnsClass, ttl, labels) -> new NS(domainName, dnsClass, ttl,
-              String.join(".", labels)));
+          (domainName, dnsClass, ttl, target) -> new NS(domainName, dnsClass, ttl, target));
+      case SOA -> new SoaRdataDecoder(labelOffsetCollection);
       case null, default -> throw new IllegalArgumentException(
           String.format("Unsupported dns type %s, no rdata decoder", dnsType));
     };
@@ -57,13 +58,23 @@ public interface RDataDecoder {
    * @param startOffset start offset in the data byte array
    * @param data        raw bytes containing rData
    */
+  default ResourceRecord decode(String domainName, short dnsClass, DnsType dnsType, long ttl,
+      int rDataLength, int startOffset, byte[] data) {
+    return decode(domainName, dnsClass, dnsType, ttl, rDataLength, startOffset,
+        ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Same as {@link #decode(String, short, DnsType, long, int, int, byte[])} reading the message
+   * from the buffer, offsets are relative to its index 0 and it must not be read past the limit.
+   */
   ResourceRecord decode(String domainName, short dnsClass, DnsType dnsType, long ttl,
-      int rDataLength, int startOffset, byte[] data);
+      int rDataLength, int startOffset, ByteBuffer data);
 
   @FunctionalInterface
   interface SingleDomainNameRecordFactory {
 
-    ResourceRecord apply(String domainName, DnsClass dnsClass, long ttl, List<String> labels);
+    ResourceRecord apply(String domainName, DnsClass dnsClass, long ttl, String target);
   }
 
   record DomainNameRdataDecoder(LabelOffsetCollection labelOffsetCollection,
@@ -72,25 +83,62 @@ public interface RDataDecoder {
 
     @Override
     public ResourceRecord decode(String sourceDomainName, short dnsClass, DnsType type, long ttl,
-        int rDataLength, int startOffset, byte[] data) {
+        int rDataLength, int startOffset, ByteBuffer data) {
       checkHasEnoughBytes(data, startOffset, rDataLength);
 
       final var domainNameDecoder = new DnsDomainNameDecoder(data);
       final ParsedDomainName domainName = domainNameDecoder.decodeStartingAt(startOffset);
 
       final List<DecodedValueLabel> valueLabels = labelOffsetCollection.put(domainName);
-      final var labels = valueLabels.stream().map(DecodedValueLabel::value).toList();
 
-      return recordFactory.apply(sourceDomainName, DnsClass.from(dnsClass), ttl, labels);
+      return recordFactory.apply(sourceDomainName, DnsClass.from(dnsClass), ttl,
+          DnsDomainNameDecoder.joinLabels(valueLabels));
     }
   }
 
+  record SoaRdataDecoder(LabelOffsetCollection labelOffsetCollection) implements RDataDecoder {
+
+    // the two names are followed by the serial, refresh, retry, expire and minimum fields
+    private static final int NUMERIC_FIELDS_LENGTH = 20;
+
+    @Override
+    public ResourceRecord decode(String domainName, short dnsClass, DnsType type, long ttl,
+        int rDataLength, int startOffset, ByteBuffer data) {
+      checkHasEnoughBytes(data, startOffset, rDataLength);
+
+      final var domainNameDecoder = new DnsDomainNameDecoder(data);
+      final ParsedDomainName primaryNameServer = domainNameDecoder.decodeStartingAt(startOffset);
+      final ParsedDomainName responsibleMailbox = domainNameDecoder.decodeStartingAt(
+          primaryNameServer.endOffset());
+      int offset = responsibleMailbox.endOffset();
+
+      if (startOffset + rDataLength - offset != NUMERIC_FIELDS_LENGTH) {
+        throw new IllegalArgumentException(
+            "Expected " + NUMERIC_FIELDS_LENGTH + " bytes of SOA fields after the names, have "
+                + (startOffset + rDataLength - offset));
+      }
+
+      final String primaryNameServerName = DnsDomainNameDecoder.joinLabels(
+          labelOffsetCollection.put(primaryNameServer));
+      final String responsibleMailboxName = DnsDomainNameDecoder.joinLabels(
+          labelOffsetCollection.put(responsibleMailbox));
+
+      final long serial = read4BytesUnsignedAsLong(data, offset);
+      final long refresh = read4BytesUnsignedAsLong(data, offset + 4);
+      final long retry = read4BytesUnsignedAsLong(data, offset + 8);
+      final long expire = read4BytesUnsignedAsLong(data, offset + 12);
+      final long minimum = read4BytesUnsignedAsLong(data, offset + 16);
+
+      return new SOA(domainName, DnsClass.from(dnsClass), ttl, primaryNameServerName,
+          responsibleMailboxName, serial, refresh, retry, expire, minimum);
+    }
+  }
 
   record HiInfoRdataDecoder() implements RDataDecoder {
 
     @Override
     public ResourceRecord decode(String domainName, short dnsClass, DnsType type, long ttl,
-        int rDataLength, int startOffset, byte[] data) {
+        int rDataLength, int startOffset, ByteBuffer data) {
       checkHasEnoughBytes(data, startOffset, rDataLength);
       final var charStringDecoder = new CharacterStringDecoder(data);
       final ParsedObject<String> cpu = charStringDecoder.decodeAt(startOffset);
@@ -104,7 +152,7 @@ public interface RDataDecoder {
 
     @Override
     public ResourceRecord decode(String domainName, short dnsClass, DnsType type, long ttl,
-        int rDataLength, int startOffset, byte[] data) {
+        int rDataLength, int startOffset, ByteBuffer data) {
       checkHasEnoughBytes(data, startOffset, rDataLength);
 
       if (rDataLength != 4) {
@@ -113,7 +161,7 @@ public interface RDataDecoder {
 
       try {
         final var ipBytes = new byte[4];
-        System.arraycopy(data, startOffset, ipBytes, 0, ipBytes.length);
+        data.get(startOffset, ipBytes);
         return new ARecord(domainName, DnsClass.from(dnsClass), ttl,
             (Inet4Address) InetAddress.getByAddress(ipBytes));
       } catch (UnknownHostException | ClassCastException e) {
@@ -126,7 +174,7 @@ public interface RDataDecoder {
 
     @Override
     public ResourceRecord decode(String domainName, short dnsClass, DnsType type, long ttl,
-        int rDataLength, int startOffset, byte[] data) {
+        int rDataLength, int startOffset, ByteBuffer data) {
       checkHasEnoughBytes(data, startOffset, rDataLength);
       var options = new ArrayList<Option>();
 
@@ -140,10 +188,10 @@ public interface RDataDecoder {
       return new Opt(domainName, dnsClass, ttl, options);
     }
 
-    private ParsedObject<Option> parseOption(byte[] data, int offset) {
-      if (data.length - offset < MIN_OPT_OPTION_LENGTH) {
+    private ParsedObject<Option> parseOption(ByteBuffer data, int offset) {
+      if (data.limit() - offset < MIN_OPT_OPTION_LENGTH) {
         throw new IllegalArgumentException(
-            "Cannot parse option, expected 8 bytes. Received " + (data.length - offset));
+            "Cannot parse option, expected 8 bytes. Received " + (data.limit() - offset));
       }
 
       final short optionCode = read2BytesUnsignedAsShort(data, offset);
@@ -152,14 +200,14 @@ public interface RDataDecoder {
       final short optionLength = read2BytesUnsignedAsShort(data, offset);
       offset += 2;
 
-      if (data.length - offset < optionLength) {
+      if (data.limit() - offset < optionLength) {
         throw new IllegalArgumentException(
-            "Expected " + optionLength + " bytes for options but have " + (data.length - offset));
+            "Expected " + optionLength + " bytes for options but have " + (data.limit() - offset));
       }
 
       final var optionData = new byte[optionLength];
 
-      System.arraycopy(data, offset, optionData, 0, optionLength);
+      data.get(offset, optionData);
       offset += optionLength;
 
       return new ParsedObject<>(new Option(optionCode, optionLength, optionData), offset);
@@ -3,7 +3,7 @@ package io.github.akmal2409.dnsforwarder.server.codec.models.records;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
 
-public abstract sealed class ResourceRecord permits ARecord, Cname, HInfo, NS, Opt {
+public abstract sealed class ResourceRecord permits ARecord, Cname, HInfo, NS, Opt, SOA {
 
   public final String domainName;
   public final DnsClass dnsClass;
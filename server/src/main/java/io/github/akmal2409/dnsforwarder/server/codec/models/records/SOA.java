@@ -0,0 +1,72 @@
+package io.github.akmal2409.dnsforwarder.server.codec.models.records;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+
+/**
+ * Start of a zone of authority, see
+ * <a href="https://datatracker.ietf.org/doc/html/rfc1035#section-3.3.13">RFC 1035</a>. Its
+ * minimum field bounds how long negative responses of the zone are cached
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc2308#section-4">RFC 2308</a>).
+ */
+public final class SOA extends ResourceRecord {
+
+  private final String primaryNameServer;
+  private final String responsibleMailbox;
+  private final long serial;
+  private final long refresh;
+  private final long retry;
+  private final long expire;
+  private final long minimum;
+
+  public SOA(String domainName, DnsClass dnsClass, long ttl, String primaryNameServer,
+      String responsibleMailbox, long serial, long refresh, long retry, long expire,
+      long minimum) {
+    super(domainName, dnsClass, ttl);
+    this.primaryNameServer = primaryNameServer;
+    this.responsibleMailbox = responsibleMailbox;
+    this.serial = serial;
+    this.refresh = refresh;
+    this.retry = retry;
+    this.expire = expire;
+    this.minimum = minimum;
+  }
+
+  @Override
+  public boolean compressable() {
+    return true;
+  }
+
+  @Override
+  public DnsType type() {
+    return DnsType.SOA;
+  }
+
+  public String primaryNameServer() {
+    return primaryNameServer;
+  }
+
+  public String responsibleMailbox() {
+    return responsibleMailbox;
+  }
+
+  public long serial() {
+    return serial;
+  }
+
+  public long refresh() {
+    return refresh;
+  }
+
+  public long retry() {
+    return retry;
+  }
+
+  public long expire() {
+    return expire;
+  }
+
+  public long minimum() {
+    return minimum;
+  }
+}
@@ -1,25 +1,67 @@
 package io.github.akmal2409.dnsforwarder.server.common;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Network byte order reads of the multibyte fields. Each one is a single big-endian
+ * {@link VarHandle} access instead of assembling the value from bytes, which works the same for
+ * arrays and for heap or direct buffers regardless of the order the buffer has been set to.
+ */
 public class ByteUtils {
 
+  private static final VarHandle ARRAY_SHORT = MethodHandles.byteArrayViewVarHandle(
+      short[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle ARRAY_INT = MethodHandles.byteArrayViewVarHandle(
+      int[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle BUFFER_SHORT = MethodHandles.byteBufferViewVarHandle(
+      short[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle BUFFER_INT = MethodHandles.byteBufferViewVarHandle(
+      int[].class, ByteOrder.BIG_ENDIAN);
+
   private ByteUtils() {
   }
 
   public static int read2BytesAsInt(byte[] bytes, int start) {
-    return ((bytes[start] & 0xff) << 8) | (0xff & bytes[start + 1]);
+    return (short) ARRAY_SHORT.get(bytes, start) & 0xffff;
+  }
+
+  public static int read2BytesAsInt(ByteBuffer buffer, int index) {
+    return (short) BUFFER_SHORT.get(buffer, index) & 0xffff;
   }
 
   public static short read2BytesUnsignedAsShort(byte[] bytes, int start) {
-    return (short) (
-        ((bytes[start] & 0xff) << 8) | (0xff & bytes[start + 1])
-    );
+    return (short) ARRAY_SHORT.get(bytes, start);
+  }
+
+  public static short read2BytesUnsignedAsShort(ByteBuffer buffer, int index) {
+    return (short) BUFFER_SHORT.get(buffer, index);
   }
 
   public static long read4BytesUnsignedAsLong(byte[] bytes, int start) {
-    return ((long) (bytes[start] & 0xff) << 24)
-               | ((long) (bytes[start + 1] & 0xff) << 16)
-               | ((long) (bytes[start + 2] & 0xff) << 8)
-               | (long) (bytes[start + 3] & 0xff);
+    return Integer.toUnsignedLong((int) ARRAY_INT.get(bytes, start));
+  }
+
+  public static long read4BytesUnsignedAsLong(ByteBuffer buffer, int index) {
+    return Integer.toUnsignedLong((int) BUFFER_INT.get(buffer, index));
+  }
+
+  /**
+   * Reads the bytes at the absolute index as US-ASCII, straight from the backing array when the
+   * buffer has an accessible one.
+   */
+  public static String readAscii(ByteBuffer buffer, int index, int length) {
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + index, length,
+          StandardCharsets.US_ASCII);
+    }
+
+    final var bytes = new byte[length];
+    buffer.get(index, bytes);
+    return new String(bytes, StandardCharsets.US_ASCII);
   }
 
   public static int readInt(byte[] bytes, int start) {
@@ -0,0 +1,324 @@
+package io.github.akmal2409.dnsforwarder.server.forwarding;
+
+import static io.github.akmal2409.dnsforwarder.server.codec.decoders.CodecConstants.MAX_MESSAGE_LENGTH;
+
+import io.github.akmal2409.dnsforwarder.server.buffer.PooledBuffer;
+import io.github.akmal2409.dnsforwarder.server.cache.CacheKey;
+import io.github.akmal2409.dnsforwarder.server.cache.ResponseCache;
+import io.github.akmal2409.dnsforwarder.server.cache.ResponseCache.Lookup;
+import io.github.akmal2409.dnsforwarder.server.codec.DnsUtils;
+import io.github.akmal2409.dnsforwarder.server.codec.Edns;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsMessageDecoder;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.LazyDnsMessage;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.MessageLayout;
+import io.github.akmal2409.dnsforwarder.server.codec.encoders.DnsMessageEncoder;
+import io.github.akmal2409.dnsforwarder.server.codec.models.CompactQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsHeader;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceRecord;
+import io.github.akmal2409.dnsforwarder.server.upstream.UpstreamClient;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers queries from the response cache and relays the rest to the upstream resolver. The
+ * handler never waits for the upstream, the reply is sent from the upstream reader once it
+ * arrives. Concurrent misses for the same question share a single upstream query, see
+ * {@link QueryCoalescer}. When the cached response has expired, the client is answered with it
+ * anyway if the upstream fails or doesn't answer in time, while the upstream query goes on to
+ * refresh the cache.
+ * <p>
+ * Relaying the response, storing it in the cache and answering the clients of a coalesced query
+ * all run on the reader thread of the upstream socket, see {@link UpstreamClient}. None of it
+ * blocks, a UDP send or a write into a TCP client's queue, and it is cheaper than handing the
+ * response over to a worker. The stale answer of a query whose upstream is late is sent from a
+ * worker instead, the timeout fires on the single thread the JDK shares between all the
+ * {@link CompletableFuture} timeouts.
+ * <p>
+ * A client that sent an OPT record gets one from the forwarder, advertising the forwarder's own
+ * UDP payload size. An answer that doesn't fit into the payload size of a client asking over UDP
+ * is truncated, so that the client asks again over TCP.
+ */
+public class ForwardingQueryHandler implements QueryHandler {
+
+  private static final Logger logger = LoggerFactory.getLogger(ForwardingQueryHandler.class);
+
+  // https://datatracker.ietf.org/doc/html/rfc1035#section-4.1.1
+  private static final byte SERVER_FAILURE = 2;
+  private static final int MAX_UDP_MESSAGE_LENGTH = 512;
+  private static final int HEADER_LENGTH = 12;
+  private static final int CHECKING_DISABLED_FLAG = 0x10;
+
+  // cache hits are written into a per-thread buffer, so that serving them allocates nothing
+  private static final ThreadLocal<ByteBuffer> responseBuffers = ThreadLocal.withInitial(
+      () -> ByteBuffer.allocateDirect(MAX_MESSAGE_LENGTH));
+
+  private final UpstreamClient upstreamClient;
+  private final ResponseCache cache;
+  private final QueryCoalescer coalescer = new QueryCoalescer();
+  private final Executor workers;
+  private final long staleAnswerTimeoutMillis;
+  private final int udpPayloadSize;
+
+  /**
+   * @param workers            executor the stale answers are sent from, the caller's thread is
+   *                           used once it rejects them
+   * @param staleAnswerTimeout how long a client waits for the upstream before it is answered with
+   *                           an expired response, if there is one
+   * @param udpPayloadSize     largest query over UDP the forwarder accepts, advertised to clients
+   */
+  public ForwardingQueryHandler(UpstreamClient upstreamClient, ResponseCache cache,
+      Executor workers, Duration staleAnswerTimeout, int udpPayloadSize) {
+    this.upstreamClient = Objects.requireNonNull(upstreamClient, "upstreamClient cannot be null");
+    this.cache = Objects.requireNonNull(cache, "cache cannot be null");
+    Objects.requireNonNull(workers, "workers cannot be null");
+    // a stage whose executor rejects it is never completed, the query would never be released
+    this.workers = command -> {
+      try {
+        workers.execute(command);
+      } catch (RejectedExecutionException e) {
+        command.run();
+      }
+    };
+    this.staleAnswerTimeoutMillis = staleAnswerTimeout.toMillis();
+    this.udpPayloadSize = udpPayloadSize;
+  }
+
+  @Override
+  public void handle(PooledBuffer query, Responder responder) {
+    final ByteBuffer message = query.buffer();
+    boolean forwarded = false;
+
+    try {
+      if (message.limit() < HEADER_LENGTH) {
+        logger.debug("Dropping query shorter than a header");
+        return;
+      }
+
+      final short id = message.getShort(0);
+      final CacheKey key = cacheKeyOf(message);
+
+      final Lookup lookup = key == null
+          ? Lookup.MISS
+          : cache.lookup(key, id, responseBuffers.get());
+
+      if (lookup == Lookup.HIT || lookup == Lookup.HIT_REFRESH) {
+        final ByteBuffer buffer = responseBuffers.get();
+        echoQuestion(message, key, buffer);
+        respond(message, buffer, responder);
+
+        if (lookup == Lookup.HIT_REFRESH) {
+          refresh(query, key);
+          forwarded = true;
+        }
+        return;
+      }
+
+      final CompletableFuture<byte[]> upstreamResponse = key == null
+          ? upstreamClient.query(message)
+          : coalescer.query(key, () -> fetchAndStore(key, message));
+
+      if (lookup == Lookup.STALE) {
+        relayOrServeStale(query, key, id, upstreamResponse, responder);
+        forwarded = true;
+        return;
+      }
+
+      upstreamResponse.whenComplete((response, e) -> {
+        try {
+          if (e != null) {
+            logger.debug("Upstream failed to answer the query", e);
+            respondWithServerFailure(message, responder);
+          } else {
+            relay(message, key, id, response, responder);
+          }
+        } finally {
+          query.release();
+        }
+      });
+      forwarded = true;
+    } finally {
+      if (!forwarded) {
+        query.release();
+      }
+    }
+  }
+
+  // https://datatracker.ietf.org/doc/html/rfc8767#section-5 the client gets the stale response
+  // when the upstream fails or is slower than the client deadline, the upstream query still
+  // refreshes the cache once it is answered. The query is released only after both, the leader
+  // of a coalesced query still needs it to store the response
+  private void relayOrServeStale(PooledBuffer query, CacheKey key, short id,
+      CompletableFuture<byte[]> upstreamResponse, Responder responder) {
+    final ByteBuffer message = query.buffer();
+    final CompletableFuture<Void> answered = upstreamResponse.copy()
+        .orTimeout(staleAnswerTimeoutMillis, TimeUnit.MILLISECONDS)
+        .handleAsync((response, e) -> {
+          if (e == null) {
+            relay(message, key, id, response, responder);
+            return null;
+          }
+
+          final ByteBuffer buffer = responseBuffers.get();
+
+          if (cache.writeStaleTo(key, id, buffer)) {
+            logger.debug("Upstream failed to answer {} in time, serving it stale", key);
+            echoQuestion(message, key, buffer);
+            respond(message, buffer, responder);
+          } else {
+            respondWithServerFailure(message, responder);
+          }
+          return null;
+        }, workers);
+
+    CompletableFuture.allOf(upstreamResponse, answered)
+        .whenComplete((ignored, e) -> query.release());
+  }
+
+  // Sends the client's query once more in the background, the fresh response replaces the cached
+  // one before it expires. Nobody waits for the response, a failure only means that the next
+  // client after the expiry has to wait for the upstream
+  private void refresh(PooledBuffer query, CacheKey key) {
+    coalescer.query(key, () -> fetchAndStore(key, query.buffer()))
+        .whenComplete((response, e) -> {
+          if (e != null) {
+            logger.debug("Failed to refresh {}", key, e);
+          }
+          query.release();
+        });
+  }
+
+  private CompletableFuture<byte[]> fetchAndStore(CacheKey key, ByteBuffer query) {
+    return upstreamClient.query(query).thenApply(response -> {
+      store(key, query, response);
+      return response;
+    });
+  }
+
+  // the response may be cached and shared with other clients, it is never modified
+  private void relay(ByteBuffer query, CacheKey key, short id, byte[] response,
+      Responder responder) {
+    final ByteBuffer buffer = responseBuffers.get();
+    buffer.clear();
+    // the upstream saw the rewritten id, the client expects its own
+    buffer.put(response).putShort(0, id).flip();
+
+    if (key != null && response.length >= questionsEnd(key)
+        && DnsUtils.sameQuestions(query, response, questionsEnd(key))) {
+      echoQuestion(query, key, buffer);
+    }
+
+    respond(query, buffer, responder);
+  }
+
+  // https://datatracker.ietf.org/doc/html/rfc6891#section-7 the OPT record of the upstream has
+  // been removed, the client gets the forwarder's one if it sent its own. Its DO bit is copied
+  // from the query, which the upstream saw as well, the bit is part of the cache key. The response
+  // is changed in place, it must be a copy
+  private void respond(ByteBuffer query, ByteBuffer response, Responder responder) {
+    final int clientOpt = Edns.optOffset(query);
+    final int optLength = clientOpt == -1 ? 0 : Edns.OPT_LENGTH;
+
+    if (responder.datagram()
+        && response.limit() + optLength > Edns.udpPayloadSize(query, clientOpt)) {
+      Edns.truncate(response);
+    }
+
+    if (clientOpt != -1 && response.limit() + optLength <= response.capacity()
+        && Edns.optOffset(response) == -1) {
+      Edns.appendOpt(response, udpPayloadSize, Edns.dnssecOk(query, clientOpt));
+    }
+
+    responder.respond(response);
+  }
+
+  // A response shared between clients carries the question as one of them spelled it. Clients
+  // may rely on their own spelling coming back
+  // (https://datatracker.ietf.org/doc/html/draft-vixie-dnsext-dns0x20-00), the question is the
+  // same apart from the case, so it can be copied over
+  private static void echoQuestion(ByteBuffer query, CacheKey key, ByteBuffer response) {
+    response.put(HEADER_LENGTH, query, HEADER_LENGTH, questionsEnd(key) - HEADER_LENGTH);
+  }
+
+  private static int questionsEnd(CacheKey key) {
+    return HEADER_LENGTH + key.name().wireLength() + 4;
+  }
+
+  private void store(CacheKey key, ByteBuffer query, byte[] response) {
+    final MessageLayout layout;
+
+    try {
+      layout = MessageLayout.scan(response);
+    } catch (IllegalArgumentException e) {
+      logger.debug("Not caching response for {}, it is malformed", key, e);
+      return;
+    }
+
+    // a response to some other question must never end up under this key
+    if (!DnsUtils.sameQuestions(query, response, layout.questionsEnd())) {
+      logger.debug("Not caching response for {}, its question does not match the query", key);
+      return;
+    }
+
+    cache.put(key, response, layout);
+  }
+
+  // lets the client fail fast instead of waiting for its own timeout
+  private void respondWithServerFailure(ByteBuffer query, Responder responder) {
+    final DnsHeader header;
+    final DnsQuestion[] questions;
+
+    try {
+      final LazyDnsMessage message = DnsMessageDecoder.fromBuffer(query.slice(0, query.limit()))
+                                         .decodeLazily();
+      header = message.header();
+      questions = message.questions();
+    } catch (IllegalArgumentException e) {
+      logger.debug("Query cannot be decoded, not answering it", e);
+      return;
+    }
+
+    for (DnsQuestion question : questions) {
+      if (question.type() == null || question.queryClass() == null) {
+        logger.debug("Question {} of an unknown type or class cannot be echoed", question);
+        return;
+      }
+    }
+
+    final var responseHeader = new DnsHeader(header.id(), false, header.opcode(), false, false,
+        header.recursionDesired(), true, false, SERVER_FAILURE, questions.length, 0, 0, 0);
+    final var response = new DnsMessage(responseHeader, questions, new ResourceRecord[0],
+        new ResourceRecord[0], new ResourceRecord[0]);
+    final ByteBuffer buffer = ByteBuffer.allocate(MAX_UDP_MESSAGE_LENGTH);
+
+    try {
+      new DnsMessageEncoder().encode(response, buffer);
+    } catch (IllegalArgumentException e) {
+      logger.debug("Failed to encode the server failure response", e);
+      return;
+    }
+
+    respond(query, buffer.flip(), responder);
+  }
+
+  private static CacheKey cacheKeyOf(ByteBuffer query) {
+    try {
+      final CompactQuestion question = DnsMessageDecoder.decodeSingleQuestion(query);
+      return question == null
+          ? null
+          : CacheKey.of(question, Edns.dnssecOk(query, Edns.optOffset(query)),
+              (query.get(3) & CHECKING_DISABLED_FLAG) != 0);
+    } catch (IllegalArgumentException e) {
+      logger.debug("Query cannot be decoded, forwarding it without caching", e);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package io.github.akmal2409.dnsforwarder.server.forwarding;
+
+import io.github.akmal2409.dnsforwarder.server.cache.CacheKey;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight deduplication of upstream queries. While a query for a question is waiting for
+ * the upstream, every other query for the same question waits for the same response instead of
+ * being sent too, so a popular name that just expired from the cache costs one upstream query and
+ * not one per client. The response is shared by all the waiters and must not be modified.
+ */
+final class QueryCoalescer {
+
+  private final ConcurrentHashMap<CacheKey, CompletableFuture<byte[]>> pending =
+      new ConcurrentHashMap<>();
+
+  /**
+   * @param upstream sends the query, only called if no query for the key is pending. Whatever it
+   *                 chains to the response (e.g. caching it) happens before the waiters see it
+   * @return the response of the pending or of the newly sent query
+   */
+  CompletableFuture<byte[]> query(CacheKey key, Supplier<CompletableFuture<byte[]>> upstream) {
+    final var created = new CompletableFuture<byte[]>();
+    final CompletableFuture<byte[]> existing = pending.putIfAbsent(key, created);
+
+    if (existing != null) {
+      return existing;
+    }
+
+    try {
+      upstream.get().whenComplete((response, e) -> {
+        pending.remove(key, created);
+
+        if (e != null) {
+          created.completeExceptionally(e);
+        } else {
+          created.complete(response);
+        }
+      });
+    } catch (RuntimeException e) {
+      pending.remove(key, created);
+      created.completeExceptionally(e);
+    }
+
+    return created;
+  }
+
+  int pendingCount() {
+    return pending.size();
+  }
+}
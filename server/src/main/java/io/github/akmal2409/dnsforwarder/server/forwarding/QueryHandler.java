@@ -0,0 +1,19 @@
+package io.github.akmal2409.dnsforwarder.server.forwarding;
+
+import io.github.akmal2409.dnsforwarder.server.buffer.PooledBuffer;
+
+/**
+ * Processes a single DNS query received by one of the listeners. Called concurrently from the
+ * worker pool, therefore implementations must be thread-safe.
+ */
+@FunctionalInterface
+public interface QueryHandler {
+
+  /**
+   * @param query     raw query bytes between position 0 and the limit, owned by the handler from
+   *                  now on. It must be released once it isn't needed anymore, also when the query
+   *                  fails, which may be long after the method returned
+   * @param responder where the reply must be sent to
+   */
+  void handle(PooledBuffer query, Responder responder);
+}
@@ -0,0 +1,27 @@
+package io.github.akmal2409.dnsforwarder.server.forwarding;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sends a reply back to the client that issued a query. Implementations are bound to the transport
+ * the query came from and must be safe to call from any thread.
+ */
+@FunctionalInterface
+public interface Responder {
+
+  /**
+   * Sends the bytes between position and limit of the buffer as a single DNS message. The buffer
+   * is only read during the call, the caller may reuse it once the method returns.
+   *
+   * @param response encoded DNS message
+   */
+  void respond(ByteBuffer response);
+
+  /**
+   * @return whether every response goes out as a single datagram, whose size the client limits
+   *     (<a href="https://datatracker.ietf.org/doc/html/rfc6891#section-6.2.3">RFC 6891</a>)
+   */
+  default boolean datagram() {
+    return false;
+  }
+}
@@ -10,6 +10,7 @@ import io.github.akmal2409.dnsforwarder.server.codec.models.records.NS;
 import io.github.akmal2409.dnsforwarder.server.codec.models.records.Opt;
 import io.github.akmal2409.dnsforwarder.server.codec.models.records.Opt.Option;
 import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceRecord;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.SOA;
 import io.github.akmal2409.dnsforwarder.server.common.ByteUtils;
 
 class RDataEncoder {
@@ -24,6 +25,7 @@ class RDataEncoder {
       case HInfo hInfo -> encodeHInfo(hInfo);
       case Opt opt -> encodeOpt(opt);
       case NS ns -> dnsStringCodec.encode(ns.nameServerDomain());
+      case SOA soa -> encodeSoa(soa);
       case null -> throw new IllegalArgumentException(
           "Unsupported resource record for encoding " + resourceRecord.getClass().getName());
     };
@@ -52,6 +54,19 @@ class RDataEncoder {
     return data;
   }
 
+  private static byte[] encodeSoa(SOA soa) {
+    final var fields = new byte[20];
+    final long[] values = {soa.serial(), soa.refresh(), soa.retry(), soa.expire(),
+        soa.minimum()};
+
+    for (int i = 0; i < values.length; i++) {
+      ByteUtils.writeInt(fields, i * 4, 1, (int) values[i]);
+    }
+
+    return merge(dnsStringCodec.encode(soa.primaryNameServer()),
+        dnsStringCodec.encode(soa.responsibleMailbox()), fields);
+  }
+
   private static byte[] encodeHInfo(HInfo hInfo) {
     final var cpuBytes = charStringEncoder.encode(hInfo.cpu());
     final var osBytes = charStringEncoder.encode(hInfo.os());
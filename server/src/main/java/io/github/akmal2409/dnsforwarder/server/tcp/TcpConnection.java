@@ -0,0 +1,239 @@
+package io.github.akmal2409.dnsforwarder.server.tcp;
+
+import io.github.akmal2409.dnsforwarder.server.buffer.BufferPool;
+import io.github.akmal2409.dnsforwarder.server.buffer.PooledBuffer;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.PacketValidator;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.PacketValidator.Verdict;
+import io.github.akmal2409.dnsforwarder.server.forwarding.QueryHandler;
+import io.github.akmal2409.dnsforwarder.server.forwarding.Responder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single client connection of the {@link TcpListener}. Every message is prefixed with its length
+ * in two bytes
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc1035#section-4.2.2">RFC 1035</a>). The
+ * reader keeps reading queries while the earlier ones are being answered, and each response is
+ * sent as soon as it is ready, in whatever order that is. The client tells them apart by their id
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc7766#section-6.2.1.1">RFC 7766</a>).
+ *
+ * <p>The responses are queued for a writer thread, so that a client that reads slowly never holds
+ * up the worker or the upstream reader answering it. A client that leaves too many responses
+ * unread is disconnected. Once the client stops sending, the connection is closed as soon as the
+ * handler is done with its last query, whether it answered it or not.
+ */
+final class TcpConnection {
+
+  private static final Logger logger = LoggerFactory.getLogger(TcpConnection.class);
+
+  private static final int LENGTH_PREFIX = 2;
+  private static final int MAX_QUEUED_RESPONSES = 256;
+  // tells the writer to stop, compared by identity
+  private static final byte[] END_OF_STREAM = new byte[0];
+
+  private final Socket socket;
+  private final SocketAddress client;
+  private final BufferPool buffers;
+  private final Executor workers;
+  private final QueryHandler handler;
+  private final int idleTimeoutMillis;
+  private final Consumer<TcpConnection> onClose;
+  private final BlockingQueue<byte[]> responses = new ArrayBlockingQueue<>(MAX_QUEUED_RESPONSES);
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final Responder responder = this::enqueue;
+  private volatile boolean readerDone;
+
+  TcpConnection(Socket socket, BufferPool buffers, Executor workers, QueryHandler handler,
+      int idleTimeoutMillis, Consumer<TcpConnection> onClose) {
+    this.socket = socket;
+    this.client = socket.getRemoteSocketAddress();
+    this.buffers = buffers;
+    this.workers = workers;
+    this.handler = handler;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.onClose = onClose;
+  }
+
+  void start() throws IOException {
+    socket.setSoTimeout(idleTimeoutMillis);
+    socket.setTcpNoDelay(true);
+
+    final var input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    final var output = new BufferedOutputStream(socket.getOutputStream());
+
+    Thread.ofVirtual().name("tcp-reader").start(() -> read(input));
+    Thread.ofVirtual().name("tcp-writer").start(() -> write(output));
+  }
+
+  private void read(DataInputStream input) {
+    final var message = new byte[buffers.bufferSize()];
+
+    try {
+      while (!closed.get()) {
+        final int length = input.readUnsignedShort();
+
+        if (length > message.length) {
+          logger.debug("Query of {} bytes from {} is too long, closing", length, client);
+          break;
+        }
+
+        input.readFully(message, 0, length);
+        final PooledBuffer query = buffers.acquire();
+        query.buffer().put(message, 0, length).flip();
+
+        final Verdict verdict = PacketValidator.validateQuery(query.buffer(), length);
+
+        if (verdict != Verdict.VALID) {
+          query.release();
+          logger.debug("Dropping {} query from {}", verdict, client);
+          continue;
+        }
+
+        dispatch(query);
+      }
+    } catch (EOFException e) {
+      logger.debug("Connection closed by {}", client);
+    } catch (SocketTimeoutException e) {
+      logger.debug("Connection from {} has been idle for too long, closing", client);
+    } catch (IOException e) {
+      if (!closed.get()) {
+        logger.debug("Failed to read from {}", client, e);
+      }
+    }
+
+    finish();
+  }
+
+  // same as the UDP listener, the handler releases the query once it has been answered. It may
+  // also drop a query without answering it, so a query counts as done once it has been released,
+  // or once the handler failed in case it didn't get to release it
+  private void dispatch(PooledBuffer query) {
+    inFlight.incrementAndGet();
+    final var done = new AtomicBoolean();
+    final Runnable countDown = () -> {
+      if (done.compareAndSet(false, true)) {
+        queryDone();
+      }
+    };
+    query.whenReleased(countDown);
+
+    try {
+      workers.execute(() -> {
+        try {
+          handler.handle(query, responder);
+        } catch (RuntimeException e) {
+          logger.debug("Failed to handle query from {}", client, e);
+          countDown.run();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      query.release();
+      logger.debug("Workers are saturated, dropping query from {}", client);
+    }
+  }
+
+  private void queryDone() {
+    if (inFlight.decrementAndGet() == 0 && readerDone && !responses.offer(END_OF_STREAM)) {
+      close();
+    }
+  }
+
+  // called from the workers and the upstream reader, must never block
+  private void enqueue(ByteBuffer response) {
+    if (closed.get()) {
+      return;
+    }
+
+    final int length = response.remaining();
+    final var frame = new byte[LENGTH_PREFIX + length];
+    frame[0] = (byte) (length >>> 8);
+    frame[1] = (byte) length;
+    response.get(response.position(), frame, LENGTH_PREFIX, length);
+
+    if (!responses.offer(frame)) {
+      logger.debug("{} does not read its responses, closing", client);
+      close();
+    }
+  }
+
+  private void write(OutputStream output) {
+    try {
+      while (true) {
+        byte[] frame = responses.poll(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+
+        if (frame == null) {
+          // a query the handler holds on to without answering it, don't wait for it forever
+          if (readerDone) {
+            break;
+          }
+          continue;
+        }
+
+        // pipelined responses that are ready at the same time go out in one segment
+        while (frame != null && frame != END_OF_STREAM) {
+          output.write(frame);
+          frame = responses.poll();
+        }
+
+        output.flush();
+
+        if (frame == END_OF_STREAM) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      if (!closed.get()) {
+        logger.debug("Failed to write to {}", client, e);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    close();
+  }
+
+  // the client stopped sending, the queries it has sent so far are still answered
+  private void finish() {
+    readerDone = true;
+
+    if (inFlight.get() == 0 && !responses.offer(END_OF_STREAM)) {
+      close();
+    }
+  }
+
+  void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      socket.close();
+    } catch (IOException e) {
+      logger.debug("Failed to close connection from {}", client, e);
+    }
+
+    // wakes up the writer if it is waiting for a response
+    responses.clear();
+    responses.offer(END_OF_STREAM);
+    onClose.accept(this);
+  }
+}
@@ -0,0 +1,119 @@
+package io.github.akmal2409.dnsforwarder.server.tcp;
+
+import io.github.akmal2409.dnsforwarder.server.ServerNetworkException;
+import io.github.akmal2409.dnsforwarder.server.buffer.BufferPool;
+import io.github.akmal2409.dnsforwarder.server.forwarding.QueryHandler;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accept loop of the TCP listener (<a href="https://datatracker.ietf.org/doc/html/rfc7766">RFC
+ * 7766</a>), for clients that got a truncated response over UDP or prefer TCP in the first place.
+ * Every connection is served by virtual threads of its own, see {@link TcpConnection}, which
+ * hand the queries off to the same worker pool as the UDP listeners. Connections beyond the
+ * limit are closed right after they are accepted, idle ones are closed after the timeout.
+ */
+public class TcpListener implements Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(TcpListener.class);
+
+  private final ServerSocket serverSocket;
+  private final BufferPool buffers;
+  private final Executor workers;
+  private final QueryHandler handler;
+  private final int idleTimeoutMillis;
+  private final Semaphore connectionPermits;
+  private final Set<TcpConnection> connections = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param serverSocket   bound socket to accept the connections from
+   * @param idleTimeout    how long a connection may go without a query before it is closed
+   * @param maxConnections number of connections that may be open at the same time
+   */
+  public TcpListener(ServerSocket serverSocket, BufferPool buffers, Executor workers,
+      QueryHandler handler, Duration idleTimeout, int maxConnections) {
+    this.serverSocket = serverSocket;
+    this.buffers = buffers;
+    this.workers = workers;
+    this.handler = handler;
+    this.idleTimeoutMillis = Math.toIntExact(idleTimeout.toMillis());
+    this.connectionPermits = new Semaphore(maxConnections);
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        final Socket socket = serverSocket.accept();
+
+        if (!connectionPermits.tryAcquire()) {
+          logger.debug("Too many open connections, closing the one from {}",
+              socket.getRemoteSocketAddress());
+          closeQuietly(socket);
+          continue;
+        }
+
+        open(socket);
+      }
+    } catch (SocketException e) {
+      if (!serverSocket.isClosed()) {
+        throw new ServerNetworkException("TCP listener crashed due to socket exception", e);
+      }
+      logger.debug("TCP listener socket has been closed, stopping");
+    } catch (IOException e) {
+      logger.error("IO exception of a socket", e);
+      throw new ServerNetworkException("TCP listener crashed due to socket exception", e);
+    } finally {
+      connections.forEach(TcpConnection::close);
+    }
+  }
+
+  private void open(Socket socket) {
+    final var connection = new TcpConnection(socket, buffers, workers, handler, idleTimeoutMillis,
+        this::closed);
+    connections.add(connection);
+
+    try {
+      connection.start();
+    } catch (IOException e) {
+      logger.debug("Failed to set up the connection from {}", socket.getRemoteSocketAddress(), e);
+      connection.close();
+    }
+  }
+
+  // called exactly once per connection
+  private void closed(TcpConnection connection) {
+    connections.remove(connection);
+    connectionPermits.release();
+  }
+
+  /**
+   * Stops accepting and closes the open connections, responses that are still being looked up
+   * are dropped.
+   */
+  public void close() {
+    closeQuietly(serverSocket);
+    connections.forEach(TcpConnection::close);
+  }
+
+  public int openConnections() {
+    return connections.size();
+  }
+
+  private static void closeQuietly(AutoCloseable closeable) {
+    try {
+      closeable.close();
+    } catch (Exception e) {
+      logger.debug("Failed to close socket", e);
+    }
+  }
+}
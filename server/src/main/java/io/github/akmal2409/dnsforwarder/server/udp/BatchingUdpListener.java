@@ -0,0 +1,260 @@
+package io.github.akmal2409.dnsforwarder.server.udp;
+
+import io.github.akmal2409.dnsforwarder.server.ServerNetworkException;
+import io.github.akmal2409.dnsforwarder.server.buffer.BufferPool;
+import io.github.akmal2409.dnsforwarder.server.buffer.PooledBuffer;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.PacketValidator;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.PacketValidator.Verdict;
+import io.github.akmal2409.dnsforwarder.server.forwarding.QueryHandler;
+import io.github.akmal2409.dnsforwarder.server.forwarding.Responder;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listener thread that moves datagrams in batches, the closest the JDK gets to
+ * recvmmsg/sendmmsg. The socket is non-blocking: once it is readable the thread receives datagrams
+ * into pooled buffers until it runs dry or the batch is full, and hands the batch off to the
+ * workers a few queries at a time, so that a full batch is spread over several of them. Responses
+ * are not sent by the threads that have them, they are copied into pooled buffers and queued, and
+ * the listener thread sends all of them before it parks in the selector again. A burst of queries
+ * costs a few hand-offs and a burst of responses one wake-up.
+ * <p>
+ * Listeners sharing a socket must all be batching ones, the socket is switched to non-blocking
+ * mode.
+ */
+public class BatchingUdpListener implements Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(BatchingUdpListener.class);
+
+  private static final int MAX_QUEUED_RESPONSES = 4096;
+  // small enough for a batch to keep several workers busy, large enough to save hand-offs
+  private static final int QUERIES_PER_TASK = 4;
+
+  private final DatagramChannel channel;
+  private final BufferPool buffers;
+  private final Executor workers;
+  private final QueryHandler handler;
+  private final PooledBuffer[] batch;
+  private final SocketAddress[] senders;
+  private final BlockingQueue<Response> responses = new ArrayBlockingQueue<>(
+      MAX_QUEUED_RESPONSES);
+  // set once the listener has been woken up for the queued responses, until it sends them
+  private final AtomicBoolean wakeupPending = new AtomicBoolean();
+  private volatile Selector selector;
+  // buffer that has not received anything yet, kept for the next receive
+  private PooledBuffer spare;
+  // response the socket had no room for, sent before the queued ones once it is writable
+  private Response unsent;
+
+  /**
+   * @param batchSize max number of datagrams received before they are handed off
+   */
+  public BatchingUdpListener(DatagramChannel channel, BufferPool buffers, Executor workers,
+      QueryHandler handler, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+
+    this.channel = channel;
+    this.buffers = buffers;
+    this.workers = workers;
+    this.handler = handler;
+    this.batch = new PooledBuffer[batchSize];
+    this.senders = new SocketAddress[batchSize];
+  }
+
+  @Override
+  public void run() {
+    try (Selector opened = Selector.open()) {
+      this.selector = opened;
+      channel.configureBlocking(false);
+      final SelectionKey key = channel.register(opened, SelectionKey.OP_READ);
+
+      while (!Thread.currentThread().isInterrupted()) {
+        final boolean drained = receiveBatch();
+
+        wakeupPending.set(false);
+        final boolean sent = sendResponses();
+        key.interestOps(sent ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+
+        // a full batch means that more datagrams are likely waiting, no need to park for them
+        if (drained) {
+          opened.select();
+        } else {
+          opened.selectNow();
+        }
+        opened.selectedKeys().clear();
+      }
+    } catch (ClosedChannelException | CancelledKeyException e) {
+      logger.debug("Listener channel has been closed, stopping");
+    } catch (IOException e) {
+      logger.error("IO exception of a socket", e);
+      throw new ServerNetworkException("Listener crashed due to socket exception", e);
+    } finally {
+      releaseBuffers();
+    }
+  }
+
+  // returns false if the batch filled up before the socket ran dry
+  private boolean receiveBatch() throws IOException {
+    int count = 0;
+
+    try {
+      while (count < batch.length) {
+        if (spare == null) {
+          spare = buffers.acquire();
+        }
+
+        final SocketAddress sender = channel.receive(spare.buffer());
+
+        if (sender == null) {
+          return true;
+        }
+
+        final ByteBuffer message = spare.buffer().flip();
+        // a datagram that filled the whole buffer may have been cut off by the socket
+        final Verdict verdict = PacketValidator.validateQuery(message, message.capacity() - 1);
+
+        if (verdict != Verdict.VALID) {
+          message.clear();
+          logger.debug("Dropping {} query from {}", verdict, sender);
+          continue;
+        }
+
+        batch[count] = spare;
+        senders[count++] = sender;
+        spare = null;
+      }
+
+      return false;
+    } finally {
+      for (int from = 0; from < count; from += QUERIES_PER_TASK) {
+        final int to = Math.min(from + QUERIES_PER_TASK, count);
+        dispatch(Arrays.copyOfRange(batch, from, to), Arrays.copyOfRange(senders, from, to));
+      }
+
+      Arrays.fill(batch, 0, count, null);
+      Arrays.fill(senders, 0, count, null);
+    }
+  }
+
+  // the handler releases every query once it is done, they only have to be released here when
+  // the handler never gets them
+  private void dispatch(PooledBuffer[] queries, SocketAddress[] recipients) {
+    try {
+      workers.execute(() -> {
+        for (int i = 0; i < queries.length; i++) {
+          try {
+            handler.handle(queries[i], new QueuedResponder(recipients[i]));
+          } catch (RuntimeException e) {
+            logger.debug("Failed to handle query from {}", recipients[i], e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      for (PooledBuffer query : queries) {
+        query.release();
+      }
+      logger.debug("Workers are saturated, dropping {} queries", queries.length);
+    }
+  }
+
+  // returns false if the socket ran out of room before all the queued responses were sent
+  private boolean sendResponses() throws IOException {
+    Response response = unsent == null ? responses.poll() : unsent;
+    unsent = null;
+
+    while (response != null) {
+      if (!send(response)) {
+        unsent = response;
+        return false;
+      }
+
+      response.message.release();
+      response = responses.poll();
+    }
+
+    return true;
+  }
+
+  private boolean send(Response response) throws IOException {
+    try {
+      return channel.send(response.message.buffer(), response.recipient) != 0;
+    } catch (ClosedChannelException e) {
+      response.message.release();
+      throw e;
+    } catch (IOException e) {
+      logger.debug("Failed to send response to {}", response.recipient, e);
+      return true;
+    }
+  }
+
+  // responses queued after the listener stopped are left to the GC along with the pool
+  private void releaseBuffers() {
+    if (spare != null) {
+      spare.release();
+      spare = null;
+    }
+    if (unsent != null) {
+      unsent.message.release();
+      unsent = null;
+    }
+
+    Response response;
+    while ((response = responses.poll()) != null) {
+      response.message.release();
+    }
+  }
+
+  private record Response(PooledBuffer message, SocketAddress recipient) {
+
+  }
+
+  private final class QueuedResponder implements Responder {
+
+    private final SocketAddress recipient;
+
+    private QueuedResponder(SocketAddress recipient) {
+      this.recipient = recipient;
+    }
+
+    // the response is copied because the caller reuses its buffer as soon as this returns, see
+    // Responder, e.g. the per-thread buffer of the cache hits. It only leaves once the listener
+    // thread gets to it
+    @Override
+    public void respond(ByteBuffer response) {
+      final int length = response.remaining();
+      final PooledBuffer copy = buffers.acquire(length);
+      copy.buffer().put(0, response, response.position(), length).limit(length);
+
+      if (!responses.offer(new Response(copy, recipient))) {
+        copy.release();
+        logger.debug("Too many responses waiting to be sent, dropping the one to {}", recipient);
+        return;
+      }
+
+      if (!wakeupPending.getAndSet(true)) {
+        selector.wakeup();
+      }
+    }
+
+    @Override
+    public boolean datagram() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package io.github.akmal2409.dnsforwarder.server.udp;
+
+/**
+ * How the UDP listener threads move datagrams between the socket and the workers.
+ */
+public enum ListenerMode {
+  // a blocking receive per datagram, responses are sent by whichever thread has them, see
+  // UdpListener
+  BLOCKING,
+  // batches drained from a non-blocking socket, responses are queued and sent by the listener
+  // thread, see BatchingUdpListener
+  BATCHED
+}
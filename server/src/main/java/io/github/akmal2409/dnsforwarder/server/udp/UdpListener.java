@@ -0,0 +1,115 @@
+package io.github.akmal2409.dnsforwarder.server.udp;
+
+import io.github.akmal2409.dnsforwarder.server.ServerNetworkException;
+import io.github.akmal2409.dnsforwarder.server.buffer.BufferPool;
+import io.github.akmal2409.dnsforwarder.server.buffer.PooledBuffer;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.PacketValidator;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.PacketValidator.Verdict;
+import io.github.akmal2409.dnsforwarder.server.forwarding.QueryHandler;
+import io.github.akmal2409.dnsforwarder.server.forwarding.Responder;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receive loop of a single listener thread. Every datagram is received straight into a buffer
+ * taken from the pool and checked by the {@link PacketValidator}. Only a datagram that looks like a
+ * query is handed off to the worker pool together with the ownership of the buffer, so the thread
+ * can go back to the socket straight away.
+ */
+public class UdpListener implements Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(UdpListener.class);
+
+  private final DatagramChannel channel;
+  private final BufferPool buffers;
+  private final Executor workers;
+  private final QueryHandler handler;
+
+  public UdpListener(DatagramChannel channel, BufferPool buffers, Executor workers,
+      QueryHandler handler) {
+    this.channel = channel;
+    this.buffers = buffers;
+    this.workers = workers;
+    this.handler = handler;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        final PooledBuffer query = buffers.acquire();
+        final SocketAddress sender;
+
+        try {
+          sender = channel.receive(query.buffer());
+        } catch (IOException e) {
+          query.release();
+          throw e;
+        }
+
+        query.buffer().flip();
+
+        // a datagram that filled the whole buffer may have been cut off by the socket
+        final Verdict verdict = PacketValidator.validateQuery(query.buffer(),
+            query.buffer().capacity() - 1);
+
+        if (verdict != Verdict.VALID) {
+          query.release();
+          logger.debug("Dropping {} query from {}", verdict, sender);
+          continue;
+        }
+
+        dispatch(query, sender);
+      }
+    } catch (ClosedChannelException e) {
+      logger.debug("Listener channel has been closed, stopping");
+    } catch (IOException e) {
+      logger.error("IO exception of a socket", e);
+      throw new ServerNetworkException("Listener crashed due to socket exception", e);
+    }
+  }
+
+  // the handler releases the query once it is done, it only has to be released here when the
+  // handler never gets it
+  private void dispatch(PooledBuffer query, SocketAddress sender) {
+    final Responder responder = new Responder() {
+      @Override
+      public void respond(ByteBuffer response) {
+        send(response, sender);
+      }
+
+      @Override
+      public boolean datagram() {
+        return true;
+      }
+    };
+
+    try {
+      workers.execute(() -> {
+        try {
+          handler.handle(query, responder);
+        } catch (RuntimeException e) {
+          logger.debug("Failed to handle query from {}", sender, e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      query.release();
+      logger.debug("Workers are saturated, dropping query from {}", sender);
+    }
+  }
+
+  private void send(ByteBuffer response, SocketAddress recipient) {
+    try {
+      channel.send(response, recipient);
+    } catch (IOException e) {
+      logger.debug("Failed to send response to {}", recipient, e);
+    }
+  }
+}
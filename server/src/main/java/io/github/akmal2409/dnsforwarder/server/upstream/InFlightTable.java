@@ -0,0 +1,113 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Queries of a single upstream socket that haven't been answered yet, indexed by the DNS id they
+ * were sent with. The id space of a socket is 16 bits, so a flat slot array is used instead of a
+ * map. Ids are picked at random, predictable ids would make cache poisoning trivial.
+ * <p>
+ * A table with fewer slots than ids, e.g. for a connection that pipelines a bounded number of
+ * queries, still hands out ids from the whole id space. The low bits of an id pick its slot, the
+ * high bits are checked against the id of the query in the slot.
+ */
+final class InFlightTable {
+
+  static final int ID_SPACE = 1 << 16;
+  private static final int RANDOM_ATTEMPTS = 8;
+
+  private final AtomicReferenceArray<PendingQuery> slots;
+  private final int mask;
+
+  InFlightTable() {
+    this(ID_SPACE);
+  }
+
+  /**
+   * @param capacity number of queries that can wait at the same time, a power of two no larger
+   *                 than the id space
+   */
+  InFlightTable(int capacity) {
+    if (capacity < 1 || capacity > ID_SPACE || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException(
+          "Capacity must be a power of two between 1 and " + ID_SPACE);
+    }
+
+    this.slots = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * Reserves a free id for the query.
+   *
+   * @return the id the query has to be sent with, or -1 if all the slots are in use
+   */
+  int register(PendingQuery query) {
+    final var random = ThreadLocalRandom.current();
+
+    for (int i = 0; i < RANDOM_ATTEMPTS; i++) {
+      final int id = random.nextInt(ID_SPACE);
+
+      if (claim(id, query)) {
+        return id;
+      }
+    }
+
+    // the table is mostly full, scan for the first free slot instead
+    final int start = random.nextInt(ID_SPACE);
+    for (int i = 0; i <= mask; i++) {
+      final int id = (start + i) & (ID_SPACE - 1);
+
+      if (claim(id, query)) {
+        return id;
+      }
+    }
+
+    return -1;
+  }
+
+  // the id is published together with the query by the volatile write of the slot
+  private boolean claim(int id, PendingQuery query) {
+    if (slots.get(id & mask) != null) {
+      return false;
+    }
+
+    query.id = id;
+    return slots.compareAndSet(id & mask, null, query);
+  }
+
+  /**
+   * Removes the query waiting for a response with the given id. Responses from any other address
+   * than the one the query was sent to are ignored.
+   *
+   * @return the waiting query or null if there is none for this id and upstream
+   */
+  PendingQuery take(int id, InetSocketAddress source) {
+    final PendingQuery query = slots.get(id & mask);
+
+    if (query == null || query.id != id || !query.upstream.equals(source)) {
+      return null;
+    }
+
+    return slots.compareAndSet(id & mask, query, null) ? query : null;
+  }
+
+  void remove(int id, PendingQuery query) {
+    slots.compareAndSet(id & mask, query, null);
+  }
+
+  /**
+   * Removes every waiting query and fails it, e.g. once the connection it was sent on is lost.
+   */
+  void failAll(Throwable cause) {
+    for (int slot = 0; slot <= mask; slot++) {
+      final PendingQuery query = slots.get(slot);
+
+      if (query != null && slots.compareAndSet(slot, query, null)) {
+        query.response.completeExceptionally(cause);
+      }
+    }
+  }
+}
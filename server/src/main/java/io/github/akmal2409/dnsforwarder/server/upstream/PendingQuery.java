@@ -0,0 +1,32 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Query that has been sent upstream and is waiting for the answer.
+ */
+final class PendingQuery {
+
+  final InetSocketAddress upstream;
+  // the caller's query, for sending it again over TCP if the answer is truncated, null if it
+  // can't be. Left unmodified by the caller only until the response completes, so it is copied
+  // for the retry, see TcpUpstreamPool
+  final ByteBuffer query;
+  final CompletableFuture<byte[]> response;
+  final long sentAtNanos;
+  // id in the in-flight table the query is currently registered in, see InFlightTable
+  int id;
+
+  PendingQuery(InetSocketAddress upstream, long sentAtNanos) {
+    this(upstream, null, sentAtNanos);
+  }
+
+  PendingQuery(InetSocketAddress upstream, ByteBuffer query, long sentAtNanos) {
+    this.upstream = upstream;
+    this.query = query;
+    this.response = new CompletableFuture<>();
+    this.sentAtNanos = sentAtNanos;
+  }
+}
@@ -0,0 +1,191 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import io.github.akmal2409.dnsforwarder.server.codec.Edns;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-lived TCP connection to a single upstream. Queries are pipelined: they are written as soon
+ * as they are sent and matched to their responses by id through an {@link InFlightTable}, the same
+ * way as on the UDP sockets, so the upstream may answer them in any order
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc7766#section-6.2.1">RFC 7766</a>). The
+ * connection is established by its writer thread, queries sent in the meantime are queued. Once
+ * the connection is lost, e.g. because the upstream closed it for being idle, the queries waiting
+ * on it fail and {@link TcpUpstreamPool} opens a new one.
+ */
+final class TcpUpstreamConnection {
+
+  private static final Logger logger = LoggerFactory.getLogger(TcpUpstreamConnection.class);
+
+  private static final int LENGTH_PREFIX = 2;
+  // queries waiting for their answer on a connection, including the ones not written yet
+  private static final int MAX_PIPELINED_QUERIES = 1024;
+
+  private final InetSocketAddress upstream;
+  private final int connectTimeoutMillis;
+  private final int udpPayloadSize;
+  private final Socket socket = new Socket();
+  private final InFlightTable inFlight = new InFlightTable(MAX_PIPELINED_QUERIES);
+  private final BlockingQueue<ByteBuffer> queries =
+      new ArrayBlockingQueue<>(MAX_PIPELINED_QUERIES);
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private volatile Thread writer;
+
+  TcpUpstreamConnection(InetSocketAddress upstream, int connectTimeoutMillis,
+      int udpPayloadSize) {
+    this.upstream = upstream;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.udpPayloadSize = udpPayloadSize;
+  }
+
+  void open() {
+    this.writer = Thread.ofVirtual().name("upstream-tcp-writer").start(this::connectAndWrite);
+  }
+
+  boolean isClosed() {
+    return closed.get();
+  }
+
+  /**
+   * Queues the query under a freshly allocated id, its response completes the pending query. Does
+   * not block.
+   *
+   * @param query copy of the pending query, which its caller may have reused in the meantime
+   * @return false if the query can't be sent over this connection, because it has been closed or
+   *     too many queries are waiting for their answer
+   */
+  boolean send(PendingQuery pending, byte[] query) {
+    if (closed.get()) {
+      return false;
+    }
+
+    final int id = inFlight.register(pending);
+
+    if (id == -1) {
+      return false;
+    }
+
+    final int length = query.length;
+    final ByteBuffer frame = ByteBuffer.allocate(LENGTH_PREFIX + length + Edns.OPT_LENGTH);
+    // the OPT record is replaced the same way as over UDP, see UpstreamClient
+    final ByteBuffer message = frame.slice(LENGTH_PREFIX, length + Edns.OPT_LENGTH)
+                                   .put(0, query)
+                                   .putShort(0, (short) id)
+                                   .limit(length);
+    Edns.replaceOpt(message, udpPayloadSize);
+    frame.putShort(0, (short) message.limit()).limit(LENGTH_PREFIX + message.limit());
+
+    // closed in the meantime, the query could have missed the failing of the waiting ones
+    if (!queries.offer(frame) || closed.get()) {
+      inFlight.remove(id, pending);
+      return false;
+    }
+
+    pending.response.whenComplete((ignored, e) -> inFlight.remove(id, pending));
+    return true;
+  }
+
+  private void connectAndWrite() {
+    try {
+      socket.connect(upstream, connectTimeoutMillis);
+      socket.setTcpNoDelay(true);
+
+      final var input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      final var output = new BufferedOutputStream(socket.getOutputStream());
+
+      Thread.ofVirtual().name("upstream-tcp-reader").start(() -> read(input));
+
+      while (!closed.get()) {
+        ByteBuffer frame = queries.take();
+
+        // queries sent at the same time go out in one segment
+        while (frame != null) {
+          output.write(frame.array(), 0, frame.limit());
+          frame = queries.poll();
+        }
+
+        output.flush();
+      }
+    } catch (IOException e) {
+      if (!closed.get()) {
+        logger.debug("Failed to send queries to {} over TCP", upstream, e);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    close();
+  }
+
+  private void read(DataInputStream input) {
+    try {
+      while (!closed.get()) {
+        final var message = new byte[input.readUnsignedShort()];
+        input.readFully(message);
+        final byte[] response = withoutOpt(message);
+
+        if (response.length < 12) {
+          logger.debug("Dropping runt response from {}", upstream);
+          continue;
+        }
+
+        final int id = (response[0] & 0xff) << 8 | response[1] & 0xff;
+        final PendingQuery pending = inFlight.take(id, upstream);
+
+        if (pending == null) {
+          logger.debug("Dropping unsolicited or late response {} from {}", id, upstream);
+          continue;
+        }
+
+        pending.response.complete(response);
+      }
+    } catch (EOFException e) {
+      logger.debug("Connection closed by {}", upstream);
+    } catch (IOException e) {
+      if (!closed.get()) {
+        logger.debug("Failed to read responses from {} over TCP", upstream, e);
+      }
+    }
+
+    close();
+  }
+
+  // the OPT record describes this connection and not the answer, see UpstreamClient
+  private static byte[] withoutOpt(byte[] message) {
+    final ByteBuffer buffer = ByteBuffer.wrap(message);
+
+    return Edns.removeTrailingOpt(buffer) ? Arrays.copyOf(message, buffer.limit()) : message;
+  }
+
+  void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      socket.close();
+    } catch (IOException e) {
+      logger.debug("Failed to close connection to {}", upstream, e);
+    }
+
+    final Thread writerThread = writer;
+    if (writerThread != null) {
+      writerThread.interrupt();
+    }
+
+    queries.clear();
+    inFlight.failAll(new UpstreamException("Lost the connection to " + upstream));
+  }
+}
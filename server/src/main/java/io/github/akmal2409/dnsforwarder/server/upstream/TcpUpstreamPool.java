@@ -0,0 +1,106 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import java.lang.invoke.VarHandle;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A few persistent TCP connections to every upstream, for the queries whose answer over UDP was
+ * truncated. Connections are opened on first use and replaced once lost, so a truncated answer
+ * costs one more round trip and not a new handshake every time
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc7766#section-6.2.1">RFC 7766</a>).
+ */
+final class TcpUpstreamPool implements AutoCloseable {
+
+  private final int connectionsPerUpstream;
+  private final int connectTimeoutMillis;
+  private final int udpPayloadSize;
+  private final ConcurrentHashMap<InetSocketAddress, AtomicReferenceArray<TcpUpstreamConnection>>
+      connections = new ConcurrentHashMap<>();
+  private final AtomicInteger nextConnection = new AtomicInteger();
+  private volatile boolean closed;
+
+  /**
+   * @param connectionsPerUpstream number of connections the queries to an upstream are spread over
+   * @param connectTimeoutMillis   how long to wait for a connection to be established
+   * @param udpPayloadSize         payload size advertised in the queries, see
+   *                               {@link io.github.akmal2409.dnsforwarder.server.codec.Edns}
+   */
+  TcpUpstreamPool(int connectionsPerUpstream, int connectTimeoutMillis, int udpPayloadSize) {
+    if (connectionsPerUpstream < 1) {
+      throw new IllegalArgumentException("At least one connection per upstream is required");
+    }
+
+    this.connectionsPerUpstream = connectionsPerUpstream;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.udpPayloadSize = udpPayloadSize;
+  }
+
+  /**
+   * Sends the query to its upstream over TCP, its response completes the pending query. Does not
+   * block, the query fails right away if it cannot be sent. A query that completed in the
+   * meantime, e.g. because it timed out, is not sent.
+   */
+  void send(PendingQuery pending) {
+    // the caller may reuse the query as soon as it completes, so the copy is only used if the
+    // query is still waiting after it has been taken. The fence keeps the reads of the copy from
+    // moving past that check
+    final var query = new byte[pending.query.limit()];
+    pending.query.get(0, query);
+    VarHandle.acquireFence();
+
+    if (pending.response.isDone()) {
+      return;
+    }
+
+    final AtomicReferenceArray<TcpUpstreamConnection> slots = connections.computeIfAbsent(
+        pending.upstream, upstream -> new AtomicReferenceArray<>(connectionsPerUpstream));
+    final int slot = Math.floorMod(nextConnection.getAndIncrement(), connectionsPerUpstream);
+
+    // a connection that turns out to be lost is replaced once
+    for (int attempt = 0; attempt < 2 && !closed; attempt++) {
+      if (connection(slots, slot, pending.upstream).send(pending, query)) {
+        return;
+      }
+    }
+
+    pending.response.completeExceptionally(
+        new UpstreamException("Failed to send query to " + pending.upstream + " over TCP"));
+  }
+
+  private TcpUpstreamConnection connection(AtomicReferenceArray<TcpUpstreamConnection> slots,
+      int slot, InetSocketAddress upstream) {
+    TcpUpstreamConnection current = slots.get(slot);
+
+    while (current == null || current.isClosed()) {
+      final var opened = new TcpUpstreamConnection(upstream, connectTimeoutMillis,
+          udpPayloadSize);
+
+      if (slots.compareAndSet(slot, current, opened)) {
+        opened.open();
+        return opened;
+      }
+
+      current = slots.get(slot);
+    }
+
+    return current;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+
+    for (AtomicReferenceArray<TcpUpstreamConnection> slots : connections.values()) {
+      for (int i = 0; i < slots.length(); i++) {
+        final TcpUpstreamConnection connection = slots.get(i);
+
+        if (connection != null) {
+          connection.close();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import io.github.akmal2409.dnsforwarder.server.codec.Edns;
+import io.github.akmal2409.dnsforwarder.server.codec.encoders.DnsMessageEncoder;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsHeader;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceRecord;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends queries upstream over a small pool of long-lived UDP sockets without blocking the caller.
+ * Every socket has a reader thread that matches responses to the waiting queries through an
+ * {@link InFlightTable}, so many concurrent queries can share a socket. A query whose answer is
+ * truncated is sent once more to the same upstream over TCP, see {@link TcpUpstreamPool}, and the
+ * caller only gets the complete answer.
+ * <p>
+ * Every query goes out with an OPT record of the forwarder's own
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc6891">RFC 6891</a>), which advertises its
+ * UDP payload size and keeps only the DO bit of the client's record, the client's options are
+ * not passed on. The OPT record of the upstream is removed from its answer. The client gets the
+ * OPT record of the forwarder instead, see
+ * {@link io.github.akmal2409.dnsforwarder.server.forwarding.ForwardingQueryHandler}.
+ * <p>
+ * With several upstream resolvers each query goes to the one chosen by the
+ * {@link UpstreamSelector}, based on the latency and the failures seen so far. A background
+ * prober sends a query for the root name servers to every ejected resolver, so that it gets
+ * queries again once it recovers, and to every idle one, so that its latency stays current.
+ */
+public class UpstreamClient implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(UpstreamClient.class);
+
+  private static final int SEND_BUFFER_SIZE = 2048;
+  private static final int TRUNCATION_FLAG = 0x02;
+  private static final ThreadLocal<ByteBuffer> sendBuffers = ThreadLocal.withInitial(
+      () -> ByteBuffer.allocateDirect(SEND_BUFFER_SIZE));
+  private static final byte[] PROBE = encodeProbe();
+
+  private final UpstreamSelector selector;
+  private final long timeoutMillis;
+  private final long probeIntervalNanos;
+  private final List<UpstreamChannel> channels;
+  private final AtomicInteger nextChannel;
+  private final ScheduledExecutorService prober;
+  private final TcpUpstreamPool tcpPool;
+
+  private UpstreamClient(UpstreamSelector selector, Duration timeout, Duration probeInterval,
+      List<UpstreamChannel> channels, TcpUpstreamPool tcpPool) {
+    this.selector = selector;
+    this.timeoutMillis = timeout.toMillis();
+    this.probeIntervalNanos = probeInterval.toNanos();
+    this.channels = channels;
+    this.tcpPool = tcpPool;
+    this.nextChannel = new AtomicInteger();
+    this.prober = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("upstream-prober").daemon(true).factory());
+  }
+
+  /**
+   * Opens the sockets and starts their reader threads and the prober.
+   *
+   * @param upstreams     resolvers the queries are forwarded to
+   * @param channelCount   number of sockets to spread the queries across
+   * @param tcpConnections number of TCP connections per upstream for truncated answers
+   * @param udpPayloadSize largest answer over UDP the upstreams may send, larger ones are
+   *                       truncated and retried over TCP
+   * @param timeout        how long to wait for an answer before failing the query, including the
+   *                       retry over TCP
+   * @param probeInterval  how often ejected and idle resolvers are probed
+   */
+  public static UpstreamClient open(List<InetSocketAddress> upstreams, int channelCount,
+      int tcpConnections, int udpPayloadSize, Duration timeout, Duration probeInterval)
+      throws IOException {
+    Objects.requireNonNull(upstreams, "upstreams cannot be null");
+    if (channelCount < 1) {
+      throw new IllegalArgumentException("At least one upstream channel is required");
+    }
+    if (udpPayloadSize < Edns.MIN_UDP_PAYLOAD_SIZE || udpPayloadSize > 0xffff) {
+      throw new IllegalArgumentException("UDP payload size must be between 512 and 65535");
+    }
+
+    final long now = System.nanoTime();
+    final var servers = new ArrayList<UpstreamServer>(upstreams.size());
+    for (InetSocketAddress upstream : upstreams) {
+      servers.add(new UpstreamServer(Objects.requireNonNull(upstream), now));
+    }
+    final var selector = new UpstreamSelector(servers);
+    final var tcpPool = new TcpUpstreamPool(tcpConnections, Math.toIntExact(timeout.toMillis()),
+        udpPayloadSize);
+
+    final var channels = new ArrayList<UpstreamChannel>(channelCount);
+
+    try {
+      for (int i = 0; i < channelCount; i++) {
+        channels.add(new UpstreamChannel(DatagramChannel.open().bind(null), tcpPool,
+            udpPayloadSize));
+      }
+    } catch (IOException e) {
+      channels.forEach(UpstreamChannel::close);
+      throw e;
+    }
+
+    for (int i = 0; i < channels.size(); i++) {
+      channels.get(i).startReader("upstream-reader-" + i);
+    }
+
+    final var client = new UpstreamClient(selector, timeout, probeInterval, channels, tcpPool);
+    client.prober.scheduleWithFixedDelay(client::probe, 0, probeInterval.toNanos(),
+        TimeUnit.NANOSECONDS);
+    return client;
+  }
+
+  /**
+   * Sends the query upstream under a freshly allocated id. The returned future completes with the
+   * raw response, whose id is the rewritten one and not the id of the original query, or fails
+   * with a {@link java.util.concurrent.TimeoutException} if no answer arrives in time.
+   *
+   * @param query encoded DNS query between index 0 and the limit, left unmodified. It is kept
+   *              for the retry over TCP, so the caller must not modify or reuse it before the
+   *              returned future completes
+   */
+  public CompletableFuture<byte[]> query(ByteBuffer query) {
+    return query(query, selector.select());
+  }
+
+  private CompletableFuture<byte[]> query(ByteBuffer query, UpstreamServer server) {
+    final var channel = channels.get(
+        Math.floorMod(nextChannel.getAndIncrement(), channels.size()));
+    final var pending = new PendingQuery(server.address(), query, System.nanoTime());
+    final int id = channel.inFlight.register(pending);
+
+    if (id == -1) {
+      return CompletableFuture.failedFuture(
+          new UpstreamException("No free query ids left on upstream channel"));
+    }
+
+    server.querySent();
+    pending.response.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+        .whenComplete((ignored, e) -> {
+          channel.inFlight.remove(id, pending);
+          final long now = System.nanoTime();
+
+          if (e == null) {
+            server.answered(now - pending.sentAtNanos, now);
+          } else {
+            server.failed(TimeUnit.MILLISECONDS.toNanos(timeoutMillis), now);
+          }
+        });
+
+    try {
+      channel.send(query, (short) id, server.address());
+    } catch (IOException e) {
+      pending.response.completeExceptionally(
+          new UpstreamException("Failed to send query to " + server.address(), e));
+    }
+
+    return pending.response;
+  }
+
+  private void probe() {
+    final long now = System.nanoTime();
+
+    for (UpstreamServer server : selector.servers()) {
+      if (server.ejected() || server.idle(now, probeIntervalNanos)) {
+        // the outcome is recorded in the server once the probe completes
+        query(ByteBuffer.wrap(PROBE), server);
+      }
+    }
+  }
+
+  // ". IN NS" is answered by every recursive resolver, usually straight from its cache
+  private static byte[] encodeProbe() {
+    final var header = new DnsHeader((short) 0, true, (byte) 0, false, false, true, false, false,
+        (byte) 0, 1, 0, 0, 0);
+    final var probe = new DnsMessage(header,
+        new DnsQuestion[]{new DnsQuestion("", DnsType.NS, DnsClass.IN)}, new ResourceRecord[0],
+        new ResourceRecord[0], new ResourceRecord[0]);
+    final ByteBuffer buffer = ByteBuffer.allocate(SEND_BUFFER_SIZE);
+
+    new DnsMessageEncoder().encode(probe, buffer);
+
+    final var bytes = new byte[buffer.flip().remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  @Override
+  public void close() {
+    prober.shutdownNow();
+    channels.forEach(UpstreamChannel::close);
+    tcpPool.close();
+  }
+
+  private static final class UpstreamChannel {
+
+    private final DatagramChannel channel;
+    private final InFlightTable inFlight;
+    private final TcpUpstreamPool tcpPool;
+    private final int udpPayloadSize;
+    private Thread reader;
+
+    private UpstreamChannel(DatagramChannel channel, TcpUpstreamPool tcpPool,
+        int udpPayloadSize) {
+      this.channel = channel;
+      this.inFlight = new InFlightTable();
+      this.tcpPool = tcpPool;
+      this.udpPayloadSize = udpPayloadSize;
+    }
+
+    private void startReader(String name) {
+      this.reader = Thread.ofPlatform().name(name).daemon(true).start(this::readResponses);
+    }
+
+    private void send(ByteBuffer query, short id, InetSocketAddress upstream) throws IOException {
+      final int length = query.limit();
+      var buffer = sendBuffers.get();
+
+      if (buffer.capacity() < length + Edns.OPT_LENGTH) {
+        buffer = ByteBuffer.allocateDirect(length + Edns.OPT_LENGTH);
+        sendBuffers.set(buffer);
+      }
+
+      buffer.clear();
+      buffer.put(0, query, 0, length).putShort(0, id).limit(length);
+
+      Edns.replaceOpt(buffer, udpPayloadSize);
+
+      channel.send(buffer, upstream);
+    }
+
+    private void readResponses() {
+      // one byte more than advertised tells an answer the upstream should have truncated apart
+      // from one that fits exactly, the socket silently cuts off what doesn't fit
+      final var buffer = ByteBuffer.allocateDirect(udpPayloadSize + 1);
+
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          buffer.clear();
+          final SocketAddress source = channel.receive(buffer);
+          buffer.flip();
+
+          if (buffer.remaining() < 12) {
+            logger.debug("Dropping runt response from {}", source);
+            continue;
+          }
+
+          final int id = buffer.getShort(0) & 0xffff;
+          final PendingQuery pending = inFlight.take(id, (InetSocketAddress) source);
+
+          if (pending == null) {
+            logger.debug("Dropping unsolicited or late response {} from {}", id, source);
+            continue;
+          }
+
+          // https://datatracker.ietf.org/doc/html/rfc7766#section-5 the query is retried over TCP
+          // without answering the caller, the TCP response completes the same pending query
+          final boolean truncated = (buffer.get(2) & TRUNCATION_FLAG) != 0
+              || buffer.remaining() > udpPayloadSize;
+
+          if (truncated && pending.query != null) {
+            tcpPool.send(pending);
+            continue;
+          }
+
+          Edns.removeTrailingOpt(buffer);
+          final var response = new byte[buffer.remaining()];
+          buffer.get(response);
+          pending.response.complete(response);
+        }
+      } catch (ClosedChannelException e) {
+        logger.debug("Upstream channel has been closed, stopping reader");
+      } catch (IOException e) {
+        logger.error("Upstream reader crashed due to socket exception", e);
+      }
+    }
+
+    private void close() {
+      if (reader != null) {
+        reader.interrupt();
+      }
+
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.debug("Failed to close upstream channel", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+public class UpstreamException extends RuntimeException {
+
+  public UpstreamException(String message) {
+    super(message);
+  }
+
+  public UpstreamException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,72 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the upstream for a query with the power of two choices: two random servers that haven't
+ * been ejected are compared and the cheaper one by {@link UpstreamServer#cost()} wins. Compared to
+ * always taking the fastest server, the load spreads as soon as its queue grows, while a degraded
+ * server only wins against another degraded one. When every server has been ejected they are all
+ * candidates again, a query is never refused.
+ */
+final class UpstreamSelector {
+
+  private final UpstreamServer[] servers;
+
+  UpstreamSelector(List<UpstreamServer> servers) {
+    if (servers.isEmpty()) {
+      throw new IllegalArgumentException("At least one upstream is required");
+    }
+
+    this.servers = servers.toArray(new UpstreamServer[0]);
+  }
+
+  UpstreamServer select() {
+    if (servers.length == 1) {
+      return servers[0];
+    }
+
+    int healthy = 0;
+    for (UpstreamServer server : servers) {
+      if (!server.ejected()) {
+        healthy++;
+      }
+    }
+
+    final boolean includeEjected = healthy == 0;
+    final int candidates = includeEjected ? servers.length : healthy;
+
+    if (candidates == 1) {
+      return candidate(0, includeEjected);
+    }
+
+    final var random = ThreadLocalRandom.current();
+    final int first = random.nextInt(candidates);
+    int second = random.nextInt(candidates - 1);
+
+    if (second >= first) {
+      second++; // two distinct candidates
+    }
+
+    final UpstreamServer a = candidate(first, includeEjected);
+    final UpstreamServer b = candidate(second, includeEjected);
+
+    return b.cost() < a.cost() ? b : a;
+  }
+
+  // returns the n-th server that can be picked
+  private UpstreamServer candidate(int n, boolean includeEjected) {
+    for (UpstreamServer server : servers) {
+      if ((includeEjected || !server.ejected()) && n-- == 0) {
+        return server;
+      }
+    }
+
+    return servers[0]; // servers have been ejected since they were counted
+  }
+
+  UpstreamServer[] servers() {
+    return servers;
+  }
+}
@@ -0,0 +1,114 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Health and latency of a single upstream resolver. The round trip time is smoothed the same way
+ * TCP does it (<a href="https://datatracker.ietf.org/doc/html/rfc6298#section-2">RFC 6298</a>,
+ * alpha = 1/8), a query that timed out counts as a sample of the whole timeout. After a few
+ * consecutive failures the server is ejected and only probes are sent to it until one of them is
+ * answered. Updated concurrently by the upstream readers, the timeout timer and the prober.
+ */
+final class UpstreamServer {
+
+  private static final Logger logger = LoggerFactory.getLogger(UpstreamServer.class);
+
+  static final int EJECT_AFTER_FAILURES = 3;
+  private static final int SMOOTHING_SHIFT = 3;
+  private static final long UNMEASURED = -1;
+
+  private final InetSocketAddress address;
+  private final AtomicLong smoothedRttNanos = new AtomicLong(UNMEASURED);
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private volatile boolean ejected;
+  private volatile long lastCompletedNanos;
+
+  UpstreamServer(InetSocketAddress address, long nowNanos) {
+    this.address = address;
+    this.lastCompletedNanos = nowNanos;
+  }
+
+  InetSocketAddress address() {
+    return address;
+  }
+
+  void querySent() {
+    inFlight.incrementAndGet();
+  }
+
+  void answered(long rttNanos, long nowNanos) {
+    inFlight.decrementAndGet();
+    sample(rttNanos);
+    consecutiveFailures.set(0);
+    lastCompletedNanos = nowNanos;
+
+    if (ejected) {
+      ejected = false;
+      logger.info("Upstream {} answered again, sending it queries", address);
+    }
+  }
+
+  /**
+   * @param penaltyNanos how long the query was waited for, e.g. the timeout
+   */
+  void failed(long penaltyNanos, long nowNanos) {
+    inFlight.decrementAndGet();
+    sample(penaltyNanos);
+    lastCompletedNanos = nowNanos;
+
+    if (consecutiveFailures.incrementAndGet() >= EJECT_AFTER_FAILURES && !ejected) {
+      ejected = true;
+      logger.warn("Upstream {} failed {} queries in a row, ejecting it until a probe succeeds",
+          address, EJECT_AFTER_FAILURES);
+    }
+  }
+
+  private void sample(long rttNanos) {
+    long current;
+    long next;
+
+    do {
+      current = smoothedRttNanos.get();
+      next = current == UNMEASURED ? rttNanos : current + ((rttNanos - current) >> SMOOTHING_SHIFT);
+    } while (!smoothedRttNanos.compareAndSet(current, next));
+  }
+
+  /**
+   * Expected wait for one more query, the smoothed RTT scaled by the queries already waiting.
+   * Servers that haven't been measured yet cost nothing, so that they are measured right away.
+   */
+  long cost() {
+    final long rtt = smoothedRttNanos.get();
+    return rtt == UNMEASURED ? 0 : rtt * (inFlight.get() + 1);
+  }
+
+  long smoothedRttNanos() {
+    return smoothedRttNanos.get();
+  }
+
+  boolean ejected() {
+    return ejected;
+  }
+
+  /**
+   * @return whether nothing has been sent to or heard from the server for the given period
+   */
+  boolean idle(long nowNanos, long periodNanos) {
+    return inFlight.get() == 0 && nowNanos - lastCompletedNanos >= periodNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "UpstreamServer{" +
+               "address=" + address +
+               ", smoothedRttNanos=" + smoothedRttNanos +
+               ", inFlight=" + inFlight +
+               ", ejected=" + ejected +
+               '}';
+  }
+}
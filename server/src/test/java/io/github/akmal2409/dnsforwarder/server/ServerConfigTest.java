@@ -0,0 +1,82 @@
+package io.github.akmal2409.dnsforwarder.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.github.akmal2409.dnsforwarder.server.cache.ResponseCache;
+import io.github.akmal2409.dnsforwarder.server.codec.Edns;
+import io.github.akmal2409.dnsforwarder.server.udp.ListenerMode;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ServerConfigTest {
+
+  @Test
+  @DisplayName("Builder defaults to a loopback forwarder with an ephemeral port and a heap cache")
+  void buildsDefaults() {
+    final ServerConfig config = ServerConfig.builder().build();
+
+    assertThat(config.host()).isEqualTo("127.0.0.1");
+    assertThat(config.port()).isZero();
+    assertThat(config.udpListenerMode()).isEqualTo(ListenerMode.BLOCKING);
+    assertThat(config.ednsUdpPayloadSize()).isEqualTo(Edns.DEFAULT_UDP_PAYLOAD_SIZE);
+    assertThat(config.receiveBufferSize()).isEqualTo(Edns.DEFAULT_UDP_PAYLOAD_SIZE + 1);
+    assertThat(config.cacheStorage()).isEqualTo(ResponseCache.Storage.HEAP);
+    assertThat(config.cacheSnapshotFile()).isNull();
+    assertThat(config.upstreams()).hasSize(1);
+  }
+
+  @Test
+  @DisplayName("Receive buffer follows the EDNS payload size unless it is set")
+  void derivesReceiveBufferSize() {
+    assertThat(ServerConfig.builder().ednsUdpPayloadSize(4096).build().receiveBufferSize())
+        .isEqualTo(4097);
+    assertThat(ServerConfig.builder().ednsUdpPayloadSize(4096).receiveBufferSize(512).build()
+                   .receiveBufferSize())
+        .isEqualTo(512);
+  }
+
+  @Test
+  @DisplayName("Keeps its own copy of the upstreams")
+  void copiesUpstreams() {
+    final var upstreams = new ArrayList<InetSocketAddress>();
+    upstreams.add(new InetSocketAddress("127.0.0.1", 53));
+
+    final ServerConfig config = ServerConfig.builder().upstreams(upstreams).build();
+    upstreams.add(new InetSocketAddress("127.0.0.2", 53));
+
+    assertThat(config.upstreams()).hasSize(1);
+  }
+
+  @Test
+  @DisplayName("Rejects out of range values")
+  void rejectsInvalidValues() {
+    assertThatThrownBy(() -> ServerConfig.builder().port(65536).build())
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> ServerConfig.builder().listenerThreads(0).build())
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> ServerConfig.builder().ednsUdpPayloadSize(511).build())
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> ServerConfig.builder().upstreams(List.of()).build())
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> ServerConfig.builder().cacheRefreshAt(0).build())
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> ServerConfig.builder().cacheOffHeapBytes(0).build())
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> ServerConfig.builder().tcpIdleTimeout(Duration.ZERO).build())
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  @DisplayName("Rejects missing values")
+  void rejectsNulls() {
+    assertThatThrownBy(() -> ServerConfig.builder().host(null).build())
+        .isInstanceOf(NullPointerException.class);
+    assertThatThrownBy(() -> ServerConfig.builder().upstreamTimeout(null).build())
+        .isInstanceOf(NullPointerException.class);
+  }
+}
@@ -0,0 +1,41 @@
+package io.github.akmal2409.dnsforwarder.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class ServerTest {
+
+  @Test
+  @DisplayName("Can be started again after a failed start")
+  void restartsAfterFailedStart() throws IOException, InterruptedException {
+    final ServerSocket occupant = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    final Server server = Server.withConfig(ServerConfig.builder()
+                                                 .port(occupant.getLocalPort())
+                                                 .listenerThreads(1)
+                                                 .workerThreads(1)
+                                                 .bufferPoolSize(4)
+                                                 .upstream(new InetSocketAddress("127.0.0.1", 9))
+                                                 .build());
+
+    try (occupant) {
+      assertThatThrownBy(server::start).isInstanceOf(StartupFailedException.class);
+      assertThatThrownBy(() -> server.shutdown(0, TimeUnit.SECONDS))
+          .isInstanceOf(IllegalStateException.class);
+    }
+
+    server.start();
+
+    assertThat(server.port()).isEqualTo(occupant.getLocalPort());
+    assertThat(server.shutdown(5, TimeUnit.SECONDS)).isTrue();
+  }
+}
@@ -0,0 +1,101 @@
+package io.github.akmal2409.dnsforwarder.server.buffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class BufferPoolTest {
+
+  @Test
+  @DisplayName("Released buffer is handed out again cleared")
+  void reusesReleasedBuffer() {
+    final var pool = new BufferPool(1, 64);
+
+    final PooledBuffer first = pool.acquire();
+    first.buffer().putInt(42).flip();
+    first.release();
+
+    final PooledBuffer second = pool.acquire();
+
+    assertThat(second).isSameAs(first);
+    assertThat(second.buffer().position()).isZero();
+    assertThat(second.buffer().limit()).isEqualTo(64);
+    assertThat(pool.available()).isZero();
+  }
+
+  @Test
+  @DisplayName("Allocates an unpooled buffer once the pool is empty")
+  void fallsBackWhenExhausted() {
+    final var pool = new BufferPool(1, 64);
+    final PooledBuffer pooled = pool.acquire();
+
+    final PooledBuffer extra = pool.acquire();
+    extra.release();
+
+    assertThat(extra.buffer().capacity()).isEqualTo(64);
+    assertThat(pool.exhaustedCount()).isEqualTo(1);
+    assertThat(pool.available()).isZero();
+
+    pooled.release();
+    assertThat(pool.available()).isEqualTo(1);
+  }
+
+  @Test
+  @DisplayName("Allocates an unpooled buffer for a capacity larger than the pooled ones")
+  void allocatesLargerBuffer() {
+    final var pool = new BufferPool(1, 64);
+
+    final PooledBuffer pooled = pool.acquire(64);
+    final PooledBuffer larger = pool.acquire(65);
+    larger.release();
+
+    assertThat(pooled.buffer().capacity()).isEqualTo(64);
+    assertThat(larger.buffer().capacity()).isEqualTo(65);
+    assertThat(pool.exhaustedCount()).isZero();
+    assertThat(pool.available()).isZero();
+  }
+
+  @Test
+  @DisplayName("Buffers do not overlap even when spread over several slabs")
+  void buffersDoNotOverlap() {
+    final var pool = new BufferPool(3, 1 << 19);
+    final PooledBuffer a = pool.acquire();
+    final PooledBuffer b = pool.acquire();
+    final PooledBuffer c = pool.acquire();
+
+    a.buffer().put(0, (byte) 1);
+    b.buffer().put(0, (byte) 2);
+    c.buffer().put(0, (byte) 3);
+
+    assertThat(a.buffer().get(0)).isEqualTo((byte) 1);
+    assertThat(b.buffer().get(0)).isEqualTo((byte) 2);
+    assertThat(c.buffer().get(0)).isEqualTo((byte) 3);
+    assertThat(pool.exhaustedCount()).isZero();
+  }
+
+  @Test
+  @DisplayName("Runs the release action of the holder only for its own release")
+  void runsReleaseActionOnce() {
+    final var pool = new BufferPool(1, 64);
+    final var released = new AtomicInteger();
+
+    final PooledBuffer first = pool.acquire();
+    first.whenReleased(released::incrementAndGet);
+    first.release();
+    pool.acquire().release();
+
+    assertThat(released.get()).isOne();
+  }
+
+  @Test
+  @DisplayName("Releasing a buffer twice throws")
+  void doubleReleaseThrows() {
+    final PooledBuffer buffer = new BufferPool(1, 64).acquire();
+    buffer.release();
+
+    assertThatThrownBy(buffer::release).isInstanceOf(IllegalStateException.class);
+  }
+}
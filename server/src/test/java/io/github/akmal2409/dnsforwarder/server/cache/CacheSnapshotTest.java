@@ -0,0 +1,214 @@
+package io.github.akmal2409.dnsforwarder.server.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.github.akmal2409.dnsforwarder.server.cache.ResponseCache.Lookup;
+import io.github.akmal2409.dnsforwarder.server.cache.ResponseCache.Storage;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.MessageLayout;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ARecord;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import io.github.akmal2409.dnsforwarder.server.shared.MutableClock;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CacheSnapshotTest {
+
+  private static final long MAX_BYTES = 1 << 20;
+
+  private final MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+
+  @TempDir
+  Path directory;
+
+  @Test
+  @DisplayName("Restores the responses with their TTLs aged by the time since they were received")
+  void restoresResponses() throws IOException {
+    final var snapshot = new CacheSnapshot(directory.resolve("cache.snapshot"));
+    final var cache = cache(Storage.OFF_HEAP);
+    final var google = key("google.com");
+    final var github = key("github.com");
+    final byte[] response = response("google.com", 300);
+
+    put(cache, google, response);
+    put(cache, github, response("github.com", 60));
+
+    assertThat(snapshot.write(cache)).isEqualTo(2);
+
+    clock.advance(Duration.ofSeconds(20));
+    final var restored = cache(Storage.HEAP);
+
+    assertThat(snapshot.load(restored)).isEqualTo(2);
+    assertThat(restored.get(google).response()).isEqualTo(response);
+
+    final var out = ByteBuffer.allocate(512);
+    assertThat(restored.lookup(github, (short) 7, out)).isEqualTo(Lookup.HIT);
+
+    final byte[] served = Arrays.copyOf(out.array(), out.limit());
+    assertThat(MessageLayout.scan(served).ttl(served, 0)).isEqualTo(40);
+  }
+
+  @Test
+  @DisplayName("Skips the responses that expired since the snapshot was written")
+  void skipsExpiredResponses() throws IOException {
+    final var snapshot = new CacheSnapshot(directory.resolve("cache.snapshot"));
+    final var cache = cache(Storage.HEAP);
+
+    put(cache, key("google.com"), response("google.com", 300));
+    put(cache, key("github.com"), response("github.com", 60));
+    snapshot.write(cache);
+
+    clock.advance(Duration.ofSeconds(60));
+    final var restored = cache(Storage.HEAP);
+
+    assertThat(snapshot.load(restored)).isEqualTo(1);
+    assertThat(restored.get(key("github.com"))).isNull();
+    assertThat(restored.get(key("google.com"))).isNotNull();
+  }
+
+  @Test
+  @DisplayName("Replaces the previous snapshot")
+  void replacesPreviousSnapshot() throws IOException {
+    final var snapshot = new CacheSnapshot(directory.resolve("cache.snapshot"));
+    final var cache = cache(Storage.HEAP);
+
+    put(cache, key("google.com"), response("google.com", 300));
+    snapshot.write(cache);
+    put(cache, key("github.com"), response("github.com", 300));
+    snapshot.write(cache);
+
+    assertThat(snapshot.load(cache(Storage.HEAP))).isEqualTo(2);
+    assertThat(Files.exists(directory.resolve("cache.snapshot.tmp"))).isFalse();
+  }
+
+  @Test
+  @DisplayName("Starts cold without a snapshot and rejects a file that isn't one")
+  void rejectsInvalidSnapshot() throws IOException {
+    final var snapshot = new CacheSnapshot(directory.resolve("cache.snapshot"));
+
+    assertThat(snapshot.load(cache(Storage.HEAP))).isZero();
+
+    Files.write(snapshot.file(), new byte[]{'n', 'o', 'p', 'e', 0, 1, 0, 0, 0, 1});
+
+    assertThatThrownBy(() -> snapshot.load(cache(Storage.HEAP)))
+        .isInstanceOf(IOException.class);
+  }
+
+  @Test
+  @DisplayName("Rejects a truncated snapshot")
+  void rejectsTruncatedSnapshot() throws IOException {
+    final var snapshot = new CacheSnapshot(directory.resolve("cache.snapshot"));
+    final var cache = cache(Storage.HEAP);
+
+    put(cache, key("google.com"), response("google.com", 300));
+    snapshot.write(cache);
+
+    final byte[] bytes = Files.readAllBytes(snapshot.file());
+    Files.write(snapshot.file(), Arrays.copyOf(bytes, bytes.length - 10));
+
+    assertThatThrownBy(() -> snapshot.load(cache(Storage.HEAP)))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("truncated");
+  }
+
+  @Test
+  @DisplayName("Restores the responses under the DO and CD bits they were asked with")
+  void restoresQueryFlags() throws IOException {
+    final var snapshot = new CacheSnapshot(directory.resolve("cache.snapshot"));
+    final var cache = cache(Storage.HEAP);
+    final var plain = key("google.com");
+    final var dnssec = new CacheKey(plain.name(), plain.type(), plain.dnsClass(), true, true);
+    final byte[] response = response("google.com", 300);
+
+    put(cache, dnssec, response);
+    snapshot.write(cache);
+
+    final var restored = cache(Storage.HEAP);
+
+    assertThat(snapshot.load(restored)).isEqualTo(1);
+    assertThat(restored.get(dnssec).response()).isEqualTo(response);
+    assertThat(restored.get(plain)).isNull();
+  }
+
+  @Test
+  @DisplayName("Rejects a snapshot with a TTL offset outside of its response")
+  void rejectsTtlOffsetOutsideResponse() throws IOException {
+    final var snapshot = new CacheSnapshot(directory.resolve("cache.snapshot"));
+    final var cache = cache(Storage.HEAP);
+
+    put(cache, key("google.com"), response("google.com", 300));
+    snapshot.write(cache);
+
+    // file header, name length and name, type, class, flags, timestamps, max TTL and the offset
+    // count
+    final int ttlOffsetPosition = 10 + 1 + 12 + 2 + 2 + 1 + 8 + 8 + 4 + 2;
+    final byte[] bytes = Files.readAllBytes(snapshot.file());
+    bytes[ttlOffsetPosition] = (byte) 0xff;
+    Files.write(snapshot.file(), bytes);
+
+    final var restored = cache(Storage.HEAP);
+
+    assertThatThrownBy(() -> snapshot.load(restored))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("corrupted");
+    assertThat(restored.get(key("google.com"))).isNull();
+  }
+
+  @Test
+  @DisplayName("Rejects a snapshot with a name that isn't lower-cased")
+  void rejectsNonCanonicalName() throws IOException {
+    final var snapshot = new CacheSnapshot(directory.resolve("cache.snapshot"));
+    final var cache = cache(Storage.HEAP);
+
+    put(cache, key("google.com"), response("google.com", 300));
+    snapshot.write(cache);
+
+    // file header, name length and the length of the first label
+    final int firstLetterPosition = 10 + 1 + 1;
+    final byte[] bytes = Files.readAllBytes(snapshot.file());
+    bytes[firstLetterPosition] = 'G';
+    Files.write(snapshot.file(), bytes);
+
+    assertThatThrownBy(() -> snapshot.load(cache(Storage.HEAP)))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("corrupted");
+  }
+
+  private ResponseCache cache(Storage storage) {
+    return new ResponseCache(MAX_BYTES, 4, storage, MAX_BYTES, Duration.ofDays(1), 1.0,
+        Integer.MAX_VALUE, Duration.ZERO, clock);
+  }
+
+  private static CacheKey key(String name) {
+    return CacheKey.of(new DnsQuestion(name, DnsType.A, DnsClass.IN));
+  }
+
+  private static void put(ResponseCache cache, CacheKey key, byte[] response) {
+    cache.put(key, response, MessageLayout.scan(response));
+  }
+
+  private static byte[] response(String name, long ttl) {
+    try {
+      final var address = (Inet4Address) Inet4Address.getByName("10.0.0.1");
+
+      return DnsPacketGenerator.createMessage(c -> c.query(false)
+          .question(new DnsQuestion(name, DnsType.A, DnsClass.IN))
+          .answer(new ARecord(name, DnsClass.IN, ttl, address)));
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
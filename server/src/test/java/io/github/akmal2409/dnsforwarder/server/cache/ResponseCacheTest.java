@@ -0,0 +1,376 @@
+package io.github.akmal2409.dnsforwarder.server.cache;
+
+import static io.github.akmal2409.dnsforwarder.server.common.ByteUtils.read2BytesUnsignedAsShort;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.cache.ResponseCache.Lookup;
+import io.github.akmal2409.dnsforwarder.server.cache.ResponseCache.Storage;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsMessageDecoder;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.MessageLayout;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ARecord;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.Opt;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceRecord;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.SOA;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import io.github.akmal2409.dnsforwarder.server.shared.MutableClock;
+import java.net.Inet4Address;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ResponseCacheTest {
+
+  private static final long MAX_BYTES = 1 << 20;
+  private static final byte NAME_ERROR = 3;
+  private static final DnsQuestion question = new DnsQuestion("google.com", DnsType.A,
+      DnsClass.IN);
+  private static final CacheKey key = CacheKey.of(question);
+
+  private final MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+
+  @Test
+  @DisplayName("Serves the response until its TTL runs out")
+  void expiresAfterTtl() throws UnknownHostException {
+    final var cache = new ResponseCache(MAX_BYTES, Duration.ofDays(1), clock);
+    final var response = response(60);
+
+    cache.put(key, response, MessageLayout.scan(response));
+    clock.advance(Duration.ofSeconds(59));
+
+    assertThat(cache.get(key).response()).isEqualTo(response);
+
+    clock.advance(Duration.ofSeconds(1));
+
+    assertThat(cache.get(key)).isNull();
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  @DisplayName("Keys are case insensitive")
+  void keysAreCaseInsensitive() throws UnknownHostException {
+    final var cache = new ResponseCache(MAX_BYTES, Duration.ofDays(1), clock);
+
+    put(cache, key, response(60));
+
+    assertThat(cache.get(CacheKey.of(new DnsQuestion("gOOgle.COM", DnsType.A, DnsClass.IN))))
+        .isNotNull();
+  }
+
+  @Test
+  @DisplayName("Evicts the least recently used response when full")
+  void evictsLeastRecentlyUsed() throws UnknownHostException {
+    final var other = new CacheKey(DomainName.of("mail.google.com"), DnsType.A, DnsClass.IN);
+    final var third = new CacheKey(DomainName.of("maps.google.com"), DnsType.A, DnsClass.IN);
+    final var probe = new ResponseCache(MAX_BYTES, Duration.ofDays(1), clock);
+    put(probe, other, response(60));
+    // room for two of the responses, the name of the first key is shorter than the others
+    final var cache = new ResponseCache(2 * probe.bytes() + 16, Duration.ofDays(1), clock);
+
+    put(cache, key, response(60));
+    put(cache, other, response(60));
+    cache.get(key);
+    put(cache, third, response(60));
+
+    assertThat(cache.get(key)).isNotNull();
+    assertThat(cache.get(other)).isNull();
+    assertThat(cache.get(third)).isNotNull();
+  }
+
+  @Test
+  @DisplayName("Accounts each response with its wire length and the estimated overhead")
+  void accountsFootprint() throws UnknownHostException {
+    final var cache = new ResponseCache(MAX_BYTES, Duration.ofDays(1), clock);
+    final var response = response(60, 60);
+
+    put(cache, key, response);
+
+    // two answers with an aged TTL each, OPT's TTL field is left alone
+    final long footprint = ResponseCache.ENTRY_OVERHEAD_BYTES + key.name().wireLength()
+                               + response.length + 2 * Integer.BYTES;
+    assertThat(cache.bytes()).isEqualTo(footprint);
+
+    put(cache, key, response(60, 60));
+
+    assertThat(cache.bytes()).isEqualTo(footprint);
+    assertThat(cache.size()).isOne();
+  }
+
+  @Test
+  @DisplayName("Each shard stays within its share of the limit")
+  void staysWithinLimitAcrossShards() throws UnknownHostException {
+    final long maxBytes = 16 * 1024;
+    final var cache = new ResponseCache(maxBytes, 4, Storage.HEAP, 0, Duration.ofDays(1), 1.0,
+        Integer.MAX_VALUE, Duration.ZERO, clock);
+
+    for (int i = 0; i < 1000; i++) {
+      put(cache, new CacheKey(DomainName.of("host" + i + ".google.com"), DnsType.A, DnsClass.IN),
+          response(60));
+    }
+
+    assertThat(cache.bytes()).isLessThanOrEqualTo(maxBytes);
+    assertThat(cache.size()).isGreaterThan(0);
+  }
+
+  @Test
+  @DisplayName("Off-heap cache serves the same response as the heap one")
+  void servesOffHeapResponse() throws UnknownHostException {
+    final var heap = new ResponseCache(MAX_BYTES, Duration.ofDays(1), clock);
+    final var offHeap = offHeapCache(MAX_BYTES, MAX_BYTES);
+    final var response = response(300, 120);
+    final var heapBuffer = ByteBuffer.allocate(512);
+    final var offHeapBuffer = ByteBuffer.allocate(512);
+
+    put(heap, key, response);
+    put(offHeap, key, response.clone());
+    clock.advance(Duration.ofSeconds(100));
+
+    assertThat(offHeap.lookup(key, (short) 4242, offHeapBuffer)).isEqualTo(Lookup.HIT);
+    heap.lookup(key, (short) 4242, heapBuffer);
+
+    assertThat(offHeapBuffer).isEqualTo(heapBuffer);
+    assertThat(offHeap.get(key).response()).isEqualTo(response);
+  }
+
+  @Test
+  @DisplayName("Off-heap cache reuses the slabs of replaced responses")
+  void reclaimsOffHeapSlabs() throws UnknownHostException {
+    final var cache = offHeapCache(MAX_BYTES, 16 * 1024);
+    final var other = new CacheKey(DomainName.of("mail.google.com"), DnsType.A, DnsClass.IN);
+
+    put(cache, other, response(60));
+
+    // many times the arena's size, the first slab is reused before long
+    for (int i = 0; i < 1000; i++) {
+      put(cache, key, response(60));
+    }
+
+    assertThat(cache.get(key)).isNotNull();
+    assertThat(cache.get(other)).isNull();
+    assertThat(cache.size()).isOne();
+    assertThat(cache.bytes()).isEqualTo(
+        ResponseCache.ENTRY_OVERHEAD_BYTES + key.name().wireLength() + Integer.BYTES);
+  }
+
+  @Test
+  @DisplayName("Off-heap responses count only their index against the heap limit")
+  void countsOnlyIndexOfOffHeapResponses() throws UnknownHostException {
+    final var cache = offHeapCache(MAX_BYTES, MAX_BYTES);
+
+    put(cache, key, response(60));
+
+    assertThat(cache.bytes()).isEqualTo(
+        ResponseCache.ENTRY_OVERHEAD_BYTES + key.name().wireLength() + Integer.BYTES);
+  }
+
+  @Test
+  @DisplayName("Caps the TTL and ignores responses that must not be cached")
+  void capsTtl() throws UnknownHostException {
+    final var cache = new ResponseCache(MAX_BYTES, Duration.ofSeconds(30), clock);
+
+    put(cache, key, response(0));
+    assertThat(cache.get(key)).isNull();
+
+    put(cache, key, response(3600));
+    clock.advance(Duration.ofSeconds(30));
+    assertThat(cache.get(key)).isNull();
+  }
+
+  @Test
+  @DisplayName("Cacheable TTL is the minimum TTL among records, OPT is ignored")
+  void cacheableTtlIgnoresOpt() throws UnknownHostException {
+    final var response = response(300, 120);
+
+    assertThat(ResponseCache.cacheableTtlOf(response, MessageLayout.scan(response)))
+        .isEqualTo(120);
+  }
+
+  @Test
+  @DisplayName("Responses without answers are not cacheable")
+  void emptyResponseIsNotCacheable() {
+    final var response = DnsPacketGenerator.createMessage(c -> c.query(false)
+        .question(question));
+
+    assertThat(ResponseCache.cacheableTtlOf(response, MessageLayout.scan(response))).isZero();
+  }
+
+  @Test
+  @DisplayName("Served response carries the client's id and TTLs reduced by the time cached")
+  void writesPatchedResponse() throws UnknownHostException {
+    final var cache = new ResponseCache(MAX_BYTES, Duration.ofDays(1), clock);
+    final var buffer = ByteBuffer.allocateDirect(512);
+
+    put(cache, key, response(300, 120));
+    clock.advance(Duration.ofSeconds(100));
+
+    assertThat(cache.lookup(key, (short) 4242, buffer)).isEqualTo(Lookup.HIT);
+
+    final var served = new byte[buffer.remaining()];
+    buffer.get(served);
+    final DnsMessage message = DnsMessageDecoder.fromBytes(served).decode();
+
+    assertThat(read2BytesUnsignedAsShort(served, 0)).isEqualTo((short) 4242);
+    assertThat(message.answers()[0].ttl).isEqualTo(200);
+    assertThat(message.answers()[1].ttl).isEqualTo(20);
+    // OPT's TTL field holds the extended flags and must be left as is
+    assertThat(message.additional()[0].ttl).isEqualTo(7);
+  }
+
+  @Test
+  @DisplayName("Nothing is written when there is no fresh response")
+  void writesNothingOnMiss() {
+    final var cache = new ResponseCache(MAX_BYTES, Duration.ofDays(1), clock);
+    final var buffer = ByteBuffer.allocate(512);
+
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.MISS);
+    assertThat(buffer.position()).isZero();
+  }
+
+  @Test
+  @DisplayName("Asks once for a refresh of a hot response that used up the refresh fraction")
+  void refreshesHotResponse() throws UnknownHostException {
+    final var cache = new ResponseCache(MAX_BYTES, 1, Storage.HEAP, 0, Duration.ofDays(1), 0.9, 2,
+        Duration.ZERO, clock);
+    final var buffer = ByteBuffer.allocate(512);
+
+    put(cache, key, response(100));
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.HIT);
+
+    clock.advance(Duration.ofSeconds(89));
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.HIT);
+
+    clock.advance(Duration.ofSeconds(1));
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.HIT_REFRESH);
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.HIT);
+
+    put(cache, key, response(100));
+    clock.advance(Duration.ofSeconds(95));
+    cache.lookup(key, (short) 1, buffer);
+
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.HIT_REFRESH);
+  }
+
+  @Test
+  @DisplayName("Lets a response that is not hot enough expire")
+  void doesNotRefreshColdResponse() throws UnknownHostException {
+    final var cache = new ResponseCache(MAX_BYTES, 1, Storage.HEAP, 0, Duration.ofDays(1), 0.9, 3,
+        Duration.ZERO, clock);
+    final var buffer = ByteBuffer.allocate(512);
+
+    put(cache, key, response(100));
+    clock.advance(Duration.ofSeconds(95));
+
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.HIT);
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.HIT);
+  }
+
+  @Test
+  @DisplayName("Keeps an expired response to be served stale with a short TTL")
+  void servesStaleResponse() throws UnknownHostException {
+    final var cache = new ResponseCache(MAX_BYTES, 1, Storage.HEAP, 0, Duration.ofDays(1), 1.0,
+        Integer.MAX_VALUE, Duration.ofHours(1), clock);
+    final var buffer = ByteBuffer.allocate(512);
+
+    put(cache, key, response(60));
+    clock.advance(Duration.ofMinutes(30));
+
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.STALE);
+    assertThat(buffer.position()).isZero();
+    assertThat(cache.get(key)).isNull();
+    assertThat(cache.writeStaleTo(key, (short) 77, buffer)).isTrue();
+
+    final var served = new byte[buffer.remaining()];
+    buffer.get(served);
+    final DnsMessage message = DnsMessageDecoder.fromBytes(served).decode();
+
+    assertThat(read2BytesUnsignedAsShort(served, 0)).isEqualTo((short) 77);
+    assertThat(message.answers()[0].ttl).isEqualTo(ResponseCache.STALE_TTL_SECONDS);
+
+    clock.advance(Duration.ofMinutes(32));
+
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.MISS);
+    assertThat(cache.writeStaleTo(key, (short) 1, buffer)).isFalse();
+  }
+
+  @Test
+  @DisplayName("Caches NXDOMAIN for the SOA minimum and caps the served SOA TTL to it")
+  void cachesNameError() {
+    final var cache = new ResponseCache(MAX_BYTES, Duration.ofDays(1), clock);
+    final var buffer = ByteBuffer.allocate(512);
+    final var response = negativeResponse(NAME_ERROR, 3600, 300);
+
+    assertThat(ResponseCache.cacheableTtlOf(response, MessageLayout.scan(response)))
+        .isEqualTo(300);
+
+    put(cache, key, response);
+    clock.advance(Duration.ofSeconds(100));
+
+    assertThat(cache.lookup(key, (short) 1, buffer)).isEqualTo(Lookup.HIT);
+
+    final var served = new byte[buffer.remaining()];
+    buffer.get(served);
+    final DnsMessage message = DnsMessageDecoder.fromBytes(served).decode();
+
+    assertThat(message.nameServers()[0].ttl).isEqualTo(200);
+
+    clock.advance(Duration.ofSeconds(200));
+
+    assertThat(cache.get(key)).isNull();
+  }
+
+  @Test
+  @DisplayName("Caches NODATA for the SOA TTL when it is below the minimum")
+  void cachesNoData() {
+    final var response = negativeResponse((byte) 0, 60, 300);
+
+    assertThat(ResponseCache.cacheableTtlOf(response, MessageLayout.scan(response)))
+        .isEqualTo(60);
+  }
+
+  @Test
+  @DisplayName("Negative responses without an SOA are not cacheable")
+  void negativeResponseWithoutSoaIsNotCacheable() {
+    final var response = DnsPacketGenerator.createMessage(c -> c.query(false)
+        .responseCode(NAME_ERROR).question(question));
+
+    assertThat(ResponseCache.cacheableTtlOf(response, MessageLayout.scan(response))).isZero();
+  }
+
+  private static byte[] negativeResponse(byte responseCode, long soaTtl, long minimum) {
+    return DnsPacketGenerator.createMessage(c -> c.query(false).responseCode(responseCode)
+        .question(question)
+        .nameServer(new SOA("com", DnsClass.IN, soaTtl, "a.gtld-servers.net",
+            "nstld.verisign-grs.com", 1700000000L, 1800, 900, 604800, minimum)));
+  }
+
+  private ResponseCache offHeapCache(long maxBytes, long offHeapBytes) {
+    return new ResponseCache(maxBytes, 1, Storage.OFF_HEAP, offHeapBytes, Duration.ofDays(1), 1.0,
+        Integer.MAX_VALUE, Duration.ZERO, clock);
+  }
+
+  private static void put(ResponseCache cache, CacheKey key, byte[] response) {
+    cache.put(key, response, MessageLayout.scan(response));
+  }
+
+  private static byte[] response(long... ttls) throws UnknownHostException {
+    final var address = (Inet4Address) Inet4Address.getByName("10.0.0.1");
+    final var answers = new ResourceRecord[ttls.length];
+
+    for (int i = 0; i < ttls.length; i++) {
+      answers[i] = new ARecord("google.com", DnsClass.IN, ttls[i], address);
+    }
+
+    return DnsPacketGenerator.createMessage(c -> c.query(false)
+        .question(question)
+        .answers(List.of(answers))
+        .additional(new Opt("google.com", (short) 1232, 7, List.of())));
+  }
+}
@@ -0,0 +1,47 @@
+package io.github.akmal2409.dnsforwarder.server.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class SlabArenaTest {
+
+  private static final int SLAB_SIZE = 4096;
+
+  private final List<CacheKey> evicted = new ArrayList<>();
+
+  @Test
+  @DisplayName("Reusing a slab only evicts the responses that have not been released")
+  void skipsReleasedResponses() {
+    final var arena = new SlabArena(2 * SLAB_SIZE, SLAB_SIZE);
+
+    final CachedResponse released = arena.store(key("a.com"), response(), this::evicted);
+    arena.store(key("b.com"), response(), this::evicted);
+    arena.release(released);
+
+    arena.store(key("c.com"), response(), this::evicted);
+    assertThat(evicted).isEmpty();
+
+    arena.store(key("d.com"), response(), this::evicted);
+    assertThat(evicted).containsExactly(key("b.com"));
+  }
+
+  private void evicted(CacheKey key, CachedResponse response) {
+    evicted.add(key);
+  }
+
+  // more than half a slab, so that every response gets a slab of its own
+  private static CachedResponse response() {
+    return new CachedResponse(new byte[SLAB_SIZE / 2 + 1], new int[0], 0, 60, 60);
+  }
+
+  private static CacheKey key(String name) {
+    return new CacheKey(DomainName.of(name), DnsType.A, DnsClass.IN);
+  }
+}
@@ -0,0 +1,122 @@
+package io.github.akmal2409.dnsforwarder.server.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ARecord;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import java.net.Inet4Address;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class EdnsTest {
+
+  private static final DnsQuestion QUESTION = new DnsQuestion("google.com", DnsType.A,
+      DnsClass.IN);
+
+  @Test
+  @DisplayName("Finds the OPT record after the answers and reads its payload size and DO bit")
+  void readsOpt() throws UnknownHostException {
+    final ARecord answer = answer();
+    final ByteBuffer response = withOpt(DnsPacketGenerator.createMessage(
+        c -> c.question(QUESTION).answer(answer)), 4096, true);
+
+    final int opt = Edns.optOffset(response);
+
+    assertThat(opt).isEqualTo(response.limit() - Edns.OPT_LENGTH);
+    assertThat(Edns.udpPayloadSize(response, opt)).isEqualTo(4096);
+    assertThat(Edns.dnssecOk(response, opt)).isTrue();
+  }
+
+  @Test
+  @DisplayName("Assumes 512 bytes without an OPT record or with a smaller advertised size")
+  void defaultsPayloadSize() {
+    final ByteBuffer plain = ByteBuffer.wrap(DnsPacketGenerator.createMessage(
+        c -> c.query(true).question(QUESTION)));
+    final ByteBuffer small = withOpt(DnsPacketGenerator.createMessage(
+        c -> c.query(true).question(QUESTION)), 100, false);
+
+    assertThat(Edns.optOffset(plain)).isEqualTo(-1);
+    assertThat(Edns.udpPayloadSize(plain, -1)).isEqualTo(512);
+    assertThat(Edns.udpPayloadSize(small, Edns.optOffset(small))).isEqualTo(512);
+  }
+
+  @Test
+  @DisplayName("Appends an OPT record that can be read back and removed again")
+  void appendsAndRemovesOpt() {
+    final byte[] query = DnsPacketGenerator.createMessage(c -> c.query(true).question(QUESTION));
+    final ByteBuffer buffer = withOpt(query, 1232, true);
+
+    final int opt = Edns.optOffset(buffer);
+    assertThat(buffer.limit()).isEqualTo(query.length + Edns.OPT_LENGTH);
+    assertThat(opt).isEqualTo(query.length);
+    assertThat(Edns.udpPayloadSize(buffer, opt)).isEqualTo(1232);
+    assertThat(Edns.dnssecOk(buffer, opt)).isTrue();
+
+    assertThat(Edns.removeTrailingOpt(buffer)).isTrue();
+    assertThat(buffer.limit()).isEqualTo(query.length);
+    assertThat(buffer).isEqualTo(ByteBuffer.wrap(query));
+  }
+
+  @Test
+  @DisplayName("Replaces the OPT record of a query and cuts off the records following it")
+  void replacesQueryOpt() throws UnknownHostException {
+    final ARecord answer = answer();
+    final byte[] query = DnsPacketGenerator.createMessage(c -> c.query(true).question(QUESTION));
+    final byte[] withAnswer = DnsPacketGenerator.createMessage(
+        c -> c.query(true).question(QUESTION).answer(answer));
+    final ByteBuffer buffer = ByteBuffer.allocate(withAnswer.length + Edns.OPT_LENGTH)
+                                  .put(query).flip();
+
+    // the answer goes into the additional section after the OPT record, its name still points
+    // at the question
+    Edns.appendOpt(buffer, 4096, true);
+    final int end = buffer.limit();
+    buffer.limit(buffer.capacity())
+        .put(end, withAnswer, query.length, withAnswer.length - query.length)
+        .putShort(10, (short) 2);
+
+    Edns.replaceOpt(buffer, 1232);
+
+    final int opt = Edns.optOffset(buffer);
+    assertThat(opt).isEqualTo(query.length);
+    assertThat(buffer.limit()).isEqualTo(query.length + Edns.OPT_LENGTH);
+    assertThat(buffer.getShort(10)).isEqualTo((short) 1);
+    assertThat(Edns.udpPayloadSize(buffer, opt)).isEqualTo(1232);
+    assertThat(Edns.dnssecOk(buffer, opt)).isTrue();
+  }
+
+  @Test
+  @DisplayName("Truncates a response down to the question and sets the TC bit")
+  void truncatesResponse() throws UnknownHostException {
+    final ARecord answer = answer();
+    final byte[] question = DnsPacketGenerator.createMessage(c -> c.question(QUESTION));
+    final ByteBuffer response = withOpt(DnsPacketGenerator.createMessage(
+        c -> c.question(QUESTION).answer(answer).answer(answer)), 4096, false);
+
+    Edns.truncate(response);
+
+    assertThat(response.limit()).isEqualTo(question.length);
+    assertThat(response.get(2) & 0x02).isEqualTo(0x02);
+    assertThat(response.getShort(4)).isEqualTo((short) 1);
+    assertThat(response.getShort(6)).isZero();
+    assertThat(response.getShort(8)).isZero();
+    assertThat(response.getShort(10)).isZero();
+  }
+
+  private static ByteBuffer withOpt(byte[] message, int udpPayloadSize, boolean dnssecOk) {
+    final ByteBuffer buffer = ByteBuffer.allocate(message.length + Edns.OPT_LENGTH)
+                                  .put(message).flip();
+    Edns.appendOpt(buffer, udpPayloadSize, dnssecOk);
+    return buffer;
+  }
+
+  private static ARecord answer() throws UnknownHostException {
+    return new ARecord("google.com", DnsClass.IN, 100,
+        (Inet4Address) Inet4Address.getByName("10.189.11.12"));
+  }
+}
@@ -7,6 +7,7 @@ import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecod
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.DecodedPointerLabel;
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.DecodedValueLabel;
 import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.ParsedDomainName;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
 import io.github.akmal2409.dnsforwarder.server.shared.CodecUtils;
 import io.github.akmal2409.dnsforwarder.server.shared.CodecUtils.PointerLabel;
 import io.github.akmal2409.dnsforwarder.server.shared.CodecUtils.ValueLabel;
@@ -114,4 +115,31 @@ class DnsDomainNameDecoderTest {
         .usingRecursiveComparison()
         .isEqualTo(expectedParsed);
   }
+
+  @Test
+  @DisplayName("Decodes a compressed name into its lower-cased canonical form")
+  void decodesCompressedDomainName() {
+    final var mail = CodecUtils.encodedLabels(List.of(new ValueLabel("Mail"),
+        new ValueLabel("GOOGLE"), new ValueLabel("com")));
+    final var www = new byte[]{3, 'w', 'w', 'w', (byte) 0xc0, 5}; // pointer to "GOOGLE"
+    final var data = new byte[mail.length + www.length];
+    System.arraycopy(mail, 0, data, 0, mail.length);
+    System.arraycopy(www, 0, data, mail.length, www.length);
+
+    final var decoded = new DnsDomainNameDecoder(data).decodeDomainNameAt(mail.length);
+
+    assertThat(decoded.item).isEqualTo(DomainName.of("www.google.com"));
+    assertThat(decoded.item.toString()).isEqualTo("www.google.com");
+    assertThat(decoded.nextByteOffset).isEqualTo(data.length);
+  }
+
+  @Test
+  @DisplayName("Fails on a pointer that doesn't point backwards")
+  void failsOnPointerLoop() {
+    final var data = new byte[]{2, 'a', 'b', (byte) 0xc0, 0};
+
+    assertThatThrownBy(() -> new DnsDomainNameDecoder(data).decodeDomainNameAt(0))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Pointer 0 at offset 3 does not point backwards");
+  }
 }
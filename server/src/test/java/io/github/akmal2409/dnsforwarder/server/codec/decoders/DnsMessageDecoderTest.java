@@ -1,12 +1,16 @@
 package io.github.akmal2409.dnsforwarder.server.codec.decoders;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import io.github.akmal2409.dnsforwarder.server.codec.encoders.DnsMessageEncoder;
+import io.github.akmal2409.dnsforwarder.server.codec.models.CompactQuestion;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsHeader;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DomainName;
 import io.github.akmal2409.dnsforwarder.server.codec.models.records.ARecord;
 import io.github.akmal2409.dnsforwarder.server.codec.models.records.Cname;
 import io.github.akmal2409.dnsforwarder.server.codec.models.records.HInfo;
@@ -16,6 +20,7 @@ import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceReco
 import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import org.junit.jupiter.api.DisplayName;
@@ -124,6 +129,117 @@ class DnsMessageDecoderTest {
     canParseAnswers(expectedAnswers);
   }
 
+  @Test
+  @DisplayName("Lazy message decodes the questions without touching undecodable answers")
+  void lazyMessageDecodesOnlyAccessedSections() throws UnknownHostException {
+    final var question = new DnsQuestion("google.com", DnsType.A, DnsClass.IN);
+    final var answer = new ARecord("google.com", DnsClass.IN, 100,
+        (Inet4Address) Inet4Address.getByName("10.189.11.12"));
+    final var messageBytes = DnsPacketGenerator.createMessage(
+        c -> c.query(false)
+                 .questions(List.of(question))
+                 .answers(List.of(answer)));
+
+    // turn the answer into a record type the decoder has no rdata decoder for
+    final var layout = MessageLayout.scan(messageBytes);
+    messageBytes[layout.rDataOffset(0) - 10] = 0x7f;
+
+    final LazyDnsMessage lazy = DnsMessageDecoder.fromBytes(messageBytes).decodeLazily();
+
+    assertThat(lazy.header().answerCount()).isEqualTo(1);
+    assertThat(lazy.questions()).hasSize(1);
+    assertThat(lazy.questions()[0]).usingRecursiveComparison().isEqualTo(question);
+    assertThatThrownBy(lazy::answers).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  @DisplayName("Decodes a compressed message in place between the buffer's position and limit")
+  void decodesFromDirectBuffer() throws UnknownHostException {
+    final var questions = new DnsQuestion[]{new DnsQuestion("www.google.com", DnsType.A,
+        DnsClass.IN)};
+    final var answers = new ResourceRecord[]{
+        new Cname("www.google.com", DnsClass.IN, 300, "edge.google.com"),
+        new ARecord("edge.google.com", DnsClass.IN, 60,
+            (Inet4Address) Inet4Address.getByName("10.189.11.12"))};
+    final var expected = new DnsMessage(answerHeader(1, 2, 0, 0), questions, answers,
+        new ResourceRecord[0], new ResourceRecord[0]);
+
+    final var encoded = ByteBuffer.allocate(512);
+    new DnsMessageEncoder().encode(expected, encoded);
+    encoded.flip();
+
+    // pointers are relative to the start of the message, not of the buffer
+    final var buffer = ByteBuffer.allocateDirect(600);
+    buffer.position(7);
+    buffer.put(encoded).put(new byte[]{1, 2, 3});
+    buffer.limit(7 + encoded.limit()).position(7);
+
+    final DnsMessage actual = DnsMessageDecoder.fromBuffer(buffer).decode();
+
+    assertThat(actual).usingRecursiveComparison().isEqualTo(expected);
+    assertThat(buffer.position()).isEqualTo(7);
+    assertThat(buffer.limit()).isEqualTo(7 + encoded.limit());
+  }
+
+  @Test
+  @DisplayName("Decodes only the given range of a larger receive buffer")
+  void decodesArrayRange() {
+    final var question = new DnsQuestion("google.com", DnsType.A, DnsClass.IN);
+    final var query = DnsPacketGenerator.createMessage(c -> c.query(true).question(question));
+    final var receiveBuffer = new byte[1024];
+    Arrays.fill(receiveBuffer, (byte) 7); // stale bytes of an earlier packet
+    System.arraycopy(query, 0, receiveBuffer, 5, query.length);
+
+    final DnsMessage actual = DnsMessageDecoder.fromBytes(receiveBuffer, 5, query.length)
+                                  .decode();
+
+    assertThat(actual.questions()).hasSize(1);
+    assertThat(actual.questions()[0]).usingRecursiveComparison().isEqualTo(question);
+    assertThatThrownBy(() -> DnsMessageDecoder.fromBytes(receiveBuffer, 5, query.length - 1)
+                                 .decode())
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  @DisplayName("Decodes the single question without decoding the rest of the message")
+  void decodesSingleQuestion() {
+    final var question = new DnsQuestion("Mail.Google.com", DnsType.MX, DnsClass.IN);
+    final var query = DnsPacketGenerator.createMessage(c -> c.questions(List.of(question)));
+
+    assertThat(DnsMessageDecoder.fromBytes(query).decodeSingleQuestion()).isEqualTo(
+        new CompactQuestion(DomainName.of("mail.google.com"), DnsType.MX, DnsClass.IN));
+  }
+
+  @Test
+  @DisplayName("Single question fast path returns null unless there is exactly one question")
+  void singleQuestionIsNullForMultipleQuestions() {
+    final var query = DnsPacketGenerator.createMessage(c -> c.questions(List.of(
+        new DnsQuestion("google.com", DnsType.A, DnsClass.IN),
+        new DnsQuestion("mail.google.com", DnsType.MX, DnsClass.IN))));
+
+    assertThat(DnsMessageDecoder.fromBytes(query).decodeSingleQuestion()).isNull();
+  }
+
+  @Test
+  @DisplayName("Single question fast path rejects too long labels and names")
+  void singleQuestionRejectsOversizedNames() {
+    final var longLabel = ByteBuffer.allocate(12 + 1 + 64 + 1 + 4)
+                              .putShort(4, (short) 1)
+                              .put(12, (byte) 64);
+    final var longName = ByteBuffer.allocate(12 + 5 * 51 + 1 + 4).putShort(4, (short) 1);
+
+    for (int i = 0; i < 5; i++) {
+      longName.put(12 + i * 51, (byte) 50);
+    }
+
+    assertThatThrownBy(() -> DnsMessageDecoder.fromBuffer(longLabel).decodeSingleQuestion())
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("Label exceeds");
+    assertThatThrownBy(() -> DnsMessageDecoder.fromBuffer(longName).decodeSingleQuestion())
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("Domain name exceeds");
+  }
+
   private static void canParseAnswers(List<ResourceRecord> expectedAnswers) {
     final var questions = new DnsQuestion[]{new DnsQuestion("google.com", DnsType.A, DnsClass.IN)};
 
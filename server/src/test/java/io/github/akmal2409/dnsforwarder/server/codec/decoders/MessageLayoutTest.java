@@ -0,0 +1,28 @@
+package io.github.akmal2409.dnsforwarder.server.codec.decoders;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class MessageLayoutTest {
+
+  @Test
+  @DisplayName("Rejects a message declaring more records than its length can hold")
+  void rejectsInflatedRecordCounts() {
+    final byte[] message = DnsPacketGenerator.createMessage(
+        c -> c.question(new DnsQuestion("google.com", DnsType.A, DnsClass.IN)));
+
+    for (int i = 6; i < 12; i++) {
+      message[i] = (byte) 0xff;
+    }
+
+    assertThatThrownBy(() -> MessageLayout.scan(message))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("more than its length can hold");
+  }
+}
@@ -0,0 +1,86 @@
+package io.github.akmal2409.dnsforwarder.server.codec.decoders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.PacketValidator.Verdict;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.Opt;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class PacketValidatorTest {
+
+  private static final DnsQuestion QUESTION = new DnsQuestion("mail.google.com", DnsType.A,
+      DnsClass.IN);
+
+  @Test
+  @DisplayName("Accepts a query with a question and an OPT record")
+  void acceptsQuery() {
+    final var query = DnsPacketGenerator.createMessage(c -> c.query(true).question(QUESTION)
+        .additional(new Opt("", (short) 1232, 0, List.of())));
+
+    assertThat(PacketValidator.validateQuery(ByteBuffer.wrap(query), 512))
+        .isEqualTo(Verdict.VALID);
+  }
+
+  @Test
+  @DisplayName("Rejects a datagram shorter than the header or longer than allowed")
+  void rejectsLength() {
+    final var query = DnsPacketGenerator.createMessage(c -> c.query(true).question(QUESTION));
+
+    assertThat(PacketValidator.validateQuery(ByteBuffer.wrap(query, 0, 11).slice(), 512))
+        .isEqualTo(Verdict.TOO_SHORT);
+    assertThat(PacketValidator.validateQuery(ByteBuffer.wrap(query), query.length - 1))
+        .isEqualTo(Verdict.TOO_LONG);
+  }
+
+  @Test
+  @DisplayName("Rejects a response")
+  void rejectsResponse() {
+    final var response = DnsPacketGenerator.createMessage(c -> c.query(false).question(QUESTION));
+
+    assertThat(PacketValidator.validateQuery(ByteBuffer.wrap(response), 512))
+        .isEqualTo(Verdict.NOT_A_QUERY);
+  }
+
+  @Test
+  @DisplayName("Rejects a query whose question is cut short")
+  void rejectsTruncatedQuestion() {
+    final var query = DnsPacketGenerator.createMessage(c -> c.query(true).question(QUESTION));
+
+    assertThat(PacketValidator.validateQuery(ByteBuffer.wrap(query, 0, query.length - 2).slice(),
+        512)).isEqualTo(Verdict.MALFORMED);
+  }
+
+  @Test
+  @DisplayName("Rejects more sections than the datagram holds")
+  void rejectsOverstatedCounts() {
+    final var query = DnsPacketGenerator.createMessage(c -> c.query(true).question(QUESTION));
+    query[7] = 1; // one answer that isn't there
+
+    assertThat(PacketValidator.validateQuery(ByteBuffer.wrap(query), 512))
+        .isEqualTo(Verdict.MALFORMED);
+  }
+
+  @Test
+  @DisplayName("Rejects a name with a pointer that doesn't lead backwards")
+  void rejectsForwardPointer() {
+    final var query = Arrays.copyOf(
+        DnsPacketGenerator.createMessage(c -> c.query(true).question(QUESTION)), 12 + 6);
+    query[12] = (byte) 0xc0;
+    query[13] = 12; // points at itself
+    query[14] = 0;
+    query[15] = 1;
+    query[16] = 0;
+    query[17] = 1;
+
+    assertThat(PacketValidator.validateQuery(ByteBuffer.wrap(query), 512))
+        .isEqualTo(Verdict.MALFORMED);
+  }
+}
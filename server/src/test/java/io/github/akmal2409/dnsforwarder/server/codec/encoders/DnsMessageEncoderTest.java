@@ -0,0 +1,105 @@
+package io.github.akmal2409.dnsforwarder.server.codec.encoders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsMessageDecoder;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsHeader;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsMessage;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ARecord;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.Cname;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ResourceRecord;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.SOA;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import java.net.Inet4Address;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class DnsMessageEncoderTest {
+
+  private static final DnsQuestion question = new DnsQuestion("www.google.com", DnsType.A,
+      DnsClass.IN);
+
+  @Test
+  @DisplayName("Encoded message decodes back to the same message")
+  void roundTrips() throws UnknownHostException {
+    final var message = response(new Cname("www.google.com", DnsClass.IN, 300, "google.com"),
+        new ARecord("google.com", DnsClass.IN, 200,
+            (Inet4Address) Inet4Address.getByName("10.0.0.1")));
+    final var buffer = ByteBuffer.allocate(512);
+
+    final int length = new DnsMessageEncoder().encode(message, buffer);
+    final var encoded = Arrays.copyOf(buffer.array(), length);
+
+    assertThat(DnsMessageDecoder.fromBytes(encoded).decode())
+        .usingRecursiveComparison()
+        .isEqualTo(message);
+  }
+
+  @Test
+  @DisplayName("SOA record decodes back with both names and all the fields")
+  void roundTripsSoa() {
+    final var message = response(new SOA("google.com", DnsClass.IN, 60, "ns1.google.com",
+        "dns-admin.google.com", 4_294_967_295L, 900, 900, 1800, 60));
+    final var buffer = ByteBuffer.allocate(512);
+
+    final int length = new DnsMessageEncoder().encode(message, buffer);
+    final var encoded = Arrays.copyOf(buffer.array(), length);
+
+    assertThat(DnsMessageDecoder.fromBytes(encoded).decode())
+        .usingRecursiveComparison()
+        .isEqualTo(message);
+  }
+
+  @Test
+  @DisplayName("Repeated names and suffixes are compressed")
+  void compressesNames() throws UnknownHostException {
+    final var address = (Inet4Address) Inet4Address.getByName("10.0.0.1");
+    final var message = response(new ARecord("www.google.com", DnsClass.IN, 300, address),
+        new ARecord("mail.google.com", DnsClass.IN, 300, address));
+
+    final var uncompressed = DnsPacketGenerator.createMessage(
+        c -> c.query(false).questions(List.of(question))
+                 .answers(Arrays.asList(message.answers())));
+    final int length = new DnsMessageEncoder().encode(message, ByteBuffer.allocate(512));
+
+    // the first answer is a single pointer, the second one "mail" and a pointer to "google.com"
+    assertThat(length).isEqualTo(uncompressed.length - (16 - 2) - (17 - 7));
+  }
+
+  @Test
+  @DisplayName("Records that don't fit are dropped and the message is marked as truncated")
+  void truncates() throws UnknownHostException {
+    final var records = new ResourceRecord[40];
+    for (int i = 0; i < records.length; i++) {
+      records[i] = new ARecord("www.google.com", DnsClass.IN, 300,
+          (Inet4Address) Inet4Address.getByName("10.0.0." + i));
+    }
+    final var buffer = ByteBuffer.allocate(512);
+    buffer.limit(100);
+
+    final int length = new DnsMessageEncoder().encode(response(records), buffer);
+    final var decoded = DnsMessageDecoder.fromBytes(Arrays.copyOf(buffer.array(), length))
+                            .decode();
+
+    // 12 header + 20 question + 16 per answer
+    assertThat(length).isEqualTo(12 + 20 + 4 * 16);
+    assertThat(decoded.header().truncation()).isTrue();
+    assertThat(decoded.header().answerCount()).isEqualTo(4);
+    assertThat(decoded.answers()).hasSize(4);
+  }
+
+  private static DnsMessage response(ResourceRecord... answers) {
+    final var header = new DnsHeader((short) 4321, false, (byte) 0, false, false, true, true,
+        false, (byte) 0, 1, answers.length, 0, 0);
+
+    return new DnsMessage(header, new DnsQuestion[]{question}, answers, new ResourceRecord[0],
+        new ResourceRecord[0]);
+  }
+}
@@ -0,0 +1,76 @@
+package io.github.akmal2409.dnsforwarder.server.codec.models;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class DomainNameTest {
+
+  @Test
+  @DisplayName("Names differing only in case and the trailing dot are equal")
+  void namesAreCaseInsensitive() {
+    final var name = DomainName.of("Mail.Google.COM.");
+
+    assertThat(name).isEqualTo(DomainName.of("mail.google.com"));
+    assertThat(name.hashCode()).isEqualTo(DomainName.of("mail.google.com").hashCode());
+    assertThat(name.toString()).isEqualTo("mail.google.com");
+  }
+
+  @Test
+  @DisplayName("Encodes the name in the wire format")
+  void encodesWireFormat() {
+    final var name = DomainName.of("ab.c");
+    final var wire = new byte[name.wireLength()];
+    name.writeTo(wire, 0);
+
+    assertThat(wire).isEqualTo(new byte[]{2, 'a', 'b', 1, 'c', 0});
+  }
+
+  @Test
+  @DisplayName("Empty name and a single dot are the root")
+  void rootName() {
+    assertThat(DomainName.of("")).isSameAs(DomainName.ROOT);
+    assertThat(DomainName.of(".")).isSameAs(DomainName.ROOT);
+    assertThat(DomainName.ROOT.wireLength()).isEqualTo(1);
+    assertThat(DomainName.ROOT.toString()).isEmpty();
+  }
+
+  @Test
+  @DisplayName("Rejects empty and too long labels")
+  void rejectsInvalidLabels() {
+    assertThatThrownBy(() -> DomainName.of("mail..com"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> DomainName.of("a".repeat(64) + ".com"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  @DisplayName("Rejects names that are not ASCII")
+  void rejectsNonAsciiNames() {
+    assertThatThrownBy(() -> DomainName.of("bücher.de"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  @DisplayName("Takes over a checked wire name only if it is well-formed and lower-cased")
+  void checksWireNames() {
+    assertThat(DomainName.ofCheckedWire(new byte[]{3, 'c', 'o', 'm', 0}))
+        .isEqualTo(DomainName.of("com"));
+    assertThat(DomainName.ofCheckedWire(new byte[]{0})).isSameAs(DomainName.ROOT);
+
+    assertThatThrownBy(() -> DomainName.ofCheckedWire(new byte[0]))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> DomainName.ofCheckedWire(new byte[]{3, 'C', 'o', 'm', 0}))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> DomainName.ofCheckedWire(new byte[]{4, 'c', 'o', 'm', 0}))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> DomainName.ofCheckedWire(new byte[]{3, 'c', 'o', 'm', 0, 0}))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> DomainName.ofCheckedWire(new byte[]{64, 'c', 0}))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> DomainName.ofCheckedWire(new byte[256]))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
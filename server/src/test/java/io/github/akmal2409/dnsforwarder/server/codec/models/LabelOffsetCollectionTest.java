@@ -0,0 +1,77 @@
+package io.github.akmal2409.dnsforwarder.server.codec.models;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.DecodedPointerLabel;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.DecodedValueLabel;
+import io.github.akmal2409.dnsforwarder.server.codec.decoders.DnsDomainNameDecoder.ParsedDomainName;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class LabelOffsetCollectionTest {
+
+  private static final ParsedDomainName googleCom = new ParsedDomainName(12, 24, List.of(
+      new DecodedValueLabel(12, "google"), new DecodedValueLabel(19, "com"),
+      new DecodedValueLabel(23, null)));
+
+  @Test
+  @DisplayName("Resolves pointers to the start and to the middle of a label sequence")
+  void resolvesPointers() {
+    final var collection = new LabelOffsetCollection();
+    collection.put(googleCom);
+
+    assertThat(collection.getByPointer(12)).isEqualTo(googleCom.labels().stream()
+                                                            .map(DecodedValueLabel.class::cast)
+                                                            .toList());
+    assertThat(collection.getByPointer(19)).isEqualTo(List.of(
+        new DecodedValueLabel(19, "com"), new DecodedValueLabel(23, null)));
+    assertThat(collection.getByPointer(13)).isEmpty();
+  }
+
+  @Test
+  @DisplayName("Decompresses a name ending with a pointer and remembers it for later pointers")
+  void decompressesNameWithPointer() {
+    final var collection = new LabelOffsetCollection();
+    collection.put(googleCom);
+
+    final var mail = new ParsedDomainName(40, 47, List.of(
+        new DecodedValueLabel(40, "mail"), new DecodedPointerLabel(45, 12)));
+    final var expected = List.of(new DecodedValueLabel(40, "mail"),
+        new DecodedValueLabel(12, "google"), new DecodedValueLabel(19, "com"),
+        new DecodedValueLabel(23, null));
+
+    assertThat(collection.put(mail)).isEqualTo(expected);
+    assertThat(collection.getByPointer(40)).isEqualTo(expected);
+    assertThat(collection.getByPointer(45)).isEqualTo(expected.subList(1, 4));
+  }
+
+  @Test
+  @DisplayName("Fails on a pointer to unknown labels")
+  void failsOnUnknownPointer() {
+    final var collection = new LabelOffsetCollection();
+    final var name = new ParsedDomainName(12, 14, List.of(new DecodedPointerLabel(12, 100)));
+
+    assertThatThrownBy(() -> collection.put(name))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Pointer 100 is referencing unknown labels at offset 12");
+  }
+
+  @Test
+  @DisplayName("Forgets the labels after reset and grows past the initial capacity")
+  void resetsAndGrows() {
+    final var collection = new LabelOffsetCollection();
+    collection.put(googleCom);
+    collection.reset();
+
+    assertThat(collection.getByPointer(12)).isEmpty();
+
+    final var far = new ParsedDomainName(4000, 4005, List.of(
+        new DecodedValueLabel(4000, "com"), new DecodedValueLabel(4004, null)));
+    collection.put(far);
+
+    assertThat(collection.getByPointer(4000)).isEqualTo(List.of(
+        new DecodedValueLabel(4000, "com"), new DecodedValueLabel(4004, null)));
+  }
+}
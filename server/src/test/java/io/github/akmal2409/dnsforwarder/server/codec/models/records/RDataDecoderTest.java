@@ -15,6 +15,7 @@ import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
 import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
 import io.github.akmal2409.dnsforwarder.server.codec.models.LabelOffsetCollection;
 import io.github.akmal2409.dnsforwarder.server.codec.models.records.Opt.Option;
+import io.github.akmal2409.dnsforwarder.server.common.ByteUtils;
 import io.github.akmal2409.dnsforwarder.server.shared.CodecUtils;
 import io.github.akmal2409.dnsforwarder.server.shared.CodecUtils.ValueLabel;
 import java.net.Inet4Address;
@@ -126,4 +127,34 @@ class RDataDecoderTest {
         .usingRecursiveComparison()
         .isEqualTo(expected);
   }
+
+  @Test
+  @DisplayName("Can decode SOA")
+  void testDecodesSoa() {
+    final var expected = new SOA("google.com", DnsClass.IN, 60, "ns1.google.com",
+        "dns-admin.google.com", 4_294_967_295L, 900, 900, 1800, 60);
+    final var fields = new byte[20];
+    final long[] values = {expected.serial(), expected.refresh(), expected.retry(),
+        expected.expire(), expected.minimum()};
+
+    for (int i = 0; i < values.length; i++) {
+      ByteUtils.writeInt(fields, i * 4, 1, (int) values[i]);
+    }
+
+    final var rData = merge(
+        CodecUtils.encodedLabels(List.of(new ValueLabel("ns1"), new ValueLabel("google"),
+            new ValueLabel("com"))),
+        CodecUtils.encodedLabels(List.of(new ValueLabel("dns-admin"), new ValueLabel("google"),
+            new ValueLabel("com"))),
+        fields);
+
+    final var actual = RDataDecoder.newInstanceFor(DnsType.SOA,
+        new LabelOffsetCollection()).decode(expected.domainName,
+        (short) expected.dnsClass.numericValue, expected.type(), expected.ttl,
+        rData.length, 0, rData);
+
+    assertThat(actual)
+        .usingRecursiveComparison()
+        .isEqualTo(expected);
+  }
 }
@@ -0,0 +1,182 @@
+package io.github.akmal2409.dnsforwarder.server.forwarding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.buffer.BufferPool;
+import io.github.akmal2409.dnsforwarder.server.buffer.PooledBuffer;
+import io.github.akmal2409.dnsforwarder.server.cache.ResponseCache;
+import io.github.akmal2409.dnsforwarder.server.codec.Edns;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.codec.models.records.ARecord;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import io.github.akmal2409.dnsforwarder.server.shared.MutableClock;
+import io.github.akmal2409.dnsforwarder.server.upstream.UpstreamClient;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class ForwardingQueryHandlerTest {
+
+  private static final int UDP_PAYLOAD_SIZE = 1232;
+  // option code 8 is the client subnet, 10.0.0.0/24
+  private static final byte[] CLIENT_SUBNET = {0, 8, 0, 7, 0, 1, 24, 0, 10, 0, 0};
+
+  private final BlockingQueue<byte[]> upstreamQueries = new LinkedBlockingQueue<>();
+  private final BlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+  private final BlockingQueue<String> responderThreads = new LinkedBlockingQueue<>();
+  private final MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+  private final ExecutorService workers = Executors.newSingleThreadExecutor(
+      task -> new Thread(task, "worker"));
+  private final BufferPool buffers = new BufferPool(4, 512);
+  private final DatagramSocket upstream;
+  private final UpstreamClient upstreamClient;
+  private final ForwardingQueryHandler handler;
+  private volatile boolean upstreamSilent;
+
+  ForwardingQueryHandlerTest() throws IOException {
+    this.upstream = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    Thread.ofVirtual().start(this::answer);
+
+    this.upstreamClient = UpstreamClient.open(
+        List.of((InetSocketAddress) upstream.getLocalSocketAddress()), 1, 1, UDP_PAYLOAD_SIZE,
+        Duration.ofSeconds(5), Duration.ofMinutes(1));
+    final var cache = new ResponseCache(1 << 20, 4, ResponseCache.Storage.HEAP, 0,
+        Duration.ofDays(1), 1.0, Integer.MAX_VALUE, Duration.ofDays(1), clock);
+    this.handler = new ForwardingQueryHandler(upstreamClient, cache, workers,
+        Duration.ofMillis(100), UDP_PAYLOAD_SIZE);
+  }
+
+  @AfterEach
+  void tearDown() {
+    upstreamClient.close();
+    upstream.close();
+    workers.shutdownNow();
+  }
+
+  @Test
+  @DisplayName("Asks the upstream again for a DO client after a plain client filled the cache")
+  void cachesDnssecAnswersSeparately() throws InterruptedException {
+    final ByteBuffer plainResponse = ask(query(false, new byte[0]));
+    final ByteBuffer dnssecResponse = ask(query(true, new byte[0]));
+    ask(query(false, new byte[0]));
+
+    final ByteBuffer plainQuery = ByteBuffer.wrap(upstreamQueries.take());
+    final ByteBuffer dnssecQuery = ByteBuffer.wrap(upstreamQueries.take());
+
+    assertThat(Edns.dnssecOk(plainQuery, Edns.optOffset(plainQuery))).isFalse();
+    assertThat(Edns.dnssecOk(dnssecQuery, Edns.optOffset(dnssecQuery))).isTrue();
+    assertThat(upstreamQueries).isEmpty();
+
+    assertThat(Edns.dnssecOk(plainResponse, Edns.optOffset(plainResponse))).isFalse();
+    assertThat(Edns.dnssecOk(dnssecResponse, Edns.optOffset(dnssecResponse))).isTrue();
+  }
+
+  @Test
+  @DisplayName("Sends its own OPT record upstream instead of the client's one")
+  void replacesClientOpt() throws InterruptedException {
+    ask(query(true, CLIENT_SUBNET));
+
+    final ByteBuffer sent = ByteBuffer.wrap(upstreamQueries.take());
+    final int opt = Edns.optOffset(sent);
+
+    assertThat(sent.limit()).isEqualTo(opt + Edns.OPT_LENGTH);
+    assertThat(Edns.udpPayloadSize(sent, opt)).isEqualTo(UDP_PAYLOAD_SIZE);
+    assertThat(Edns.dnssecOk(sent, opt)).isTrue();
+    assertThat(sent.getShort(10)).isEqualTo((short) 1);
+  }
+
+  @Test
+  @DisplayName("Serves the stale answer from a worker once the upstream is late")
+  void servesStaleAnswerFromWorker() throws InterruptedException {
+    ask(query(false, new byte[0]));
+    upstreamSilent = true;
+    clock.advance(Duration.ofSeconds(301));
+
+    final ByteBuffer response = ask(query(false, new byte[0]));
+
+    assertThat(response.getShort(6)).isEqualTo((short) 1);
+    assertThat(responderThreads.take()).isNotEqualTo("worker");
+    assertThat(responderThreads.take()).isEqualTo("worker");
+  }
+
+  private ByteBuffer ask(ByteBuffer query) throws InterruptedException {
+    final PooledBuffer pooled = buffers.acquire();
+    pooled.buffer().put(query).flip();
+
+    handler.handle(pooled, response -> {
+      final var copy = new byte[response.remaining()];
+      response.get(response.position(), copy);
+      responses.add(copy);
+      responderThreads.add(Thread.currentThread().getName());
+    });
+
+    final byte[] response = responses.poll(5, TimeUnit.SECONDS);
+    assertThat(response).isNotNull();
+    return ByteBuffer.wrap(response);
+  }
+
+  // query advertising 4096 bytes, whose OPT record carries the given options
+  private static ByteBuffer query(boolean dnssecOk, byte[] options) {
+    final byte[] message = DnsPacketGenerator.createMessage(c -> c.query(true)
+        .question(new DnsQuestion("google.com", DnsType.A, DnsClass.IN)));
+    final ByteBuffer query = ByteBuffer.allocate(512).put(message).flip();
+
+    Edns.appendOpt(query, 4096, dnssecOk);
+    final int end = query.limit();
+    query.putShort(end - 2, (short) options.length)
+        .limit(end + options.length)
+        .put(end, options);
+    return query;
+  }
+
+  // answers every query with an A record and keeps the query as it was received
+  private void answer() {
+    final var packet = new DatagramPacket(new byte[512], 512);
+
+    try {
+      final var address = (Inet4Address) Inet4Address.getByName("10.0.0.1");
+
+      while (true) {
+        packet.setLength(512);
+        upstream.receive(packet);
+        final byte[] query = Arrays.copyOf(packet.getData(), packet.getLength());
+        final short id = (short) ((query[0] & 0xff) << 8 | query[1] & 0xff);
+        upstreamQueries.add(query);
+
+        if (upstreamSilent) {
+          continue;
+        }
+
+        final byte[] response = DnsPacketGenerator.createMessage(c -> c.id(id).query(false)
+            .question(new DnsQuestion("google.com", DnsType.A, DnsClass.IN))
+            .answer(new ARecord("google.com", DnsClass.IN, 300, address)));
+        upstream.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+      }
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException(e);
+    } catch (IOException e) {
+      // closed by the test
+    }
+  }
+}
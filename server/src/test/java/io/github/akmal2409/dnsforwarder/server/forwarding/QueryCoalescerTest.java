@@ -0,0 +1,73 @@
+package io.github.akmal2409.dnsforwarder.server.forwarding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.cache.CacheKey;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class QueryCoalescerTest {
+
+  private static final CacheKey key = CacheKey.of(
+      new DnsQuestion("google.com", DnsType.A, DnsClass.IN));
+  private static final CacheKey otherKey = CacheKey.of(
+      new DnsQuestion("google.com", DnsType.AAAA, DnsClass.IN));
+
+  private final QueryCoalescer coalescer = new QueryCoalescer();
+  private final AtomicInteger sent = new AtomicInteger();
+  private final CompletableFuture<byte[]> upstream = new CompletableFuture<>();
+
+  @Test
+  @DisplayName("Sends one upstream query for concurrent queries with the same question")
+  void coalescesSameQuestion() {
+    final var first = coalescer.query(key, this::send);
+    final var second = coalescer.query(
+        CacheKey.of(new DnsQuestion("GooGle.com", DnsType.A, DnsClass.IN)), this::send);
+
+    assertThat(sent.get()).isOne();
+    assertThat(second).isNotDone();
+
+    final var response = new byte[]{1, 2, 3};
+    upstream.complete(response);
+
+    assertThat(first.join()).isSameAs(response);
+    assertThat(second.join()).isSameAs(response);
+    assertThat(coalescer.pendingCount()).isZero();
+  }
+
+  @Test
+  @DisplayName("Sends separate queries for different questions")
+  void keepsDifferentQuestionsApart() {
+    coalescer.query(key, this::send);
+    coalescer.query(otherKey, this::send);
+
+    assertThat(sent.get()).isEqualTo(2);
+  }
+
+  @Test
+  @DisplayName("Fails every waiter and sends the next query again once the upstream fails")
+  void propagatesFailure() {
+    final var first = coalescer.query(key, this::send);
+    final var second = coalescer.query(key, this::send);
+
+    upstream.completeExceptionally(new TimeoutException());
+
+    assertThat(first).isCompletedExceptionally();
+    assertThat(second).isCompletedExceptionally();
+
+    coalescer.query(key, this::send);
+
+    assertThat(sent.get()).isEqualTo(2);
+  }
+
+  private CompletableFuture<byte[]> send() {
+    sent.incrementAndGet();
+    return upstream;
+  }
+}
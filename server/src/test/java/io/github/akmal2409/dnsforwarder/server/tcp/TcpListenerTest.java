@@ -0,0 +1,194 @@
+package io.github.akmal2409.dnsforwarder.server.tcp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.buffer.BufferPool;
+import io.github.akmal2409.dnsforwarder.server.buffer.PooledBuffer;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.forwarding.Responder;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class TcpListenerTest {
+
+  private static final short DROPPED_ID = 3;
+  private static final short FAILING_ID = 4;
+
+  private final ExecutorService workers = Executors.newFixedThreadPool(4);
+  private final CountDownLatch secondAnswered = new CountDownLatch(1);
+  private TcpListener listener;
+  private Thread listenerThread;
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    listener.close();
+    listenerThread.join();
+    workers.shutdownNow();
+  }
+
+  @Test
+  @DisplayName("Answers pipelined queries in the order their responses are ready")
+  void answersPipelinedQueriesOutOfOrder() throws IOException {
+    final int port = start(Duration.ofSeconds(5), 16);
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      final var out = new DataOutputStream(socket.getOutputStream());
+      final var in = new DataInputStream(socket.getInputStream());
+
+      writeQuery(out, (short) 1);
+      writeQuery(out, (short) 2);
+
+      assertThat(readResponseId(in)).isEqualTo((short) 2);
+      assertThat(readResponseId(in)).isEqualTo((short) 1);
+    }
+  }
+
+  @Test
+  @DisplayName("Still answers the queries sent before the client shut down its output")
+  void answersAfterHalfClose() throws IOException {
+    final int port = start(Duration.ofSeconds(5), 16);
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      final var out = new DataOutputStream(socket.getOutputStream());
+      final var in = new DataInputStream(socket.getInputStream());
+
+      writeQuery(out, (short) 1);
+      writeQuery(out, (short) 2);
+      socket.shutdownOutput();
+
+      assertThat(readResponseId(in)).isEqualTo((short) 2);
+      assertThat(readResponseId(in)).isEqualTo((short) 1);
+      assertThat(in.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  @DisplayName("Closes a half-closed connection once its dropped and failed queries are done")
+  void closesAfterUnansweredQueries() throws IOException {
+    final int port = start(Duration.ofSeconds(5), 16);
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      final var out = new DataOutputStream(socket.getOutputStream());
+      final var in = new DataInputStream(socket.getInputStream());
+      // well before the idle timeout
+      socket.setSoTimeout(2000);
+
+      writeQuery(out, DROPPED_ID);
+      writeQuery(out, FAILING_ID);
+      writeQuery(out, (short) 2);
+      socket.shutdownOutput();
+
+      assertThat(readResponseId(in)).isEqualTo((short) 2);
+      assertThat(in.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  @DisplayName("Closes a connection that has been idle for too long")
+  void closesIdleConnection() throws IOException {
+    final int port = start(Duration.ofMillis(200), 16);
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      final var out = new DataOutputStream(socket.getOutputStream());
+      final var in = new DataInputStream(socket.getInputStream());
+
+      writeQuery(out, (short) 2);
+
+      assertThat(readResponseId(in)).isEqualTo((short) 2);
+      assertThat(in.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  @DisplayName("Closes the connections beyond the limit right away")
+  void limitsConnections() throws IOException {
+    final int port = start(Duration.ofSeconds(5), 1);
+
+    try (Socket first = new Socket(InetAddress.getLoopbackAddress(), port);
+        Socket second = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      writeQuery(new DataOutputStream(first.getOutputStream()), (short) 2);
+
+      assertThat(readResponseId(new DataInputStream(first.getInputStream())))
+          .isEqualTo((short) 2);
+      assertThat(second.getInputStream().read()).isEqualTo(-1);
+    }
+  }
+
+  private int start(Duration idleTimeout, int maxConnections) throws IOException {
+    final var serverSocket = new ServerSocket();
+    serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+    listener = new TcpListener(serverSocket, new BufferPool(16, 512), workers, this::answer,
+        idleTimeout, maxConnections);
+    listenerThread = Thread.ofPlatform().start(listener);
+
+    return serverSocket.getLocalPort();
+  }
+
+  // the query with id 1 is only answered after the one with id 2, the dropped one is released
+  // without an answer and the failing one is neither answered nor released
+  private void answer(PooledBuffer query, Responder responder) {
+    final ByteBuffer message = query.buffer();
+    final short id = message.getShort(0);
+
+    if (id == DROPPED_ID) {
+      query.release();
+      return;
+    }
+    if (id == FAILING_ID) {
+      throw new IllegalStateException("Failed to handle the query");
+    }
+
+    try {
+      if (id == 1) {
+        secondAnswered.await(5, TimeUnit.SECONDS);
+      }
+
+      message.put(2, (byte) (message.get(2) | 0x80));
+      responder.respond(message);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      if (id != 1) {
+        secondAnswered.countDown();
+      }
+      query.release();
+    }
+  }
+
+  private static void writeQuery(DataOutputStream out, short id) throws IOException {
+    final byte[] query = DnsPacketGenerator.createMessage(c -> c.id(id).query(true)
+        .question(new DnsQuestion("google.com", DnsType.A, DnsClass.IN)));
+
+    out.writeShort(query.length);
+    out.write(query);
+    out.flush();
+  }
+
+  private static short readResponseId(DataInputStream in) throws IOException {
+    final var response = new byte[in.readUnsignedShort()];
+    in.readFully(response);
+
+    assertThat(response[2] & 0x80).isEqualTo(0x80);
+    return (short) ((response[0] & 0xff) << 8 | response[1] & 0xff);
+  }
+}
@@ -0,0 +1,116 @@
+package io.github.akmal2409.dnsforwarder.server.udp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.buffer.BufferPool;
+import io.github.akmal2409.dnsforwarder.server.buffer.PooledBuffer;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.forwarding.QueryHandler;
+import io.github.akmal2409.dnsforwarder.server.forwarding.Responder;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class BatchingUdpListenerTest {
+
+  private static final int QUERIES = 100;
+
+  private final ExecutorService workers = Executors.newFixedThreadPool(2);
+  private final ExecutorService upstream = Executors.newSingleThreadExecutor();
+  private final BufferPool buffers = new BufferPool(QUERIES * 2, 512);
+  private DatagramChannel channel;
+  private Thread listenerThread;
+
+  @AfterEach
+  void tearDown() throws IOException, InterruptedException {
+    listenerThread.interrupt();
+    channel.close();
+    listenerThread.join();
+    workers.shutdownNow();
+    upstream.shutdownNow();
+  }
+
+  @Test
+  @DisplayName("Answers a burst of queries spanning several batches")
+  void answersBurst() throws IOException {
+    final int port = start(this::answer);
+
+    assertThat(sendAndReceive(port)).hasSize(QUERIES);
+  }
+
+  @Test
+  @DisplayName("Sends the responses produced by other threads after the batch was handled")
+  void sendsLateResponses() throws IOException {
+    final int port = start((query, responder) -> upstream.execute(() -> answer(query, responder)));
+
+    assertThat(sendAndReceive(port)).hasSize(QUERIES);
+  }
+
+  private int start(QueryHandler handler) throws IOException {
+    channel = DatagramChannel.open()
+                  .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    listenerThread = Thread.ofPlatform().start(
+        new BatchingUdpListener(channel, buffers, workers, handler, 8));
+
+    return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+  }
+
+  private void answer(PooledBuffer query, Responder responder) {
+    final ByteBuffer message = query.buffer();
+
+    try {
+      message.put(2, (byte) (message.get(2) | 0x80));
+      responder.respond(message);
+    } finally {
+      query.release();
+    }
+  }
+
+  // all the queries go out before the first response is read, so that they queue up in the socket
+  private static Set<Short> sendAndReceive(int port) throws IOException {
+    final var ids = new HashSet<Short>();
+
+    try (DatagramSocket socket = new DatagramSocket()) {
+      socket.setReceiveBufferSize(1 << 20);
+      socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(5));
+
+      for (int i = 0; i < QUERIES; i++) {
+        final short id = (short) i;
+        final byte[] query = DnsPacketGenerator.createMessage(c -> c.id(id).query(true)
+            .question(new DnsQuestion("google.com", DnsType.A, DnsClass.IN)));
+
+        socket.send(new DatagramPacket(query, query.length, InetAddress.getLoopbackAddress(),
+            port));
+      }
+
+      final var packet = new DatagramPacket(new byte[512], 512);
+
+      for (int i = 0; i < QUERIES; i++) {
+        socket.receive(packet);
+        final byte[] response = packet.getData();
+
+        assertThat(response[2] & 0x80).isEqualTo(0x80);
+        ids.add((short) ((response[0] & 0xff) << 8 | response[1] & 0xff));
+      }
+    }
+
+    return ids;
+  }
+}
@@ -0,0 +1,74 @@
+package io.github.akmal2409.dnsforwarder.server.udp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.buffer.BufferPool;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class UdpListenerTest {
+
+  private static final int QUERIES = 3;
+
+  private final BufferPool buffers = new BufferPool(1, 512);
+  private DatagramChannel channel;
+  private Thread listenerThread;
+
+  @AfterEach
+  void tearDown() throws IOException, InterruptedException {
+    listenerThread.interrupt();
+    channel.close();
+    listenerThread.join();
+  }
+
+  @Test
+  @DisplayName("Releases the buffer of a query the saturated workers rejected")
+  void releasesRejectedQuery() throws IOException, InterruptedException {
+    final var rejected = new CountDownLatch(QUERIES);
+    final Executor saturated = task -> {
+      rejected.countDown();
+      throw new RejectedExecutionException();
+    };
+    final int port = start(saturated);
+
+    try (DatagramSocket socket = new DatagramSocket()) {
+      final byte[] query = DnsPacketGenerator.createMessage(c -> c.query(true)
+          .question(new DnsQuestion("google.com", DnsType.A, DnsClass.IN)));
+
+      for (int i = 0; i < QUERIES; i++) {
+        socket.send(new DatagramPacket(query, query.length, InetAddress.getLoopbackAddress(),
+            port));
+      }
+    }
+
+    rejected.await();
+
+    // every query after the first is received into the single pooled buffer again
+    assertThat(buffers.exhaustedCount()).isZero();
+  }
+
+  private int start(Executor workers) throws IOException {
+    channel = DatagramChannel.open()
+                  .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    listenerThread = Thread.ofPlatform().start(new UdpListener(channel, buffers, workers,
+        (query, responder) -> query.release()));
+
+    return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+  }
+}
@@ -0,0 +1,69 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class InFlightTableTest {
+
+  private static final InetSocketAddress upstream = new InetSocketAddress("127.0.0.1", 53);
+
+  @Test
+  @DisplayName("Hands out unique ids until the id space is exhausted")
+  void registersUniqueIds() {
+    final var table = new InFlightTable();
+    final var ids = new HashSet<Integer>();
+
+    for (int i = 0; i < 1 << 16; i++) {
+      ids.add(table.register(new PendingQuery(upstream, 0L)));
+    }
+
+    assertThat(ids).hasSize(1 << 16).doesNotContain(-1);
+    assertThat(table.register(new PendingQuery(upstream, 0L))).isEqualTo(-1);
+  }
+
+  @Test
+  @DisplayName("Returns the pending query only once and only to its upstream")
+  void takesQueryOnlyFromItsUpstream() {
+    final var table = new InFlightTable();
+    final var pending = new PendingQuery(upstream, 0L);
+    final int id = table.register(pending);
+
+    assertThat(table.take(id, new InetSocketAddress("127.0.0.2", 53))).isNull();
+    assertThat(table.take(id, upstream)).isSameAs(pending);
+    assertThat(table.take(id, upstream)).isNull();
+  }
+
+  @Test
+  @DisplayName("Removing a query frees its id")
+  void removeFreesId() {
+    final var table = new InFlightTable();
+    final var pending = new PendingQuery(upstream, 0L);
+    final int id = table.register(pending);
+
+    table.remove(id, pending);
+
+    assertThat(table.take(id, upstream)).isNull();
+  }
+
+  @Test
+  @DisplayName("A smaller table hands out ids from the whole id space and checks all their bits")
+  void smallerTableChecksWholeId() {
+    final var table = new InFlightTable(4);
+    final var ids = new HashSet<Integer>();
+
+    for (int i = 0; i < 4; i++) {
+      ids.add(table.register(new PendingQuery(upstream, 0L)));
+    }
+
+    assertThat(ids).hasSize(4).doesNotContain(-1);
+    assertThat(table.register(new PendingQuery(upstream, 0L))).isEqualTo(-1);
+
+    final int id = ids.iterator().next();
+    assertThat(table.take(id ^ 4, upstream)).isNull();
+    assertThat(table.take(id, upstream)).isNotNull();
+  }
+}
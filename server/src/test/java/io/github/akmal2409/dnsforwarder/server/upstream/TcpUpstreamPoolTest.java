@@ -0,0 +1,94 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class TcpUpstreamPoolTest {
+
+  private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+  private final ServerSocket upstream;
+  private final TcpUpstreamPool pool = new TcpUpstreamPool(1, 1000, 1232);
+
+  TcpUpstreamPoolTest() throws IOException {
+    this.upstream = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    Thread.ofVirtual().start(this::answer);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    pool.close();
+    upstream.close();
+  }
+
+  @Test
+  @DisplayName("Does not send a query that timed out as its truncated answer arrived")
+  void skipsQueryCompletedBeforeRetry() {
+    final byte[] expected = query();
+    final ByteBuffer late = ByteBuffer.wrap(query());
+    final var timedOut = new PendingQuery(address(), late, 0L);
+
+    // taken by the reader for the retry, then the timeout fires and the caller reuses the buffer
+    timedOut.response.completeExceptionally(new TimeoutException());
+    late.put(12, new byte[expected.length - 12]);
+    pool.send(timedOut);
+
+    final var waiting = new PendingQuery(address(), ByteBuffer.wrap(query()), 0L);
+    pool.send(waiting);
+    waiting.response.join();
+
+    assertThat(received).hasSize(1);
+    assertThat(Arrays.copyOfRange(received.peek(), 12, expected.length))
+        .isEqualTo(Arrays.copyOfRange(expected, 12, expected.length));
+  }
+
+  private InetSocketAddress address() {
+    return (InetSocketAddress) upstream.getLocalSocketAddress();
+  }
+
+  // echoes the queries as responses over a single connection
+  private void answer() {
+    try (Socket socket = upstream.accept()) {
+      final var in = new DataInputStream(socket.getInputStream());
+      final var out = new DataOutputStream(socket.getOutputStream());
+
+      while (true) {
+        final var message = new byte[in.readUnsignedShort()];
+        in.readFully(message);
+        received.add(message.clone());
+
+        message[2] |= (byte) 0x80;
+        out.writeShort(message.length);
+        out.write(message);
+        out.flush();
+      }
+    } catch (IOException e) {
+      // closed by the test
+    }
+  }
+
+  private static byte[] query() {
+    return DnsPacketGenerator.createMessage(c -> c.query(true)
+        .question(new DnsQuestion("google.com", DnsType.A, DnsClass.IN)));
+  }
+}
@@ -0,0 +1,124 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsClass;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsQuestion;
+import io.github.akmal2409.dnsforwarder.server.codec.models.DnsType;
+import io.github.akmal2409.dnsforwarder.server.mock.DnsPacketGenerator;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class UpstreamClientTest {
+
+  private static final int TRUNCATION_FLAG = 0x02;
+  private static final int RECURSION_AVAILABLE_FLAG = 0x80;
+
+  private final AtomicInteger accepted = new AtomicInteger();
+  private final DatagramSocket udpUpstream;
+  private final ServerSocket tcpUpstream;
+  private UpstreamClient client;
+
+  UpstreamClientTest() throws IOException {
+    this.udpUpstream = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    this.tcpUpstream = new ServerSocket();
+    tcpUpstream.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+        udpUpstream.getLocalPort()));
+
+    Thread.ofVirtual().start(this::answerTruncatedOverUdp);
+    Thread.ofVirtual().start(this::answerOverTcp);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    client.close();
+    udpUpstream.close();
+    tcpUpstream.close();
+  }
+
+  @Test
+  @DisplayName("Retries a query with a truncated answer over a TCP connection that is reused")
+  void retriesTruncatedAnswerOverTcp() throws IOException {
+    client = UpstreamClient.open(
+        List.of((InetSocketAddress) udpUpstream.getLocalSocketAddress()), 1, 1, 1232,
+        Duration.ofSeconds(5), Duration.ofMinutes(1));
+
+    for (int i = 0; i < 3; i++) {
+      final byte[] response = client.query(ByteBuffer.wrap(query())).join();
+
+      assertThat(response[2] & TRUNCATION_FLAG).isZero();
+      assertThat(response[3] & RECURSION_AVAILABLE_FLAG).isEqualTo(RECURSION_AVAILABLE_FLAG);
+    }
+
+    assertThat(accepted.get()).isOne();
+  }
+
+  // echoes the query as a response with the truncation flag set
+  private void answerTruncatedOverUdp() {
+    final var packet = new DatagramPacket(new byte[512], 512);
+
+    try {
+      while (true) {
+        packet.setLength(512);
+        udpUpstream.receive(packet);
+        final byte[] data = packet.getData();
+        data[2] |= (byte) (0x80 | TRUNCATION_FLAG);
+        udpUpstream.send(packet);
+      }
+    } catch (IOException e) {
+      // closed by the test
+    }
+  }
+
+  // echoes the queries as responses with the recursion available flag set, to tell them apart
+  private void answerOverTcp() {
+    try {
+      while (true) {
+        final Socket socket = tcpUpstream.accept();
+        accepted.incrementAndGet();
+
+        Thread.ofVirtual().start(() -> {
+          try (socket) {
+            final var in = new DataInputStream(socket.getInputStream());
+            final var out = new DataOutputStream(socket.getOutputStream());
+
+            while (true) {
+              final var message = new byte[in.readUnsignedShort()];
+              in.readFully(message);
+              message[2] |= (byte) 0x80;
+              message[3] |= (byte) RECURSION_AVAILABLE_FLAG;
+              out.writeShort(message.length);
+              out.write(message);
+              out.flush();
+            }
+          } catch (IOException e) {
+            // closed by either side
+          }
+        });
+      }
+    } catch (IOException e) {
+      // closed by the test
+    }
+  }
+
+  private static byte[] query() {
+    return DnsPacketGenerator.createMessage(c -> c.query(true)
+        .question(new DnsQuestion("google.com", DnsType.A, DnsClass.IN)));
+  }
+}
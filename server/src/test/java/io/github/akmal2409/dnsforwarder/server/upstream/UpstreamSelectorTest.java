@@ -0,0 +1,112 @@
+package io.github.akmal2409.dnsforwarder.server.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class UpstreamSelectorTest {
+
+  private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(2);
+
+  private final UpstreamServer fast = new UpstreamServer(
+      new InetSocketAddress("127.0.0.1", 53), 0L);
+  private final UpstreamServer slow = new UpstreamServer(
+      new InetSocketAddress("127.0.0.2", 53), 0L);
+  private final UpstreamSelector selector = new UpstreamSelector(List.of(fast, slow));
+
+  @Test
+  @DisplayName("Picks the server with the lower smoothed round trip time")
+  void picksFastestServer() {
+    answer(fast, 2 * MILLI);
+    answer(slow, 40 * MILLI);
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(selector.select()).isSameAs(fast);
+    }
+  }
+
+  @Test
+  @DisplayName("Spreads the load once the fastest server has enough queries waiting")
+  void accountsForQueriesInFlight() {
+    answer(fast, 2 * MILLI);
+    answer(slow, 5 * MILLI);
+
+    for (int i = 0; i < 3; i++) {
+      fast.querySent();
+    }
+
+    assertThat(selector.select()).isSameAs(slow);
+  }
+
+  @Test
+  @DisplayName("Smooths the round trip time with a factor of 1/8")
+  void smoothsRoundTripTime() {
+    answer(fast, 80 * MILLI);
+    answer(fast, 160 * MILLI);
+
+    assertThat(fast.smoothedRttNanos()).isEqualTo(90 * MILLI);
+  }
+
+  @Test
+  @DisplayName("Ejects a server after consecutive timeouts until it answers again")
+  void ejectsFailingServer() {
+    answer(fast, 2 * MILLI);
+    answer(slow, 40 * MILLI);
+
+    for (int i = 0; i < UpstreamServer.EJECT_AFTER_FAILURES - 1; i++) {
+      timeOut(fast);
+    }
+    answer(fast, 2 * MILLI); // a success resets the count
+    for (int i = 0; i < UpstreamServer.EJECT_AFTER_FAILURES; i++) {
+      timeOut(fast);
+    }
+    assertThat(fast.ejected()).isTrue();
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(selector.select()).isSameAs(slow);
+    }
+
+    answer(fast, 2 * MILLI); // e.g. a probe
+
+    assertThat(fast.ejected()).isFalse();
+  }
+
+  @Test
+  @DisplayName("Still picks a server when every one of them has been ejected")
+  void picksEjectedServerAsLastResort() {
+    for (int i = 0; i < UpstreamServer.EJECT_AFTER_FAILURES; i++) {
+      timeOut(fast);
+      timeOut(slow);
+    }
+
+    assertThat(selector.select()).isIn(fast, slow);
+  }
+
+  @Test
+  @DisplayName("A server is idle only without queries in flight for the whole period")
+  void detectsIdleServer() {
+    fast.querySent();
+
+    assertThat(fast.idle(10 * MILLI, 5 * MILLI)).isFalse();
+
+    fast.answered(MILLI, 10 * MILLI);
+
+    assertThat(fast.idle(12 * MILLI, 5 * MILLI)).isFalse();
+    assertThat(fast.idle(15 * MILLI, 5 * MILLI)).isTrue();
+  }
+
+  private static void answer(UpstreamServer server, long rttNanos) {
+    server.querySent();
+    server.answered(rttNanos, 0L);
+  }
+
+  private static void timeOut(UpstreamServer server) {
+    server.querySent();
+    server.failed(TIMEOUT, 0L);
+  }
+}
@@ -2,3 +2,5 @@ rootProject.name = "dnsforwarder"
 
 includeBuild("plugins")
 include("server")
+include("benchmarks")
+include("loadtest")